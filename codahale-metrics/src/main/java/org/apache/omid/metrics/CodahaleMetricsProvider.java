@@ -129,6 +129,11 @@ public class CodahaleMetricsProvider implements MetricsProvider, MetricsRegistry
         return new CodahaleHistogramWrapper(histogram);
     }
 
+    @Override
+    public void remove(String name) {
+        metrics.remove(name);
+    }
+
     private ScheduledReporter createAndGetConfiguredConsoleReporter() {
         return ConsoleReporter.forRegistry(metrics)
                 .convertRatesTo(TimeUnit.SECONDS)
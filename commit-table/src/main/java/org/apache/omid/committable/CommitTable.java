@@ -19,6 +19,7 @@ package org.apache.omid.committable;
 
 import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
 
 import java.io.IOException;
 
@@ -31,17 +32,47 @@ public interface CommitTable {
 
     Client getClient() throws IOException;
 
+    /**
+     * Returns the group a table belongs to when the TSO keeps a low watermark per group of tables
+     */
+    static int tableGroupOf(long tableId, int numTableGroups) {
+        return (int) Long.remainderUnsigned(tableId, numTableGroups);
+    }
+
     interface Writer{
 
         void addCommittedTransaction(long startTimestamp, long commitTimestamp) throws IOException;
 
         void updateLowWatermark(long lowWatermark) throws IOException;
 
+        /**
+         * Updates the low watermarks of the table groups, used when the TSO keeps a conflict map per group of tables.
+         * The element i of the array is the low watermark of the tables in group i, as returned by
+         * {@link CommitTable#tableGroupOf(long, int)} for the length of the array.
+         */
+        void updateTableGroupLowWatermarks(long[] lowWatermarks) throws IOException;
+
         /**
          * Flushes all the buffered events to the underlying datastore
          */
         void flush() throws IOException;
 
+        /**
+         * Flushes all the buffered events to the underlying datastore without waiting for them to be persisted. The
+         * events added after the call go to the next flush, so a writer can have several flushes in progress. The
+         * returned future completes when the flushed events are persisted. By default the flush is synchronous
+         */
+        default ListenableFuture<Void> flushAsync() {
+            SettableFuture<Void> f = SettableFuture.create();
+            try {
+                flush();
+                f.set(null);
+            } catch (IOException e) {
+                f.setException(e);
+            }
+            return f;
+        }
+
         /**
          * Allows to clean the write's current buffer. It is required for HA
          */
@@ -66,6 +97,12 @@ public interface CommitTable {
 
         ListenableFuture<Long> readLowWatermark();
 
+        /**
+         * Reads the low watermark that applies to the table passed. This is the low watermark of its table group if the
+         * TSO keeps a conflict map per group of tables and the global one otherwise.
+         */
+        ListenableFuture<Long> readLowWatermark(long tableId);
+
         ListenableFuture<Void> deleteCommitEntry(long startTimestamp);
 
         /**
@@ -31,6 +31,8 @@ public class InMemoryCommitTable implements CommitTable {
 
     long lowWatermark;
 
+    volatile long[] tableGroupLowWatermarks = new long[0];
+
     @Override
     public CommitTable.Writer getWriter() {
         return new Writer();
@@ -55,6 +57,11 @@ public class InMemoryCommitTable implements CommitTable {
             InMemoryCommitTable.this.lowWatermark = lowWatermark;
         }
 
+        @Override
+        public void updateTableGroupLowWatermarks(long[] lowWatermarks) throws IOException {
+            InMemoryCommitTable.this.tableGroupLowWatermarks = lowWatermarks.clone();
+        }
+
         @Override
         public void flush() throws IOException {
             // noop
@@ -100,6 +107,18 @@ public class InMemoryCommitTable implements CommitTable {
             return f;
         }
 
+        @Override
+        public ListenableFuture<Long> readLowWatermark(long tableId) {
+            long[] groupLowWatermarks = tableGroupLowWatermarks;
+            if (groupLowWatermarks.length == 0) {
+                return readLowWatermark();
+            }
+            SettableFuture<Long> f = SettableFuture.create();
+            int group = CommitTable.tableGroupOf(tableId, groupLowWatermarks.length);
+            f.set(Math.max(lowWatermark, groupLowWatermarks[group]));
+            return f;
+        }
+
         @Override
         public ListenableFuture<Void> deleteCommitEntry(long startTimestamp) {
             startTimestamp = removeCheckpointBits(startTimestamp);
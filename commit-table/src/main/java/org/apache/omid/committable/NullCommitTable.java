@@ -45,6 +45,11 @@ public class NullCommitTable implements CommitTable {
             // noop
         }
 
+        @Override
+        public void updateTableGroupLowWatermarks(long[] lowWatermarks) throws IOException {
+            // noop
+        }
+
         @Override
         public void clearWriteBuffer() {
             // noop
@@ -72,6 +77,11 @@ public class NullCommitTable implements CommitTable {
             throw new UnsupportedOperationException();
         }
 
+        @Override
+        public ListenableFuture<Long> readLowWatermark(long tableId) {
+            throw new UnsupportedOperationException();
+        }
+
         @Override
         public ListenableFuture<Void> deleteCommitEntry(long startTimestamp) {
             SettableFuture<Void> f = SettableFuture.create();
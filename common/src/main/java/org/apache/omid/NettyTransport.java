@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks the netty transport used by the TSO server and its clients: the native epoll one when it's available, which
+ * avoids the overhead of the JDK selectors on Linux, or NIO otherwise.
+ */
+public final class NettyTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NettyTransport.class);
+
+    private final boolean epoll;
+
+    private NettyTransport(boolean epoll) {
+        this.epoll = epoll;
+    }
+
+    /**
+     * @param nativeTransportEnabled whether the native transport can be used, if available
+     */
+    public static NettyTransport get(boolean nativeTransportEnabled) {
+        if (nativeTransportEnabled && !Epoll.isAvailable()) {
+            LOG.info("Native epoll transport not available, using NIO. Cause: {}", Epoll.unavailabilityCause().toString());
+        }
+        return new NettyTransport(nativeTransportEnabled && Epoll.isAvailable());
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public EventLoopGroup newEventLoopGroup(int numThreads, ThreadFactory threadFactory) {
+        return epoll ? new EpollEventLoopGroup(numThreads, threadFactory) : new NioEventLoopGroup(numThreads, threadFactory);
+    }
+
+    public Class<? extends ServerSocketChannel> serverChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends SocketChannel> channelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    @Override
+    public String toString() {
+        return epoll ? "epoll" : "nio";
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestNettyTransport {
+
+    @Test(timeOut = 10_000)
+    public void testNioIsUsedWhenNativeTransportIsDisabled() {
+        NettyTransport transport = NettyTransport.get(false);
+        assertFalse(transport.isEpoll());
+        assertEquals(transport.serverChannelClass(), NioServerSocketChannel.class);
+        assertEquals(transport.channelClass(), NioSocketChannel.class);
+        EventLoopGroup group = transport.newEventLoopGroup(1, new DefaultThreadFactory("test"));
+        try {
+            assertTrue(group instanceof NioEventLoopGroup);
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    @Test(timeOut = 10_000)
+    public void testNativeTransportIsUsedOnlyWhenAvailable() {
+        NettyTransport transport = NettyTransport.get(true);
+        assertEquals(transport.isEpoll(), Epoll.isAvailable());
+        EventLoopGroup group = transport.newEventLoopGroup(1, new DefaultThreadFactory("test"));
+        group.shutdownGracefully();
+    }
+
+}
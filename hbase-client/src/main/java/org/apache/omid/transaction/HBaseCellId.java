@@ -81,8 +81,15 @@ public class HBaseCellId implements CellId {
 
     @Override
     public long getTableId() {
+        return tableIdOf(table.getTableName());
+    }
+
+    /**
+     * Returns the id the TSO knows the table passed by
+     */
+    public static long tableIdOf(byte[] tableName) {
         return getHasher()
-                .putBytes(table.getTableName())
+                .putBytes(tableName)
                 .hash().asLong();
     }
 
@@ -30,6 +30,7 @@ public class DefaultHBaseCommitTableStorageModule extends AbstractModule {
     private String tableName = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_NAME;
     private String familyName = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_CF_NAME;
     private String lowWatermarkFamily = HBaseCommitTableConfig.DEFAULT_COMMIT_TABLE_LWM_CF_NAME;
+    private boolean regionAwareFlush = false;
     private String keytab;
     private String principal;
 
@@ -38,6 +39,7 @@ public class DefaultHBaseCommitTableStorageModule extends AbstractModule {
         bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_NAME_KEY)).to(tableName);
         bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_CF_NAME_KEY)).to(familyName);
         bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_LWM_CF_NAME_KEY)).to(lowWatermarkFamily);
+        bindConstant().annotatedWith(Names.named(HBaseCommitTableConfig.COMMIT_TABLE_REGION_AWARE_FLUSH_KEY)).to(regionAwareFlush);
         install(new HBaseConfigModule(principal, keytab));
         install(new HBaseCommitTableStorageModule());
     }
@@ -70,6 +72,14 @@ public class DefaultHBaseCommitTableStorageModule extends AbstractModule {
         this.lowWatermarkFamily = lowWatermarkFamily;
     }
 
+    public boolean getRegionAwareFlush() {
+        return regionAwareFlush;
+    }
+
+    public void setRegionAwareFlush(boolean regionAwareFlush) {
+        this.regionAwareFlush = regionAwareFlush;
+    }
+
     public String getPrincipal() {
         return principal;
     }
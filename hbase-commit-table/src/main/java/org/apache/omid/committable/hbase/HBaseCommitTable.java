@@ -21,15 +21,31 @@ import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.COMMIT_TA
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.INVALID_TX_QUALIFIER;
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.LOW_WATERMARK_QUALIFIER;
 import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.LOW_WATERMARK_ROW;
+import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.TABLE_GROUPS_QUALIFIER;
+import static org.apache.omid.committable.hbase.HBaseCommitTableConfig.tableGroupLowWatermarkQualifier;
+import static org.apache.omid.metrics.MetricsUtils.name;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
 
-import javax.inject.Inject;
+import com.google.inject.Inject;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.AsyncConnection;
+import org.apache.hadoop.hbase.client.AsyncTableRegionLocator;
 import org.apache.hadoop.hbase.client.CheckAndMutate;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
@@ -41,6 +57,8 @@ import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.CommitTable.CommitTimestamp.Location;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +78,14 @@ public class HBaseCommitTable implements CommitTable {
     private final byte[] commitTableFamily;
     private final byte[] lowWatermarkFamily;
     private final KeyGenerator keygen;
+    private final boolean regionAwareFlush;
+
+    // Latency of the per-region flushes, only reported when a metrics registry is set
+    private MetricsRegistry metrics;
+    private final ConcurrentMap<String, Timer> regionFlushTimers = new ConcurrentHashMap<>();
+
+    // Created on the first asynchronous flush, so it's only opened by the writers that use it
+    private AsyncConnection asyncHBaseConnection;
 
     /**
      * Create a hbase commit table.
@@ -86,7 +112,13 @@ public class HBaseCommitTable implements CommitTable {
         this.commitTableFamily = config.getCommitTableFamily();
         this.lowWatermarkFamily = config.getLowWatermarkFamily();
         this.keygen = keygen;
+        this.regionAwareFlush = config.isRegionAwareFlush();
+
+    }
 
+    @Inject(optional = true)
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
     }
 
     // ----------------------------------------------------------------------------------------------------------------
@@ -100,6 +132,7 @@ public class HBaseCommitTable implements CommitTable {
         // Our own buffer for operations
         final List<Put> writeBuffer = new LinkedList<>();
         volatile long lowWatermarkToStore = INITIAL_LWM_VALUE;
+        volatile long[] tableGroupLowWatermarksToStore = null;
 
         HBaseWriter() {
 
@@ -119,9 +152,25 @@ public class HBaseCommitTable implements CommitTable {
             lowWatermarkToStore = lowWatermark;
         }
 
+        @Override
+        public void updateTableGroupLowWatermarks(long[] lowWatermarks) throws IOException {
+            tableGroupLowWatermarksToStore = lowWatermarks.clone();
+        }
+
         @Override
         public void flush() throws IOException {
 
+            if (regionAwareFlush) {
+                try {
+                    flushAsync().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted flushing data");
+                } catch (ExecutionException e) {
+                    throw new IOException("Error flushing data", e.getCause());
+                }
+                return;
+            }
             try(Table table = hbaseConnection.getTable(TableName.valueOf(tableName))) {
                 addLowWatermarkToStoreToWriteBuffer();
                 table.put(writeBuffer);
@@ -132,6 +181,77 @@ public class HBaseCommitTable implements CommitTable {
             }
         }
 
+        @Override
+        public ListenableFuture<Void> flushAsync() {
+
+            SettableFuture<Void> f = SettableFuture.create();
+            try {
+                addLowWatermarkToStoreToWriteBuffer();
+                // The puts are handed over to the async client, so the events added from now on go to the next flush
+                List<Put> puts = new ArrayList<>(writeBuffer);
+                writeBuffer.clear();
+                CompletableFuture<Void> put = regionAwareFlush
+                        ? putAllReportingRegionLatencies(puts)
+                        : getAsyncConnection().getTable(TableName.valueOf(tableName)).putAll(puts);
+                put.whenComplete((r, t) -> {
+                    if (t != null) {
+                        LOG.error("Error flushing data", t);
+                        f.setException(t);
+                    } else {
+                        f.set(null);
+                    }
+                });
+            } catch (IOException e) {
+                LOG.error("Error flushing data", e);
+                f.setException(e);
+            }
+            return f;
+
+        }
+
+        /**
+         * Sends the puts in a single multi-put, which the client already splits by region server and sends in parallel,
+         * and reports the latency of each region: the time until the last of its puts completes. The regions of the
+         * puts are looked up in the client cache once they complete, so the flush itself is not delayed.
+         */
+        private CompletableFuture<Void> putAllReportingRegionLatencies(List<Put> puts) throws IOException {
+
+            long startTimeInNs = System.nanoTime();
+            List<CompletableFuture<Void>> putFutures =
+                    getAsyncConnection().getTable(TableName.valueOf(tableName)).put(puts);
+            CompletableFuture<Void> allPuts = CompletableFuture.allOf(putFutures.toArray(new CompletableFuture<?>[0]));
+            if (metrics == null) {
+                return allPuts;
+            }
+
+            AsyncTableRegionLocator locator = getAsyncConnection().getRegionLocator(TableName.valueOf(tableName));
+            long[] completionTimes = new long[puts.size()];
+            String[] regions = new String[puts.size()];
+            CompletableFuture<?>[] locatedPuts = new CompletableFuture<?>[puts.size()];
+            for (int i = 0; i < puts.size(); i++) {
+                int put = i;
+                locatedPuts[i] = putFutures.get(i)
+                        .thenCompose(r -> {
+                            completionTimes[put] = System.nanoTime();
+                            return locator.getRegionLocation(puts.get(put).getRow());
+                        })
+                        .thenAccept(location -> regions[put] = location.getRegion().getEncodedName());
+            }
+            // Only reported when the puts of all the regions succeed
+            CompletableFuture.allOf(locatedPuts).thenRun(() -> {
+                Map<String, Long> regionCompletionTimes = new HashMap<>();
+                for (int i = 0; i < regions.length; i++) {
+                    regionCompletionTimes.merge(regions[i], completionTimes[i], Math::max);
+                }
+                for (Map.Entry<String, Long> regionCompletionTime : regionCompletionTimes.entrySet()) {
+                    getRegionFlushTimer(regionCompletionTime.getKey(), locator)
+                            .update(regionCompletionTime.getValue() - startTimeInNs);
+                }
+            });
+            return allPuts;
+
+        }
+
         @Override
         public void clearWriteBuffer() {
             writeBuffer.clear();
@@ -160,6 +280,17 @@ public class HBaseCommitTable implements CommitTable {
                 put.addColumn(lowWatermarkFamily, LOW_WATERMARK_QUALIFIER, Bytes.toBytes(lowWatermark));
                 writeBuffer.add(put);
             }
+            long[] tableGroupLowWatermarks = tableGroupLowWatermarksToStore;
+            if (tableGroupLowWatermarks != null) {
+                // The number of groups and their low watermarks go in the same put, so readers see them atomically
+                Put put = new Put(LOW_WATERMARK_ROW);
+                put.addColumn(lowWatermarkFamily, TABLE_GROUPS_QUALIFIER, Bytes.toBytes(tableGroupLowWatermarks.length));
+                for (int i = 0; i < tableGroupLowWatermarks.length; i++) {
+                    put.addColumn(lowWatermarkFamily, tableGroupLowWatermarkQualifier(i),
+                                  Bytes.toBytes(tableGroupLowWatermarks[i]));
+                }
+                writeBuffer.add(put);
+            }
         }
 
     }
@@ -223,6 +354,34 @@ public class HBaseCommitTable implements CommitTable {
             return f;
         }
 
+        @Override
+        public ListenableFuture<Long> readLowWatermark(long tableId) {
+            SettableFuture<Long> f = SettableFuture.create();
+            try(Table table = hbaseConnection.getTable(TableName.valueOf(tableName))) {
+                Get get = new Get(LOW_WATERMARK_ROW);
+                get.addFamily(lowWatermarkFamily);
+                Result result = table.get(get);
+                long lowWatermark = readLowWatermark().get();
+                // The table group low watermarks are never below the global one while the TSO keeps them. Taking the
+                // max skips the ones left behind by a TSO that does not keep them anymore
+                if (result != null && result.containsColumn(lowWatermarkFamily, TABLE_GROUPS_QUALIFIER)) {
+                    int numTableGroups = Bytes.toInt(result.getValue(lowWatermarkFamily, TABLE_GROUPS_QUALIFIER));
+                    byte[] qualifier = tableGroupLowWatermarkQualifier(CommitTable.tableGroupOf(tableId, numTableGroups));
+                    if (result.containsColumn(lowWatermarkFamily, qualifier)) {
+                        lowWatermark = Math.max(lowWatermark, Bytes.toLong(result.getValue(lowWatermarkFamily, qualifier)));
+                    }
+                }
+                f.set(lowWatermark);
+            } catch (IOException | ExecutionException e) {
+                LOG.error("Error getting low watermark for table {}", tableId, e);
+                f.setException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                f.setException(e);
+            }
+            return f;
+        }
+
         // This function is only used to delete a CT entry and should be renamed
         @Override
         public ListenableFuture<Void> deleteCommitEntry(long startTimestamp) {
@@ -327,6 +486,49 @@ public class HBaseCommitTable implements CommitTable {
     // ----------------------------------------------------------------------------------------------------------------
     // Helper methods
     // ----------------------------------------------------------------------------------------------------------------
+
+    private Timer getRegionFlushTimer(String encodedRegionName, AsyncTableRegionLocator locator) {
+        Timer timer = regionFlushTimers.get(encodedRegionName);
+        if (timer != null) {
+            return timer;
+        }
+        timer = regionFlushTimers.computeIfAbsent(encodedRegionName, region -> metrics.timer(regionFlushTimerName(region)));
+        // A new region usually comes from a split or a merge, so the timers of the regions gone are removed
+        locator.getAllRegionLocations().thenAccept(this::removeRegionFlushTimersOfRegionsGone);
+        return timer;
+    }
+
+    private void removeRegionFlushTimersOfRegionsGone(List<HRegionLocation> locations) {
+        Set<String> regions = new HashSet<>();
+        for (HRegionLocation location : locations) {
+            regions.add(location.getRegion().getEncodedName());
+        }
+        for (String region : regionFlushTimers.keySet()) {
+            if (!regions.contains(region) && regionFlushTimers.remove(region) != null) {
+                metrics.remove(regionFlushTimerName(region));
+            }
+        }
+    }
+
+    private static String regionFlushTimerName(String encodedRegionName) {
+        return name("tso", "commit-table", "region", encodedRegionName, "flush", "latency");
+    }
+
+    private synchronized AsyncConnection getAsyncConnection() throws IOException {
+        if (asyncHBaseConnection == null) {
+            try {
+                asyncHBaseConnection =
+                        ConnectionFactory.createAsyncConnection(hbaseConnection.getConfiguration()).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted creating the async connection");
+            } catch (ExecutionException e) {
+                throw new IOException("Error creating the async connection", e.getCause());
+            }
+        }
+        return asyncHBaseConnection;
+    }
+
     static long removeCheckpointBits(long startTimestamp) {
         return startTimestamp - (startTimestamp % CommitTable.MAX_CHECKPOINTS_PER_TXN);
     }
@@ -28,6 +28,7 @@ public class HBaseCommitTableConfig {
     public static final String COMMIT_TABLE_NAME_KEY = "omid.committable.tablename";
     public static final String COMMIT_TABLE_CF_NAME_KEY = "omid.committable.cfname";
     public static final String COMMIT_TABLE_LWM_CF_NAME_KEY = "omid.committable.lwm.cfname";
+    public static final String COMMIT_TABLE_REGION_AWARE_FLUSH_KEY = "omid.committable.regionawareflush";
 
     public static final String DEFAULT_COMMIT_TABLE_NAME = "OMID_COMMIT_TABLE";
     public static final String DEFAULT_COMMIT_TABLE_CF_NAME = "F";
@@ -37,6 +38,12 @@ public class HBaseCommitTableConfig {
     static final byte[] INVALID_TX_QUALIFIER = "IT".getBytes(UTF_8);
     static final byte[] LOW_WATERMARK_QUALIFIER = "LWC".getBytes(UTF_8);
     static final byte[] LOW_WATERMARK_ROW = "LOW_WATERMARK".getBytes(UTF_8);
+    // Number of table groups with their own low watermark, stored in the low watermark row
+    static final byte[] TABLE_GROUPS_QUALIFIER = "LWG".getBytes(UTF_8);
+
+    static byte[] tableGroupLowWatermarkQualifier(int tableGroup) {
+        return ("LWC" + tableGroup).getBytes(UTF_8);
+    }
 
     // ----------------------------------------------------------------------------------------------------------------
     // Configuration parameters
@@ -45,6 +52,8 @@ public class HBaseCommitTableConfig {
     private String tableName = DEFAULT_COMMIT_TABLE_NAME;
     private byte[] commitTableFamily = Bytes.toBytes(DEFAULT_COMMIT_TABLE_CF_NAME);
     private byte[] lowWatermarkFamily = Bytes.toBytes(DEFAULT_COMMIT_TABLE_LWM_CF_NAME);
+    // When true, the writers flush through the asynchronous client and report the flush latency of each region
+    private boolean regionAwareFlush = false;
 
     // ----------------------------------------------------------------------------------------------------------------
     // Getters and setters
@@ -79,4 +88,13 @@ public class HBaseCommitTableConfig {
         this.lowWatermarkFamily = lowWatermarkFamily.getBytes(UTF_8);
     }
 
+    public boolean isRegionAwareFlush() {
+        return regionAwareFlush;
+    }
+
+    @Inject(optional = true)
+    public void setRegionAwareFlush(@Named(COMMIT_TABLE_REGION_AWARE_FLUSH_KEY) boolean regionAwareFlush) {
+        this.regionAwareFlush = regionAwareFlush;
+    }
+
 }
@@ -17,6 +17,14 @@
  */
 package org.apache.omid.committable.hbase;
 
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
@@ -44,6 +52,8 @@ import org.apache.omid.committable.CommitTable;
 import org.apache.omid.committable.CommitTable.Client;
 import org.apache.omid.committable.CommitTable.CommitTimestamp;
 import org.apache.omid.committable.CommitTable.Writer;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.AfterClass;
@@ -201,6 +211,68 @@ public class TestHBaseCommitTable {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testRegionAwareFlush() throws Throwable {
+        HBaseCommitTableConfig config = new HBaseCommitTableConfig();
+        config.setTableName(TEST_TABLE);
+        config.setRegionAwareFlush(true);
+        HBaseCommitTable commitTable = new HBaseCommitTable(connection, config);
+        MetricsRegistry metrics = mock(MetricsRegistry.class);
+        Timer regionFlushTimer = mock(Timer.class);
+        doReturn(regionFlushTimer).when(metrics).timer(anyString());
+        commitTable.setMetrics(metrics);
+
+        Writer writer = commitTable.getWriter();
+        Client client = commitTable.getClient();
+
+        for (int i = 0; i < 1000; i += CommitTable.MAX_CHECKPOINTS_PER_TXN) {
+            writer.addCommittedTransaction(i, i + 1);
+        }
+        writer.flush();
+        assertEquals(rowCount(TABLE_NAME, commitTableFamily), 1000 / CommitTable.MAX_CHECKPOINTS_PER_TXN,
+                     "Rows should be 1000!");
+        for (long i = 0; i < 1000; i += CommitTable.MAX_CHECKPOINTS_PER_TXN) {
+            assertEquals(client.getCommitTimestamp(i).get().get().getValue(), i + 1);
+        }
+
+        // The test table has a single region, so a single timer is created and updated once per flush. The latencies
+        // are reported after the flush completes
+        writer.addCommittedTransaction(1000, 1001);
+        writer.flushAsync().get();
+        verify(regionFlushTimer, timeout(5_000).times(2)).update(anyLong());
+        verify(metrics, times(1)).timer(anyString());
+        verify(metrics, never()).remove(anyString());
+    }
+
+    @Test(timeOut = 30_000)
+    public void testAsyncFlushesCanBeInProgressConcurrently() throws Throwable {
+        HBaseCommitTableConfig config = new HBaseCommitTableConfig();
+        config.setTableName(TEST_TABLE);
+        HBaseCommitTable commitTable = new HBaseCommitTable(connection, config);
+
+        Writer writer = commitTable.getWriter();
+        Client client = commitTable.getClient();
+
+        // Issue two flushes before waiting for any of them
+        writer.addCommittedTransaction(0, 1);
+        ListenableFuture<Void> firstFlush = writer.flushAsync();
+        writer.addCommittedTransaction(CommitTable.MAX_CHECKPOINTS_PER_TXN, CommitTable.MAX_CHECKPOINTS_PER_TXN + 1);
+        writer.updateLowWatermark(1);
+        ListenableFuture<Void> secondFlush = writer.flushAsync();
+        firstFlush.get();
+        secondFlush.get();
+
+        assertEquals(rowCount(TABLE_NAME, commitTableFamily), 2, "Rows should be 2!");
+        assertEquals(client.getCommitTimestamp(0).get().get().getValue(), 1);
+        assertEquals(client.getCommitTimestamp(CommitTable.MAX_CHECKPOINTS_PER_TXN).get().get().getValue(),
+                     CommitTable.MAX_CHECKPOINTS_PER_TXN + 1);
+        assertEquals(client.readLowWatermark().get(), Long.valueOf(1), "Low watermark should be 1");
+
+        // A flush with no new events completes too
+        writer.flushAsync().get();
+        assertEquals(rowCount(TABLE_NAME, commitTableFamily), 2, "Rows should be 2!");
+    }
+
 
     @Test(timeOut = 30_000)
     public void testCheckpoints() throws Throwable {
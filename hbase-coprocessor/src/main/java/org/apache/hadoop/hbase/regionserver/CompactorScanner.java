@@ -27,6 +27,7 @@ import org.apache.omid.committable.CommitTable.Client;
 import org.apache.omid.committable.CommitTable.CommitTimestamp;
 import org.apache.omid.transaction.CellUtils;
 import org.apache.omid.transaction.CellInfo;
+import org.apache.omid.transaction.HBaseCellId;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellComparator;
 import org.apache.hadoop.hbase.CellUtil;
@@ -75,9 +76,9 @@ public class CompactorScanner implements InternalScanner {
         this.commitTableClient = commitTableClient;
         this.isMajorCompaction = isMajorCompaction;
         this.retainNonTransactionallyDeletedCells = preserveNonTransactionallyDeletedCells;
-        this.lowWatermark = getLowWatermarkFromCommitTable();
         // Obtain the table in which the scanner is going to operate
         this.hRegion = e.getEnvironment().getRegion();
+        this.lowWatermark = getLowWatermarkFromCommitTable();
         commitCache = new LRUMap<>(1000);
         LOG.info("Scanner cleaning up uncommitted txs older than LW [{}] in region [{}]",
                 lowWatermark, hRegion.getRegionInfo());
@@ -218,7 +219,9 @@ public class CompactorScanner implements InternalScanner {
     private long getLowWatermarkFromCommitTable() throws IOException {
         try {
             LOG.trace("About to read log watermark from commit table");
-            return commitTableClient.readLowWatermark().get();
+            // The TSO may keep a low watermark per group of tables
+            long tableId = HBaseCellId.tableIdOf(hRegion.getRegionInfo().getTable().getName());
+            return commitTableClient.readLowWatermark(tableId).get();
         } catch (InterruptedException ie) {
             Thread.currentThread().interrupt();
             LOG.warn("Interrupted getting low watermark from commit table", ie);
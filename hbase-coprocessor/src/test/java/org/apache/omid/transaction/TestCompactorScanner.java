@@ -20,6 +20,7 @@ package org.apache.omid.transaction;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.RegionInfo;
 import org.apache.hadoop.hbase.coprocessor.ObserverContext;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
@@ -36,6 +37,7 @@ import org.testng.annotations.Test;
 
 import java.util.Queue;
 
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
@@ -72,10 +74,11 @@ public class TestCompactorScanner {
 
         // Wire required mock internals
         f.set(TEST_TS);
-        when(ctClient.readLowWatermark()).thenReturn(f);
+        when(ctClient.readLowWatermark(anyLong())).thenReturn(f);
         when(ctx.getEnvironment()).thenReturn(rce);
         when(rce.getRegion()).thenReturn(hRegion);
         when(hRegion.getRegionInfo()).thenReturn(regionInfo);
+        when(regionInfo.getTable()).thenReturn(TableName.valueOf("test-table"));
 
         LOG.info("Testing when retain is {}", retainOption);
         try (CompactorScanner scanner = spy(new CompactorScanner(ctx,
@@ -57,4 +57,11 @@ public interface MetricsRegistry {
      * @return a new {@link Histogram}
      */
     Histogram histogram(String name);
+
+    /**
+     * Removes the metric registered under the given name, if any.
+     *
+     * @param name the name of the metric
+     */
+    void remove(String name);
 }
@@ -130,6 +130,11 @@ public class NullMetricsProvider implements MetricsProvider, MetricsRegistry {
         };
     }
 
+    @Override
+    public void remove(String name) {
+        // Do nothing
+    }
+
     /* ********************************************** Private methods *********************************************** */
 
 }
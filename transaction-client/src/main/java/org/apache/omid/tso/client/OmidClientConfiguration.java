@@ -50,9 +50,12 @@ public class OmidClientConfiguration {
 
     private int requestMaxRetries;
     private int requestTimeoutInMs;
+    private int requestBatchWindowInUs;
+    private int maxRequestsPerBatch;
     private int reconnectionDelayInSecs;
     private int retryDelayInMs;
     private int executorThreads;
+    private boolean nativeTransport;
 
     // Transaction Manager related params
 
@@ -152,6 +155,26 @@ public class OmidClientConfiguration {
         this.requestTimeoutInMs = requestTimeoutInMs;
     }
 
+    public int getRequestBatchWindowInUs() {
+        return requestBatchWindowInUs;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.requestBatchWindowInUs")
+    public void setRequestBatchWindowInUs(int requestBatchWindowInUs) {
+        this.requestBatchWindowInUs = requestBatchWindowInUs;
+    }
+
+    public int getMaxRequestsPerBatch() {
+        return maxRequestsPerBatch;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.maxRequestsPerBatch")
+    public void setMaxRequestsPerBatch(int maxRequestsPerBatch) {
+        this.maxRequestsPerBatch = maxRequestsPerBatch;
+    }
+
     public int getReconnectionDelayInSecs() {
         return reconnectionDelayInSecs;
     }
@@ -172,6 +195,16 @@ public class OmidClientConfiguration {
         this.retryDelayInMs = retryDelayInMs;
     }
 
+    public boolean getNativeTransport() {
+        return nativeTransport;
+    }
+
+    @Inject(optional = true)
+    @Named("omid.client.nativeTransport")
+    public void setNativeTransport(boolean nativeTransport) {
+        this.nativeTransport = nativeTransport;
+    }
+
     public int getExecutorThreads() {
         return executorThreads;
     }
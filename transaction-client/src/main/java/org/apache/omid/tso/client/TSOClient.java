@@ -22,6 +22,8 @@ import org.apache.phoenix.thirdparty.com.google.common.net.HostAndPort;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.AbstractFuture;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import org.apache.omid.NettyTransport;
+import org.apache.omid.committable.CommitTable;
 import org.apache.omid.proto.TSOProto;
 import org.apache.omid.tso.client.OmidClientConfiguration.ConflictDetectionLevel;
 import org.apache.omid.zk.ZKUtils;
@@ -40,9 +42,7 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.codec.protobuf.ProtobufDecoder;
@@ -62,16 +62,20 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -100,12 +104,26 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
     private final int requestTimeoutInMs;
     private final int requestMaxRetries;
+    private final int requestBatchWindowInUs;
+    private final int maxRequestsPerBatch;
     private final int tsoReconnectionDelayInSecs;
     private InetSocketAddress tsoAddr;
     private String zkCurrentTsoPath;
 
     private boolean lowLatency;
 
+    // Max number of start timestamps the server hands out in a single request. Set in the handshake
+    private int maxTimestampsPerRequest;
+
+    // Whether the server accepts several requests in a single frame. Set in the handshake
+    private boolean requestBatches;
+
+    // Whether the server accepts write sets encoded as fixed width values. Set in the handshake, read by the callers
+    private volatile boolean fixed64WriteSets;
+
+    // Whether the server skips the requests the client no longer waits for. Set in the handshake
+    private boolean requestDeadlines;
+
     // Use to extract unique table identifiers from the modified cells list.
 
     // Conflict detection level of the entire system. Can either be Row or Cell level.
@@ -127,6 +145,8 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
         requestTimeoutInMs = omidConf.getRequestTimeoutInMs();
         requestMaxRetries = omidConf.getRequestMaxRetries();
+        requestBatchWindowInUs = omidConf.getRequestBatchWindowInUs();
+        maxRequestsPerBatch = omidConf.getMaxRequestsPerBatch();
         tsoReconnectionDelayInSecs = omidConf.getReconnectionDelayInSecs();
 
         LOG.info("Connecting to TSO...");
@@ -162,11 +182,12 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         // Start client with the configured thread count
         int tsoExecutorThreads = omidConf.getExecutorThreads();
         ThreadFactory workerThreadFactory = new ThreadFactoryBuilder().setNameFormat("tsoclient-worker-%d").build();
-        EventLoopGroup workerGroup = new NioEventLoopGroup(tsoExecutorThreads, workerThreadFactory);
+        NettyTransport transport = NettyTransport.get(omidConf.getNativeTransport());
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(tsoExecutorThreads, workerThreadFactory);
 
         bootstrap = new Bootstrap();
         bootstrap.group(workerGroup);
-        bootstrap.channel(NioSocketChannel.class);
+        bootstrap.channel(transport.channelClass());
         bootstrap.handler(new ChannelInitializer<SocketChannel>() {
             @Override
             public void initChannel(SocketChannel channel) throws Exception {
@@ -193,6 +214,10 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 100);
 
         lowLatency = false;
+        maxTimestampsPerRequest = 0;
+        requestBatches = false;
+        fixed64WriteSets = false;
+        requestDeadlines = false;
         conflictDetectionLevel = omidConf.getConflictAnalysisLevel();
 
     }
@@ -264,6 +289,8 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         commitbuilder.setStartTimestamp(transactionId);
         HashSet<Long> rowLevelWriteSet = new HashSet<Long>();
         HashSet<Long> tableIDs = new HashSet<Long>();
+        long[] cellIds = new long[cells.size()];
+        int numCellIds = 0;
         rowLevelWriteSet.clear();
         for (CellId cell : cells) {
             long id;
@@ -285,7 +312,7 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                 assert (false);
             }
 
-            commitbuilder.addCellId(id);
+            cellIds[numCellIds++] = id;
             tableIDs.add(cell.getTableId());
         }
 
@@ -293,7 +320,26 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             tableIDs.add(cell.getTableId());
         }
 
-        commitbuilder.addAllTableId(tableIDs);
+        // Hashed ids are cheaper to encode and decode as fixed width values, when the server supports them
+        if (fixed64WriteSets && isFixed64Smaller(cellIds, numCellIds)) {
+            for (int i = 0; i < numCellIds; i++) {
+                commitbuilder.addFixedCellId(cellIds[i]);
+            }
+        } else {
+            for (int i = 0; i < numCellIds; i++) {
+                commitbuilder.addCellId(cellIds[i]);
+            }
+        }
+        long[] tableIds = new long[tableIDs.size()];
+        int numTableIds = 0;
+        for (long tableId : tableIDs) {
+            tableIds[numTableIds++] = tableId;
+        }
+        if (fixed64WriteSets && isFixed64Smaller(tableIds, numTableIds)) {
+            commitbuilder.addAllFixedTableId(tableIDs);
+        } else {
+            commitbuilder.addAllTableId(tableIDs);
+        }
         tableIDs.clear();
         builder.setCommitRequest(commitbuilder.build());
         RequestEvent request = new RequestEvent(builder.build(), requestMaxRetries);
@@ -529,6 +575,45 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
     }
 
+    /**
+     * Asks the server for a range of start timestamps on behalf of a group of timestamp requests waiting at the same
+     * time. It's completed when its waiters get their timestamps, so it's never retried by coalescing it again
+     */
+    private static class TimestampRangeRequestEvent extends RequestEvent {
+
+        final List<RequestEvent> waiters;
+
+        TimestampRangeRequestEvent(List<RequestEvent> waiters, int retriesLeft) {
+            super(TSOProto.Request.newBuilder()
+                          .setTimestampRequest(TSOProto.TimestampRequest.newBuilder()
+                                                       .setNumTimestamps(waiters.size()).build())
+                          .build(),
+                  retriesLeft);
+            this.waiters = waiters;
+        }
+
+        List<RequestEvent> getWaiters() {
+            return waiters;
+        }
+
+        @Override
+        public void error(Throwable t) {
+            super.error(t);
+            for (RequestEvent waiter : waiters) {
+                waiter.error(t);
+            }
+        }
+
+    }
+
+    private static class SendTimestampRequestsEvent implements StateMachine.Event {
+
+    }
+
+    private static class SendRequestBatchEvent implements StateMachine.Event {
+
+    }
+
     private static class ResponseEvent extends ParamEvent<TSOProto.Response> {
 
         ResponseEvent(TSOProto.Response r) {
@@ -663,7 +748,7 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             this.channel = channel;
             TSOProto.HandshakeRequest.Builder handshake = TSOProto.HandshakeRequest.newBuilder();
             // Add the required handshake capabilities when necessary
-            handshake.setClientCapabilities(TSOProto.Capabilities.newBuilder().build());
+            handshake.setClientCapabilities(TSOProto.Capabilities.newBuilder().setOverloadedResponses(true).build());
             channel.writeAndFlush(TSOProto.Request.newBuilder().setHandshakeRequest(handshake.build()).build());
             timeout = newTimeout();
         }
@@ -688,6 +773,11 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
         public StateMachine.State handleEvent(ResponseEvent e) {
             lowLatency = e.getParam().getHandshakeResponse().getLowLatency();
+            maxTimestampsPerRequest = e.getParam().getHandshakeResponse().getServerCapabilities()
+                    .getMaxTimestampsPerRequest();
+            requestBatches = e.getParam().getHandshakeResponse().getServerCapabilities().getRequestBatches();
+            fixed64WriteSets = e.getParam().getHandshakeResponse().getServerCapabilities().getFixed64WriteSets();
+            requestDeadlines = e.getParam().getHandshakeResponse().getServerCapabilities().getRequestDeadlines();
             if (e.getParam().hasHandshakeResponse() && e.getParam().getHandshakeResponse().getClientCompatible()) {
                 if (timeout != null) {
                     timeout.cancel();
@@ -772,6 +862,11 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
     class ConnectedState extends BaseState {
 
         final Queue<RequestAndTimeout> timestampRequests;
+        // Timestamp requests waiting to be sent together as a single range request
+        final List<RequestEvent> pendingTimestampRequests;
+        // Requests waiting to be sent together in a single frame, and the event that will send them
+        final List<TSOProto.Request> batchedRequests;
+        Future<?> sendRequestBatchEvent;
         final Map<Long, RequestAndTimeout> commitRequests;
         final Map<Long, RequestAndTimeout> fenceRequests;
         final Channel channel;
@@ -784,6 +879,8 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             this.channel = channel;
             this.timeoutExecutor = timeoutExecutor;
             timestampRequests = new ArrayDeque<>();
+            pendingTimestampRequests = new ArrayList<>();
+            batchedRequests = new ArrayList<>();
             commitRequests = new HashMap<>();
             fenceRequests = new HashMap<>();
         }
@@ -808,6 +905,11 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                 timestampRequests.add(new RequestAndTimeout(request, newTimeout(new TimestampRequestTimeoutEvent())));
             } else if (req.hasCommitRequest()) {
                 TSOProto.CommitRequest commitReq = req.getCommitRequest();
+                if (!fixed64WriteSets && hasFixed64WriteSet(commitReq)) {
+                    // Built for a previous server. This one would ignore the write set, so it's sent as varints
+                    req = TSOProto.Request.newBuilder().setCommitRequest(withVarintWriteSet(commitReq)).build();
+                    request.setRequest(req);
+                }
                 commitRequests.put(commitReq.getStartTimestamp(), new RequestAndTimeout(
                         request, newTimeout(new CommitRequestTimeoutEvent(commitReq.getStartTimestamp()))));
             } else if (req.hasFenceRequest()) {
@@ -818,6 +920,47 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                 request.error(new IllegalArgumentException("Unknown request type"));
                 return;
             }
+            if (requestDeadlines && requestTimeoutInMs > 0 && req.getDeadlineInMs() != requestTimeoutInMs) {
+                // The server skips the request once this client stops waiting for it and sends it again
+                req = req.toBuilder().setDeadlineInMs(requestTimeoutInMs).build();
+                request.setRequest(req);
+            }
+            if (requestBatches && requestBatchWindowInUs > 0) {
+                batchRequest(req);
+            } else {
+                write(req);
+            }
+        }
+
+        private void batchRequest(TSOProto.Request req) {
+            batchedRequests.add(req);
+            if (batchedRequests.size() >= maxRequestsPerBatch) {
+                sendRequestBatch();
+            } else if (batchedRequests.size() == 1) {
+                sendRequestBatchEvent = fsm.sendEvent(new SendRequestBatchEvent(),
+                                                      requestBatchWindowInUs, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        private void sendRequestBatch() {
+            cancelRequestBatch();
+            if (batchedRequests.size() == 1) {
+                write(batchedRequests.get(0));
+            } else if (batchedRequests.size() > 1) {
+                TSOProto.RequestBatch batch = TSOProto.RequestBatch.newBuilder().addAllRequest(batchedRequests).build();
+                write(TSOProto.Request.newBuilder().setRequestBatch(batch).build());
+            }
+            batchedRequests.clear();
+        }
+
+        private void cancelRequestBatch() {
+            if (sendRequestBatchEvent != null) {
+                sendRequestBatchEvent.cancel(false);
+                sendRequestBatchEvent = null;
+            }
+        }
+
+        private void write(TSOProto.Request req) {
             ChannelFuture f = channel.writeAndFlush(req);
 
             f.addListener(new ChannelFutureListener() {
@@ -838,10 +981,15 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                     return;
                 }
                 RequestAndTimeout e = timestampRequests.remove();
-                e.getRequest().success(resp.getTimestampResponse().getStartTimestamp());
                 if (e.getTimeout() != null) {
                     e.getTimeout().cancel();
                 }
+                if (e.getRequest() instanceof TimestampRangeRequestEvent) {
+                    handleTimestampRangeResponse((TimestampRangeRequestEvent) e.getRequest(),
+                                                 resp.getTimestampResponse());
+                } else {
+                    e.getRequest().success(resp.getTimestampResponse().getStartTimestamp());
+                }
             } else if (resp.hasCommitResponse()) {
                 long startTimestamp = resp.getCommitResponse().getStartTimestamp();
                 RequestAndTimeout e = commitRequests.remove(startTimestamp);
@@ -869,9 +1017,80 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
                 }
 
                 e.getRequest().success(resp.getFenceResponse().getFenceId());
+            } else if (resp.hasOverloadedResponse()) {
+                handleOverloadedResponse(resp.getOverloadedResponse());
+            }
+        }
+
+        // The server rejected the request without processing it, so it's sent again once the server asked to wait.
+        // Timestamp requests are interchangeable, so the oldest one outstanding is the one sent again
+        private void handleOverloadedResponse(TSOProto.OverloadedResponse resp) {
+            RequestAndTimeout e;
+            if (resp.getTimestampRequest()) {
+                e = timestampRequests.poll();
+            } else {
+                e = commitRequests.remove(resp.getStartTimestamp());
+            }
+            if (e == null) {
+                LOG.debug("Received overloaded response for request that doesn't exist: {}", resp);
+                return;
+            }
+            if (e.getTimeout() != null) {
+                e.getTimeout().cancel();
+            }
+            RequestEvent request = e.getRequest();
+            if (request.getRetriesLeft() > 0) {
+                request.decrementRetries();
+                // Jittered, so the requests rejected together do not come back together
+                int retryAfterInMs = resp.getRetryAfterInMs();
+                long delayInMs = retryAfterInMs + ThreadLocalRandom.current().nextInt(retryAfterInMs / 2 + 1);
+                fsm.sendEvent(request, delayInMs, TimeUnit.MILLISECONDS);
+            } else {
+                request.error(new ServiceUnavailableException("TSO overloaded. This API request failed permanently"));
             }
         }
 
+        private void handleTimestampRangeResponse(TimestampRangeRequestEvent range,
+                                                  TSOProto.TimestampResponse resp) {
+            List<RequestEvent> waiters = range.getWaiters();
+            // Servers not aware of ranges reply a single timestamp, so the waiters left over are requested again
+            int numTimestamps = Math.min(resp.getNumTimestamps(), waiters.size());
+            for (int i = 0; i < waiters.size(); i++) {
+                if (i < numTimestamps) {
+                    waiters.get(i).success(resp.getStartTimestamp() + (long) i * CommitTable.MAX_CHECKPOINTS_PER_TXN);
+                } else {
+                    fsm.sendEvent(waiters.get(i));
+                }
+            }
+            range.success(resp.getStartTimestamp());
+        }
+
+        private void sendPendingTimestampRequests() {
+            int i = 0;
+            while (i < pendingTimestampRequests.size()) {
+                int end = Math.min(i + maxTimestampsPerRequest, pendingTimestampRequests.size());
+                if (end - i == 1) {
+                    sendRequest(fsm, pendingTimestampRequests.get(i));
+                } else {
+                    List<RequestEvent> waiters = new ArrayList<>(pendingTimestampRequests.subList(i, end));
+                    sendRequest(fsm, new TimestampRangeRequestEvent(waiters, requestMaxRetries));
+                }
+                i = end;
+            }
+            pendingTimestampRequests.clear();
+        }
+
+        public StateMachine.State handleEvent(SendTimestampRequestsEvent e) {
+            sendPendingTimestampRequests();
+            return this;
+        }
+
+        public StateMachine.State handleEvent(SendRequestBatchEvent e) {
+            sendRequestBatchEvent = null;
+            sendRequestBatch();
+            return this;
+        }
+
         public StateMachine.State handleEvent(TimestampRequestTimeoutEvent e) {
             if (!timestampRequests.isEmpty()) {
                 RequestAndTimeout r = timestampRequests.remove();
@@ -916,6 +1135,16 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
 
         public StateMachine.State handleEvent(RequestEvent e) {
+            if (maxTimestampsPerRequest > 1
+                    && e.getRequest().hasTimestampRequest()
+                    && !(e instanceof TimestampRangeRequestEvent)) {
+                // The requests already queued in the FSM are processed before the send event, so they all get in
+                if (pendingTimestampRequests.isEmpty()) {
+                    fsm.sendEvent(new SendTimestampRequestsEvent());
+                }
+                pendingTimestampRequests.add(e);
+                return this;
+            }
             sendRequest(fsm, e);
             return this;
         }
@@ -934,6 +1163,13 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
 
         private void handleError(StateMachine.Fsm fsm) {
             LOG.debug("CONNECTED STATE: Cancelling Timeouts in handleError");
+            // The requests batched but not sent yet are outstanding, so they're retried below
+            cancelRequestBatch();
+            batchedRequests.clear();
+            for (RequestEvent r : pendingTimestampRequests) {
+                fsm.sendEvent(r);
+            }
+            pendingTimestampRequests.clear();
             while (timestampRequests.size() > 0) {
                 RequestAndTimeout r = timestampRequests.remove();
                 if (r.getTimeout() != null) {
@@ -984,7 +1220,13 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         }
 
         private void closeChannelAndErrorRequests() {
+            cancelRequestBatch();
+            batchedRequests.clear();
             channel.close();
+            for (RequestEvent r : pendingTimestampRequests) {
+                r.error(new ClosingException());
+            }
+            pendingTimestampRequests.clear();
             for (RequestAndTimeout r : timestampRequests) {
                 if (r.getTimeout() != null) {
                     r.getTimeout().cancel();
@@ -1038,6 +1280,16 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
             return this;
         }
 
+        public StateMachine.State handleEvent(SendTimestampRequestsEvent e) {
+            // Ignored. The pending requests have been already retried or errored
+            return this;
+        }
+
+        public StateMachine.State handleEvent(SendRequestBatchEvent e) {
+            // Ignored. The batched requests have been already retried or errored
+            return this;
+        }
+
         public StateMachine.State handleEvent(UserEvent e) {
             fsm.deferEvent(e);
             return this;
@@ -1127,4 +1379,26 @@ public class TSOClient implements TSOProtocol, NodeCacheListener {
         return new String(currentTSOAndEpochAsBytes, Charsets.UTF_8);
     }
 
+    // Whether the ids passed take less space as packed fixed64 values than as varints, each one with its own tag
+    private static boolean isFixed64Smaller(long[] ids, int numIds) {
+        long varintSize = 0;
+        for (int i = 0; i < numIds; i++) {
+            varintSize += 1 + (ids[i] == 0 ? 1 : (63 - Long.numberOfLeadingZeros(ids[i])) / 7 + 1);
+        }
+        return varintSize > (long) numIds * Long.BYTES;
+    }
+
+    private static boolean hasFixed64WriteSet(TSOProto.CommitRequest commitRequest) {
+        return commitRequest.getFixedCellIdCount() > 0 || commitRequest.getFixedTableIdCount() > 0;
+    }
+
+    private static TSOProto.CommitRequest withVarintWriteSet(TSOProto.CommitRequest commitRequest) {
+        return TSOProto.CommitRequest.newBuilder(commitRequest)
+                .clearFixedCellId()
+                .clearFixedTableId()
+                .addAllCellId(commitRequest.getFixedCellIdList())
+                .addAllTableId(commitRequest.getFixedTableIdList())
+                .build();
+    }
+
 }
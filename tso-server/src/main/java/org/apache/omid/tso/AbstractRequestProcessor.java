@@ -26,6 +26,8 @@ import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
 import com.lmax.disruptor.TimeoutHandler;
 import com.lmax.disruptor.dsl.Disruptor;
 
+import org.apache.omid.metrics.Counter;
+import org.apache.omid.metrics.Gauge;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.tso.TSOStateManager.TSOState;
 import io.netty.channel.Channel;
@@ -35,9 +37,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -45,24 +45,69 @@ import java.util.concurrent.ThreadFactory;
 import static com.lmax.disruptor.dsl.ProducerType.MULTI;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.omid.metrics.MetricsUtils.name;
 import static org.apache.omid.tso.AbstractRequestProcessor.RequestEvent.EVENT_FACTORY;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_FENCE;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_FENCE;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_TIMESTAMP;
 
 abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestProcessor.RequestEvent>, RequestProcessor, TimeoutHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractRequestProcessor.class);
 
+    // Number of commits between checks of the low watermark lag to resize the conflict map
+    static final int CONFLICT_MAP_RESIZE_CHECK_INTERVAL = 1 << 10;
+    // The conflict map shrinks when the low watermark lag goes beyond this factor of the target. The gap between the
+    // grow and the shrink thresholds avoids resizing back and forth, as doubling the map roughly doubles the lag
+    private static final int CONFLICT_MAP_SHRINK_LAG_FACTOR = 4;
+    // Prefetching more cells than this would evict the first ones from the CPU caches before they are looked up. With
+    // 32-way conflict maps, the windows touched for each cell take 512 bytes
+    private static final int MAX_PREFETCHED_CELLS = 256;
+
     // Disruptor-related attributes
     private final ExecutorService disruptorExec;
-    protected final Disruptor<RequestEvent> disruptor;
-    protected RingBuffer<RequestEvent> requestRing;
+    private final Disruptor<RequestEvent> disruptor; // null when requests are queued to ingest rings
+    private RingBuffer<RequestEvent> requestRing;
+    private final IngestRings<RequestEvent> ingestRings; // null when all requests are queued to the request ring
 
     private final TimestampOracle timestampOracle;
     private final CommitHashMap hashmap;
+    private final PartitionedConflictDetector partitionedConflictDetector; // null when conflict detection is serial
+    private final TableGroupConflictMaps tableGroupConflictMaps; // null when all tables share the conflict map
     private final Map<Long, Long> tableFences;
     private final MetricsRegistry metrics;
     private final LowWatermarkWriter lowWatermarkWriter;
     private long lowWatermark = -1L;
 
+    // Speculative conflict check done in the netty worker threads against the conflict map being updated concurrently
+    // by the request thread. Only a hint: the requests passing it are checked again by the request thread
+    private final boolean speculativeConflictCheck;
+    private final Counter speculativeAborts;
+
+    // Timestamp and commit requests skipped because their deadline passed while they were queued
+    private final Counter expiredRequests;
+    private final ThreadLocal<RequestEvent> speculativeRequest = new ThreadLocal<RequestEvent>() {
+        @Override
+        protected RequestEvent initialValue() {
+            return new RequestEvent();
+        }
+    };
+
+    // Commits collected from a batch of the request ring, processed in order in chunks whose cells are prefetched first
+    private final RequestEvent[] pendingCommits;
+    private int numPendingCommits = 0;
+    private final long[] pendingCells;
+
+    // Conflict map resizing. Disabled when conflictMapMaxSize is not greater than conflictMapSize
+    private final boolean conflictMapResizable;
+    private final int conflictMapMinSize;
+    private final int conflictMapMaxSize;
+    private final long lowWatermarkLagTarget;
+    private int commitsSinceResizeCheck = 0;
+    private long lowWatermarkAtLastResizeCheck = -1L;
+
     //Used to forward fence
     private final ReplyProcessor replyProcessor;
 
@@ -78,14 +123,27 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
         // Disruptor initialization
         // ------------------------------------------------------------------------------------------------------------
 
-        TimeoutBlockingWaitStrategy timeoutStrategy = new TimeoutBlockingWaitStrategy(config.getBatchPersistTimeoutInMs(), MILLISECONDS);
+        // The batch max age is checked as requests are added to the batch, so waiting for requests must not take longer
+        int flushTimeoutInMs = config.getBatchMaxAgeInMs() > 0
+                ? Math.min(config.getBatchPersistTimeoutInMs(), config.getBatchMaxAgeInMs())
+                : config.getBatchPersistTimeoutInMs();
+        TimeoutBlockingWaitStrategy timeoutStrategy = new TimeoutBlockingWaitStrategy(flushTimeoutInMs, MILLISECONDS);
 
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("request-%d").build();
         this.disruptorExec = Executors.newSingleThreadExecutor(threadFactory);
 
-        this.disruptor = new Disruptor<>(EVENT_FACTORY, 1 << 12, disruptorExec, MULTI, timeoutStrategy);
-        disruptor.handleExceptionsWith(new FatalExceptionHandler(panicker)); // This must be before handleEventsWith()
-        disruptor.handleEventsWith(this);
+        if (config.getNumIngestRings() > 0) {
+            this.disruptor = null;
+            this.ingestRings = new IngestRings<>(EVENT_FACTORY, config.getNumIngestRings(), config.getIngestRingSize(),
+                                                 config.getRequestRingSize(), this, this,
+                                                 new FatalExceptionHandler(panicker),
+                                                 flushTimeoutInMs, MILLISECONDS);
+        } else {
+            this.disruptor = new Disruptor<>(EVENT_FACTORY, config.getRequestRingSize(), disruptorExec, MULTI, timeoutStrategy);
+            disruptor.handleExceptionsWith(new FatalExceptionHandler(panicker)); // This must be before handleEventsWith()
+            disruptor.handleEventsWith(this);
+            this.ingestRings = null;
+        }
 
 
         // ------------------------------------------------------------------------------------------------------------
@@ -94,16 +152,83 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
 
         this.metrics = metrics;
         this.timestampOracle = timestampOracle;
-        this.hashmap = new CommitHashMap(config.getConflictMapSize());
+        if (config.getConflictMapTableGroups() > 0) {
+            if (config.getConflictDetectionPartitions() > 1) {
+                throw new IllegalArgumentException(
+                        "Conflict map table groups are not supported with partitioned conflict detection");
+            }
+            this.hashmap = null;
+            this.partitionedConflictDetector = null;
+            this.tableGroupConflictMaps = new TableGroupConflictMaps(config, config.getConflictMapTableGroups());
+        } else if (config.getConflictDetectionPartitions() > 1) {
+            this.hashmap = null;
+            this.partitionedConflictDetector = new PartitionedConflictDetector(config, panicker);
+            this.tableGroupConflictMaps = null;
+        } else {
+            this.hashmap = CommitHashMap.create(config, config.getConflictMapSize(), "");
+            this.partitionedConflictDetector = null;
+            this.tableGroupConflictMaps = null;
+        }
+        this.conflictMapMinSize = config.getConflictMapSize();
+        this.conflictMapMaxSize = config.getConflictMapMaxSize();
+        this.lowWatermarkLagTarget = config.getLowWatermarkLagTarget();
+        this.conflictMapResizable = hashmap != null && conflictMapMaxSize > conflictMapMinSize;
+        if (hashmap == null && conflictMapMaxSize > conflictMapMinSize) {
+            LOG.warn("Conflict map resizing is not supported with partitioned conflict detection nor table groups. "
+                     + "Ignoring it");
+        }
+        this.pendingCommits = hashmap != null && config.getConflictDetectionBatchSize() > 1
+                ? new RequestEvent[config.getConflictDetectionBatchSize()]
+                : null;
+        this.pendingCells = pendingCommits != null ? new long[MAX_PREFETCHED_CELLS] : null;
+        // Only the set-associative layouts can be peeked while the request processor thread updates them
+        TSOServerConfig.CONFLICT_MAP_LAYOUT layout = config.getConflictMapLayoutEnum();
+        boolean peekable = layout != TSOServerConfig.CONFLICT_MAP_LAYOUT.ROBIN_HOOD
+                && layout != TSOServerConfig.CONFLICT_MAP_LAYOUT.CUCKOO;
+        this.speculativeConflictCheck = config.getSpeculativeConflictCheck() && hashmap != null && peekable;
+        if (config.getSpeculativeConflictCheck() && hashmap == null) {
+            LOG.warn("Speculative conflict check is not supported with partitioned conflict detection nor table groups. "
+                     + "Ignoring it");
+        } else if (config.getSpeculativeConflictCheck() && !peekable) {
+            LOG.warn("Speculative conflict check is not supported with the {} conflict map layout. Ignoring it", layout);
+        }
+        this.speculativeAborts = metrics.counter(name("tso", "speculative-check", "aborts"));
+        this.expiredRequests = metrics.counter(name("tso", "request-processor", "expired"));
         this.tableFences = new HashMap<Long, Long>();
         this.lowWatermarkWriter = lowWatermarkWriter;
 
+        if (hashmap != null) {
+            metrics.gauge(name("tso", "conflict-map", "capacity"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return (long) hashmap.getSize();
+                }
+            });
+        }
+        metrics.gauge(name("tso", "conflict-map", "lwm-lag"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return timestampOracle.getLast() - lowWatermark;
+            }
+        });
+
         this.replyProcessor = replyProcessor;
 
         LOG.info("RequestProcessor initialized");
 
     }
 
+    /**
+     * Starts processing requests. To be called at the end of the constructor of subclasses
+     */
+    protected void start() {
+        if (ingestRings != null) {
+            disruptorExec.execute(ingestRings);
+        } else {
+            requestRing = disruptor.start();
+        }
+    }
+
     /**
      * This should be called when the TSO gets leadership
      */
@@ -111,19 +236,43 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     public void update(TSOState state) throws Exception {
         LOG.info("Initializing RequestProcessor state...");
         this.lowWatermark = state.getLowWatermark();
+        this.lowWatermarkAtLastResizeCheck = lowWatermark;
         lowWatermarkWriter.persistLowWatermark(lowWatermark).get(); // Sync persist
+        if (tableGroupConflictMaps != null) {
+            tableGroupConflictMaps.reset(lowWatermark);
+            lowWatermarkWriter.persistTableGroupLowWatermarks(tableGroupConflictMaps.getLowWatermarks()).get();
+        }
         LOG.info("RequestProcessor state initialized with LWMs {} and Epoch {}", lowWatermark, state.getEpoch());
     }
 
     @Override
     public void onEvent(RequestEvent event, long sequence, boolean endOfBatch) throws Exception {
 
+        if (event.hasExpired()) { // The client no longer waits for the response
+            expiredRequests.inc();
+            if (endOfBatch && numPendingCommits > 0) {
+                handlePendingCommits();
+            }
+            return;
+        }
+        // Other requests must not overtake the commits collected
+        if (numPendingCommits > 0 && event.getType() != RequestEvent.Type.COMMIT) {
+            handlePendingCommits();
+        }
         switch (event.getType()) {
             case TIMESTAMP:
                 handleTimestamp(event);
                 break;
             case COMMIT:
-                handleCommit(event);
+                if (pendingCommits == null) {
+                    handleCommit(event);
+                    break;
+                }
+                // Neither the disruptor nor the ingest rings reuse the events of a batch until the last one is handled
+                pendingCommits[numPendingCommits++] = event;
+                if (endOfBatch || numPendingCommits == pendingCommits.length) {
+                    handlePendingCommits();
+                }
                 break;
             case FENCE:
                 handleFence(event);
@@ -137,23 +286,37 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     @Override
     public void onTimeout(long sequence) throws Exception {
 
-        // TODO We can not use this as a timeout trigger for flushing. This timeout is related to the time between
-        // TODO (cont) arrivals of requests to the disruptor. We need another mechanism to trigger timeouts
-        // TODO (cont) WARNING!!! Take care with the implementation because if there's other thread than request-0
-        // TODO (cont) thread the one that calls persistProc.triggerCurrentBatchFlush(); we'll incur in concurrency issues
-        // TODO (cont) This is because, in the current implementation, only the request-0 thread calls the public methods
-        // TODO (cont) in persistProc and it is guaranteed that access them serially.
+        // This timeout is related to the time between arrivals of requests, so it only flushes the batches of an idle
+        // TSO. Under steady load, batches are flushed when they are full or, with a batch max age, when a request is
+        // added to a batch older than that. Both flushes happen in this thread, because only the request-0 thread
+        // calls the public methods in persistProc, so they are guaranteed to be accessed serially.
         onTimeout();
     }
 
     @Override
     public void timestampRequest(Channel c, MonitoringContext monCtx) {
 
-        monCtx.timerStart("request.processor.timestamp.latency");
-        long seq = requestRing.next();
-        RequestEvent e = requestRing.get(seq);
-        RequestEvent.makeTimestampRequest(e, c, monCtx);
-        requestRing.publish(seq);
+        timestampRequest(1, c, monCtx);
+
+    }
+
+    @Override
+    public void timestampRequest(int numTimestamps, Channel c, MonitoringContext monCtx) {
+
+        timestampRequest(numTimestamps, RequestEvent.NO_DEADLINE, c, monCtx);
+
+    }
+
+    @Override
+    public void timestampRequest(int numTimestamps, long deadline, Channel c, MonitoringContext monCtx) {
+
+        monCtx.timerStart(REQUEST_TIMESTAMP);
+        RingBuffer<RequestEvent> ring = ringOfCurrentThread();
+        long seq = ring.next();
+        RequestEvent e = ring.get(seq);
+        RequestEvent.makeTimestampRequest(e, numTimestamps, c, monCtx);
+        e.deadline = deadline;
+        publish(ring, seq);
 
     }
 
@@ -161,36 +324,130 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     public void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet, boolean isRetry, Channel c,
                               MonitoringContext monCtx) {
 
-        monCtx.timerStart("request.processor.commit.latency");
-        long seq = requestRing.next();
-        RequestEvent e = requestRing.get(seq);
+        commitRequest(startTimestamp, writeSet, tableIdSet, isRetry, RequestEvent.NO_DEADLINE, c, monCtx);
+
+    }
+
+    @Override
+    public void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet, boolean isRetry,
+                              long deadline, Channel c, MonitoringContext monCtx) {
+
+        if (speculativeConflictCheck && !isRetry && hasSpeculativeConflicts(startTimestamp, writeSet)) {
+            abortSpeculatively(startTimestamp, c, monCtx);
+            return;
+        }
+        monCtx.timerStart(REQUEST_COMMIT);
+        RingBuffer<RequestEvent> ring = ringOfCurrentThread();
+        long seq = ring.next();
+        RequestEvent e = ring.get(seq);
         RequestEvent.makeCommitRequest(e, startTimestamp, monCtx, writeSet, tableIdSet, isRetry, c);
-        requestRing.publish(seq);
+        e.deadline = deadline;
+        publish(ring, seq);
+
+    }
+
+    @Override
+    public void commitRequest(WireCommitRequest request, Channel c, MonitoringContext monCtx) {
+
+        if (speculativeConflictCheck && !request.isRetry()) {
+            RequestEvent e = speculativeRequest.get();
+            RequestEvent.makeCommitRequest(e, request, null, null);
+            if (hasSpeculativeConflicts(e.getStartTimestamp(), e.getWriteSet(), e.getNumCells())) {
+                abortSpeculatively(e.getStartTimestamp(), c, monCtx);
+                return;
+            }
+        }
+        monCtx.timerStart(REQUEST_COMMIT);
+        RingBuffer<RequestEvent> ring = ringOfCurrentThread();
+        long seq = ring.next();
+        RequestEvent e = ring.get(seq);
+        RequestEvent.makeCommitRequest(e, request, monCtx, c);
+        publish(ring, seq);
 
     }
 
     @Override
     public void fenceRequest(long tableID, Channel c, MonitoringContext monCtx) {
 
-        monCtx.timerStart("request.processor.fence.latency");
-        long seq = requestRing.next();
-        RequestEvent e = requestRing.get(seq);
+        monCtx.timerStart(REQUEST_FENCE);
+        RingBuffer<RequestEvent> ring = ringOfCurrentThread();
+        long seq = ring.next();
+        RequestEvent e = ring.get(seq);
         RequestEvent.makeFenceRequest(e, tableID, c, monCtx);
-        requestRing.publish(seq);
+        publish(ring, seq);
+
+    }
+
+    @Override
+    public float getRequestQueueOccupancy() {
+
+        RingBuffer<RequestEvent> ring = ringOfCurrentThread();
+        if (ring == null) { // Not started yet
+            return 0;
+        }
+        return (float) (ring.getBufferSize() - ring.remainingCapacity()) / ring.getBufferSize();
 
     }
 
+    // Called from the netty worker threads. Retries are never aborted here, as they may have been committed already
+    private boolean hasSpeculativeConflicts(long startTimestamp, Collection<Long> writeSet) {
+        for (Long cellId : writeSet) {
+            long value = hashmap.peekLatestWriteForCell(cellId);
+            if (value != 0 && value >= startTimestamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasSpeculativeConflicts(long startTimestamp, long[] writeSet, int numCells) {
+        for (int i = 0; i < numCells; i++) {
+            long value = hashmap.peekLatestWriteForCell(writeSet[i]);
+            if (value != 0 && value >= startTimestamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void abortSpeculatively(long startTimestamp, Channel c, MonitoringContext monCtx) {
+        speculativeAborts.inc();
+        monCtx.timerStart(REPLY_ABORT);
+        replyProcessor.sendAbortResponse(startTimestamp, c, monCtx);
+        monCtx.publish();
+    }
+
+    private RingBuffer<RequestEvent> ringOfCurrentThread() {
+        return ingestRings != null ? ingestRings.ringOfCurrentThread() : requestRing;
+    }
+
+    private void publish(RingBuffer<RequestEvent> ring, long seq) {
+        ring.publish(seq);
+        if (ingestRings != null) {
+            ingestRings.signal();
+        }
+    }
+
     private void handleTimestamp(RequestEvent requestEvent) throws Exception {
 
-        long timestamp = timestampOracle.next();
-        requestEvent.getMonCtx().timerStop("request.processor.timestamp.latency");
-        forwardTimestamp(timestamp, requestEvent.getChannel(), requestEvent.getMonCtx());
+        int numTimestamps = requestEvent.getNumTimestamps();
+        if (numTimestamps == 1) {
+            long timestamp = timestampOracle.next();
+            requestEvent.getMonCtx().timerStop(REQUEST_TIMESTAMP);
+            forwardTimestamp(timestamp, requestEvent.getChannel(), requestEvent.getMonCtx());
+        } else {
+            // The whole range is reserved at once, so it follows the commits forwarded before as a single timestamp
+            long firstTimestamp = timestampOracle.next(numTimestamps);
+            requestEvent.getMonCtx().timerStop(REQUEST_TIMESTAMP);
+            forwardTimestampRange(firstTimestamp, numTimestamps, requestEvent.getChannel(), requestEvent.getMonCtx());
+        }
     }
 
     // Checks whether transaction transactionId started before a fence creation of a table transactionId modified.
-    private boolean hasConflictsWithFences(long startTimestamp, Collection<Long> tableIdSet) {
+    private boolean hasConflictsWithFences(long startTimestamp, long[] tableIdSet, int numTableIds) {
         if (!tableFences.isEmpty()) {
-            for (long tableId: tableIdSet) {
+            for (int i = 0; i < numTableIds; i++) {
+                long tableId = tableIdSet[i];
                 Long fence = tableFences.get(tableId);
                 if (fence != null && fence > startTimestamp) {
                     return true;
@@ -205,9 +462,17 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     }
 
  // Checks whether transactionId has a write-write conflict with a transaction committed after transactionId.
-    private boolean hasConflictsWithCommittedTransactions(long startTimestamp, Iterable<Long> writeSet) {
-        for (long cellId : writeSet) {
-            long value = hashmap.getLatestWriteForCell(cellId);
+    private boolean hasConflictsWithCommittedTransactions(long startTimestamp, long[] writeSet, int numCells,
+                                                          long[] tableIdSet, int numTableIds) {
+        if (tableGroupConflictMaps != null) {
+            return tableGroupConflictMaps.hasConflicts(startTimestamp, writeSet, numCells, tableIdSet, numTableIds);
+        }
+        if (partitionedConflictDetector != null) {
+            return partitionedConflictDetector.hasConflicts(startTimestamp, writeSet, numCells);
+        }
+
+        for (int i = 0; i < numCells; i++) {
+            long value = hashmap.getLatestWriteForCell(writeSet[i]);
             if (value != 0 && value >= startTimestamp) {
                 return true;
             }
@@ -216,46 +481,99 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
         return false;
     }
 
+    // Adds the write set of a committed transaction to the conflict map and returns the resulting low watermark
+    private long updateConflictMap(long[] writeSet, int numCells, long[] tableIdSet, int numTableIds,
+                                   long commitTimestamp) {
+        if (tableGroupConflictMaps != null) {
+            if (tableGroupConflictMaps.commit(writeSet, numCells, tableIdSet, numTableIds, commitTimestamp)) {
+                replyProcessor.stageTableGroupLowWatermarks(commitTimestamp, tableGroupConflictMaps.getLowWatermarks());
+            }
+            return Math.max(tableGroupConflictMaps.getLowWatermark(), lowWatermark);
+        }
+        if (partitionedConflictDetector != null) {
+            partitionedConflictDetector.commit(commitTimestamp);
+            return Math.max(partitionedConflictDetector.getLowWatermark(), lowWatermark);
+        }
+
+        long newLowWatermark = lowWatermark;
+        for (int i = 0; i < numCells; i++) {
+            long removed = hashmap.putLatestWriteForCell(writeSet[i], commitTimestamp);
+            newLowWatermark = Math.max(removed, newLowWatermark);
+        }
+
+        return newLowWatermark;
+    }
+
+    // Grows the conflict map while the low watermark follows the last timestamp too closely, so txs are not aborted
+    // just for being longer than the eviction horizon, and shrinks it back when the lag goes well beyond the target
+    private void resizeConflictMapIfNeeded() {
+        if (!conflictMapResizable || ++commitsSinceResizeCheck < CONFLICT_MAP_RESIZE_CHECK_INTERVAL) {
+            return;
+        }
+        commitsSinceResizeCheck = 0;
+        // Growing only makes sense if the conflict map is evicting entries
+        boolean evicting = lowWatermark != lowWatermarkAtLastResizeCheck;
+        lowWatermarkAtLastResizeCheck = lowWatermark;
+        if (hashmap.isResizing()) {
+            return;
+        }
+
+        long lag = timestampOracle.getLast() - lowWatermark;
+        int size = hashmap.getSize();
+        int newSize = size;
+        if (evicting && lag < lowWatermarkLagTarget && size < conflictMapMaxSize) {
+            newSize = (int) Math.min(2L * size, conflictMapMaxSize);
+        } else if (lag / CONFLICT_MAP_SHRINK_LAG_FACTOR > lowWatermarkLagTarget && size > conflictMapMinSize) {
+            newSize = Math.max(size / 2, conflictMapMinSize);
+        }
+        if (newSize != size) {
+            LOG.info("Low watermark lag is {} (target {}). Resizing conflict map", lag, lowWatermarkLagTarget);
+            try {
+                hashmap.resize(newSize);
+            } catch (IOException e) {
+                LOG.warn("Could not resize conflict map to {} buckets. Keeping {}", newSize, size, e);
+            }
+        }
+    }
+
     private void handleCommit(RequestEvent event) throws Exception {
 
         long startTimestamp = event.getStartTimestamp();
-        Iterable<Long> writeSet = event.writeSet();
-        Collection<Long> tableIdSet = event.getTableIdSet();
+        long[] writeSet = event.getWriteSet();
+        int numCells = event.getNumCells();
+        long[] tableIdSet = event.getTableIdSet();
+        int numTableIds = event.getNumTableIds();
         boolean isCommitRetry = event.isCommitRetry();
         Channel c = event.getChannel();
 
-        boolean nonEmptyWriteSet = writeSet.iterator().hasNext();
+        boolean nonEmptyWriteSet = numCells > 0;
 
         // If the transaction started before the low watermark, or
         // it started before a fence and modified the table the fence created for, or
         // it has a write-write conflict with a transaction committed after it started
         // Then it should abort. Otherwise, it can commit.
         if (startTimestamp > lowWatermark &&
-            !hasConflictsWithFences(startTimestamp, tableIdSet) &&
-            !hasConflictsWithCommittedTransactions(startTimestamp, writeSet)) {
+            !hasConflictsWithFences(startTimestamp, tableIdSet, numTableIds) &&
+            !hasConflictsWithCommittedTransactions(startTimestamp, writeSet, numCells, tableIdSet, numTableIds)) {
 
             long commitTimestamp = timestampOracle.next();
             Optional<Long> forwardNewWaterMark = Optional.absent();
             if (nonEmptyWriteSet) {
-                long newLowWatermark = lowWatermark;
-
-                for (long r : writeSet) {
-                    long removed = hashmap.putLatestWriteForCell(r, commitTimestamp);
-                    newLowWatermark = Math.max(removed, newLowWatermark);
-                }
+                long newLowWatermark = updateConflictMap(writeSet, numCells, tableIdSet, numTableIds, commitTimestamp);
 
                 if (newLowWatermark != lowWatermark) {
                     LOG.trace("Setting new low Watermark to {}", newLowWatermark);
                     lowWatermark = newLowWatermark;
                     forwardNewWaterMark = Optional.of(lowWatermark);
                 }
+                resizeConflictMapIfNeeded();
             }
-            event.getMonCtx().timerStop("request.processor.commit.latency");
+            event.getMonCtx().timerStop(REQUEST_COMMIT);
             forwardCommit(startTimestamp, commitTimestamp, c, event.getMonCtx(), forwardNewWaterMark);
 
         } else {
 
-            event.getMonCtx().timerStop("request.processor.commit.latency");
+            event.getMonCtx().timerStop(REQUEST_COMMIT);
             if (isCommitRetry) { // Re-check if it was already committed but the client retried due to a lag replying
                 forwardCommitRetry(startTimestamp, c, event.getMonCtx());
             } else {
@@ -266,6 +584,28 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
 
     }
 
+    // Prefetches the cells of the commits collected and then handles them in order
+    private void handlePendingCommits() throws Exception {
+        int next = 0;
+        while (next < numPendingCommits) {
+            // Take the following commits whose cells fit in the prefetch, at least one
+            int numCells = 0;
+            int end = next;
+            do {
+                RequestEvent commit = pendingCommits[end++];
+                int numCommitCells = Math.min(commit.getNumCells(), pendingCells.length - numCells);
+                System.arraycopy(commit.getWriteSet(), 0, pendingCells, numCells, numCommitCells);
+                numCells += numCommitCells;
+            } while (end < numPendingCommits && numCells + pendingCommits[end].getNumCells() <= pendingCells.length);
+            hashmap.prefetch(pendingCells, numCells);
+            for (; next < end; next++) {
+                handleCommit(pendingCommits[next]);
+                pendingCommits[next] = null;
+            }
+        }
+        numPendingCommits = 0;
+    }
+
     private void handleFence(RequestEvent event) throws Exception {
         long tableID = event.getTableId();
         Channel c = event.getChannel();
@@ -274,7 +614,7 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
 
         tableFences.put(tableID, fenceTimestamp);
 
-        event.monCtx.timerStart("reply.processor.fence.latency");
+        event.monCtx.timerStart(REPLY_FENCE);
         replyProcessor.sendFenceResponse(tableID, fenceTimestamp, c, event.monCtx);
     }
 
@@ -282,9 +622,14 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     public void close() throws IOException {
 
         LOG.info("Terminating Request Processor...");
-        disruptor.halt();
-        disruptor.shutdown();
-        LOG.info("\tRequest Processor Disruptor shutdown");
+        if (ingestRings != null) {
+            ingestRings.halt();
+            LOG.info("\tRequest Processor ingest rings halted");
+        } else {
+            disruptor.halt();
+            disruptor.shutdown();
+            LOG.info("\tRequest Processor Disruptor shutdown");
+        }
         disruptorExec.shutdownNow();
         try {
             disruptorExec.awaitTermination(3, SECONDS);
@@ -293,6 +638,9 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
             LOG.error("Interrupted whilst finishing Request Processor Disruptor executor");
             Thread.currentThread().interrupt();
         }
+        if (partitionedConflictDetector != null) {
+            partitionedConflictDetector.close();
+        }
         LOG.info("Request Processor terminated");
 
     }
@@ -301,11 +649,12 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
     protected abstract void forwardCommitRetry(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
     protected abstract void forwardAbort(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
     protected abstract void forwardTimestamp(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
+    protected abstract void forwardTimestampRange(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) throws Exception;
     protected abstract void onTimeout() throws Exception;
 
 
 
-    final static class RequestEvent implements Iterable<Long> {
+    final static class RequestEvent {
 
         enum Type {
             TIMESTAMP, COMMIT, FENCE
@@ -316,18 +665,47 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
 
         private boolean isCommitRetry = false;
         private long startTimestamp = 0;
+        private int numTimestamps = 1;
         private MonitoringContext monCtx;
-        private long numCells = 0;
 
+        // The write set and table ids are kept in primitive arrays reused across the events occupying this ring slot.
+        // The arrays grow to hold the largest request seen up to MAX_RETAINED_CELLS. Larger requests use arrays that
+        // are released when the slot is reused
         private static final int MAX_INLINE = 40;
-        private Long writeSet[] = new Long[MAX_INLINE];
-        private Collection<Long> writeSetAsCollection = null; // for the case where there's more than MAX_INLINE
+        private static final int MAX_RETAINED_CELLS = 1 << 12;
+        private long[] retainedWriteSet = new long[MAX_INLINE];
+        private long[] writeSet = retainedWriteSet;
+        private int numCells = 0;
+        private long[] retainedTableIdSet = new long[MAX_INLINE];
+        private long[] tableIdSet = retainedTableIdSet;
+        private int numTableIds = 0;
 
-        private Collection<Long> tableIdSet = null;
         private long tableID = 0;
 
+        // System.nanoTime() after which the client no longer waits for the response
+        static final long NO_DEADLINE = Long.MAX_VALUE;
+        private long deadline = NO_DEADLINE;
+
+        /**
+         * Returns the deadline, in System.nanoTime(), of a request arriving now that the client waits deadlineInMs
+         * for. Negative values mean no deadline
+         */
+        static long deadlineIn(int deadlineInMs) {
+            return deadlineInMs < 0 ? NO_DEADLINE : System.nanoTime() + MILLISECONDS.toNanos(deadlineInMs);
+        }
+
+        static boolean hasExpired(long deadline, long now) {
+            return deadline != NO_DEADLINE && now - deadline > 0;
+        }
+
         static void makeTimestampRequest(RequestEvent e, Channel c, MonitoringContext monCtx) {
+            makeTimestampRequest(e, 1, c, monCtx);
+        }
+
+        static void makeTimestampRequest(RequestEvent e, int numTimestamps, Channel c, MonitoringContext monCtx) {
             e.type = Type.TIMESTAMP;
+            e.deadline = NO_DEADLINE;
+            e.numTimestamps = numTimestamps;
             e.channel = c;
             e.monCtx = monCtx;
         }
@@ -344,19 +722,30 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
             e.channel = c;
             e.startTimestamp = startTimestamp;
             e.isCommitRetry = isRetry;
-            if (writeSet.size() > MAX_INLINE) {
-                e.numCells = writeSet.size();
-                e.writeSetAsCollection = writeSet;
-            } else {
-                e.writeSetAsCollection = null;
-                e.numCells = writeSet.size();
-                int i = 0;
-                for (Long cellId : writeSet) {
-                    e.writeSet[i] = cellId;
-                    ++i;
-                }
+            e.deadline = NO_DEADLINE;
+            e.prepareArrays(writeSet.size(), TableIdSet.size());
+            int i = 0;
+            for (Long cellId : writeSet) {
+                e.writeSet[i++] = cellId;
             }
-            e.tableIdSet = TableIdSet;
+            i = 0;
+            for (Long tableId : TableIdSet) {
+                e.tableIdSet[i++] = tableId;
+            }
+        }
+
+        static void makeCommitRequest(RequestEvent e,
+                                      WireCommitRequest request,
+                                      MonitoringContext monCtx,
+                                      Channel c) {
+            e.monCtx = monCtx;
+            e.type = Type.COMMIT;
+            e.channel = c;
+            e.startTimestamp = request.getStartTimestamp();
+            e.isCommitRetry = request.isRetry();
+            e.deadline = deadlineIn(request.getDeadlineInMs());
+            e.prepareArrays(request.getNumCells(), request.getNumTableIds());
+            request.decode(e.writeSet, e.tableIdSet);
         }
 
         static void makeFenceRequest(RequestEvent e,
@@ -364,11 +753,25 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
                                      Channel c,
                                      MonitoringContext monCtx) {
             e.type = Type.FENCE;
+            e.deadline = NO_DEADLINE;
             e.channel = c;
             e.monCtx = monCtx;
             e.tableID = tableID;
         }
 
+        private void prepareArrays(int numCells, int numTableIds) {
+            this.numCells = numCells;
+            this.numTableIds = numTableIds;
+            if (numCells > retainedWriteSet.length && numCells <= MAX_RETAINED_CELLS) {
+                retainedWriteSet = new long[Math.min(Math.max(numCells, 2 * retainedWriteSet.length), MAX_RETAINED_CELLS)];
+            }
+            writeSet = numCells <= retainedWriteSet.length ? retainedWriteSet : new long[numCells];
+            if (numTableIds > retainedTableIdSet.length && numTableIds <= MAX_RETAINED_CELLS) {
+                retainedTableIdSet = new long[Math.min(Math.max(numTableIds, 2 * retainedTableIdSet.length), MAX_RETAINED_CELLS)];
+            }
+            tableIdSet = numTableIds <= retainedTableIdSet.length ? retainedTableIdSet : new long[numTableIds];
+        }
+
         MonitoringContext getMonCtx() {
             return monCtx;
         }
@@ -385,55 +788,48 @@ abstract class AbstractRequestProcessor implements EventHandler<AbstractRequestP
             return channel;
         }
 
-        Collection<Long> getTableIdSet() {
-            return tableIdSet;
+        int getNumTimestamps() {
+            return numTimestamps;
         }
 
-        long getTableId() {
-            return tableID;
+        /**
+         * Returns the array holding the write set. Only the first {@link #getNumCells()} elements are valid
+         */
+        long[] getWriteSet() {
+            return writeSet;
         }
 
-        @Override
-        public Iterator<Long> iterator() {
-
-            if (writeSetAsCollection != null) {
-                return writeSetAsCollection.iterator();
-            }
-
-            return new Iterator<Long>() {
-                int i = 0;
-
-                @Override
-                public boolean hasNext() {
-                    return i < numCells;
-                }
-
-                @Override
-                public Long next() {
-                    if (!hasNext()) {
-                        throw new NoSuchElementException();
-                    }
-                    return writeSet[i++];
-                }
-
-                @Override
-                public void remove() {
-                    throw new UnsupportedOperationException();
-                }
-            };
-
+        int getNumCells() {
+            return numCells;
         }
 
-        Iterable<Long> writeSet() {
+        /**
+         * Returns the array holding the table ids. Only the first {@link #getNumTableIds()} elements are valid
+         */
+        long[] getTableIdSet() {
+            return tableIdSet;
+        }
 
-            return this;
+        int getNumTableIds() {
+            return numTableIds;
+        }
 
+        long getTableId() {
+            return tableID;
         }
 
         boolean isCommitRetry() {
             return isCommitRetry;
         }
 
+        long getDeadline() {
+            return deadline;
+        }
+
+        boolean hasExpired() {
+            return deadline != NO_DEADLINE && hasExpired(deadline, System.nanoTime());
+        }
+
         final static EventFactory<RequestEvent> EVENT_FACTORY = new EventFactory<RequestEvent>() {
             @Override
             public RequestEvent newInstance() {
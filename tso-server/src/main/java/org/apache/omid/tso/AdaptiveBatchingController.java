@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.omid.metrics.Counter;
+import org.apache.omid.metrics.Gauge;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Adjusts at runtime the number of events that fill a batch and the number of commit table writers that batches are
+ * sent to, following the latency of the batches: the time from their first event until they are flushed to the
+ * commit table. The policy is AIMD with a latency target. While batches stay within the target and fill up, the
+ * batch size grows additively up to batchSizePerCTWriter and, once there, one more writer is activated up to
+ * numConcurrentCTWriters * maxInFlightBatchesPerCTWriter, as each batch in flight takes a writer. When a batch
+ * exceeds the target, either because the commit table is slow or because requests arrive too slowly to fill it, the
+ * batch size is halved, or one writer is deactivated if the batch size is already 1. Decreases are spaced at least
+ * the latency target apart, so the batches in progress when latency goes up count as a single signal.
+ *
+ * The batch size and active writers are read by the request processor thread when it adds events to a batch. The
+ * latencies are reported by the persistence processor handlers. When adaptive batching is disabled, the batch size
+ * and writers stay at their configured values.
+ *
+ * Either way, the latency of the batches is smoothed into a moving average that the admission controller uses to
+ * detect that the server is overloaded. As the average only changes when batches are flushed, and the requests the
+ * admission controller rejects are never batched, it is discarded once no batch has been flushed for longer than the
+ * average itself. Otherwise, a rejection period would never end.
+ */
+@Singleton
+class AdaptiveBatchingController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatchingController.class);
+
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final int maxWriters;
+    private final int batchSizeIncrement;
+    private final long latencyTargetInNs;
+
+    private volatile int batchSize;
+    private volatile int activeWriters;
+    private long lastDecreaseTime;
+
+    // Exponentially weighted moving average of the batch latencies, weighing the last one by 1/8. Updated without
+    // synchronization by the writers, so concurrent updates can lose one of the samples
+    private volatile long smoothedBatchLatencyInNs;
+    private volatile long lastFlushTime = System.nanoTime();
+
+    // Batches sent to be persisted that the writers have not flushed yet
+    private final AtomicInteger batchesInFlight = new AtomicInteger();
+
+    private final Counter increases;
+    private final Counter decreases;
+
+    @Inject
+    AdaptiveBatchingController(TSOServerConfig config, MetricsRegistry metrics) {
+
+        this.enabled = config.getAdaptiveBatching();
+        this.maxBatchSize = config.getBatchSizePerCTWriter();
+        this.maxWriters = config.getNumConcurrentCTWriters() * config.getMaxInFlightBatchesPerCTWriter();
+        this.batchSizeIncrement = Math.max(1, maxBatchSize / 16);
+        this.latencyTargetInNs = MILLISECONDS.toNanos(config.getBatchLatencyTargetInMs());
+        this.batchSize = maxBatchSize;
+        this.activeWriters = maxWriters;
+        this.lastDecreaseTime = System.nanoTime() - latencyTargetInNs;
+
+        if (!enabled) {
+            this.increases = null;
+            this.decreases = null;
+            return;
+        }
+        this.increases = metrics.counter(name("tso", "adaptive-batching", "increases"));
+        this.decreases = metrics.counter(name("tso", "adaptive-batching", "decreases"));
+        metrics.gauge(name("tso", "adaptive-batching", "batch-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return batchSize;
+            }
+        });
+        metrics.gauge(name("tso", "adaptive-batching", "active-writers"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return activeWriters;
+            }
+        });
+
+        LOG.info("Adaptive batching up to {} events per batch and {} writers with a latency target of {} ms",
+                 maxBatchSize, maxWriters, config.getBatchLatencyTargetInMs());
+
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    int getActiveWriters() {
+        return activeWriters;
+    }
+
+    long getSmoothedBatchLatencyInNs() {
+        return getSmoothedBatchLatencyInNs(System.nanoTime());
+    }
+
+    /**
+     * @return the moving average of the batch latencies or 0 if it is stale, because no batch has been flushed for
+     *         longer than the average
+     */
+    long getSmoothedBatchLatencyInNs(long now) {
+        long latency = smoothedBatchLatencyInNs;
+        return now - lastFlushTime > latency ? 0 : latency;
+    }
+
+    // Whether a batch that reached the batch size can be sent to be persisted without exceeding the active writers
+    boolean hasIdleWriter() {
+        return !enabled || batchesInFlight.get() < activeWriters;
+    }
+
+    void batchSent() {
+        if (enabled) {
+            batchesInFlight.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called by the writers after flushing a batch to the commit table.
+     *
+     * @param numEvents
+     *            the events in the batch
+     * @param batchLatencyInNs
+     *            the time from the first event of the batch until it was flushed
+     */
+    void batchFlushed(int numEvents, long batchLatencyInNs) {
+        long now = System.nanoTime();
+        long smoothed = getSmoothedBatchLatencyInNs(now); // A stale average starts over from 0
+        smoothedBatchLatencyInNs = smoothed + (batchLatencyInNs - smoothed) / 8;
+        lastFlushTime = now;
+        if (enabled) {
+            batchesInFlight.decrementAndGet();
+            update(numEvents, batchLatencyInNs, now);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void update(int numEvents, long batchLatencyInNs, long now) {
+        if (batchLatencyInNs > latencyTargetInNs) {
+            if (now - lastDecreaseTime < latencyTargetInNs) {
+                return;
+            }
+            lastDecreaseTime = now;
+            if (batchSize > 1) {
+                batchSize = Math.max(1, batchSize / 2);
+            } else if (activeWriters > 1) {
+                activeWriters--;
+            } else {
+                return;
+            }
+            decreases.inc();
+        } else if (numEvents >= batchSize) {
+            if (batchSize < maxBatchSize) {
+                batchSize = Math.min(maxBatchSize, batchSize + batchSizeIncrement);
+            } else if (activeWriters < maxWriters) {
+                activeWriters++;
+            } else {
+                return;
+            }
+            increases.inc();
+        }
+    }
+
+}
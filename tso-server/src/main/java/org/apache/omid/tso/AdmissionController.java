@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.omid.metrics.Counter;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Decides whether the requests arriving to the server are admitted, or rejected right away telling the client to
+ * retry them later, so an overloaded server sheds load instead of letting its queues and latencies grow until the
+ * clients time out and retry all at once. A request is rejected while the request queue it would be published to is
+ * above an occupancy threshold, or while the moving average of the batch latencies is above a latency threshold. The
+ * average is discarded once no batch has been flushed for longer than itself, which is also the time the rejected
+ * clients are told to wait, so rejecting requests does not keep the average from going down.
+ *
+ * Called from the netty worker threads. When admission control is disabled, all requests are admitted.
+ */
+@Singleton
+class AdmissionController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final boolean enabled;
+    private final float maxQueueOccupancy;
+    private final long maxBatchLatencyInNs;
+    private final int minRetryAfterInMs;
+    private final AdaptiveBatchingController batchingController;
+
+    private final Counter rejected;
+
+    @Inject
+    AdmissionController(TSOServerConfig config, MetricsRegistry metrics, AdaptiveBatchingController batchingController) {
+
+        this.enabled = config.getAdmissionControl();
+        this.maxQueueOccupancy = config.getAdmissionMaxQueueOccupancyPercent() / 100f;
+        this.maxBatchLatencyInNs = MILLISECONDS.toNanos(config.getAdmissionMaxBatchLatencyInMs());
+        this.minRetryAfterInMs = config.getOverloadedRetryAfterInMs();
+        this.batchingController = batchingController;
+        this.rejected = metrics.counter(name("tso", "admission", "rejected"));
+
+        if (enabled) {
+            LOG.info("Admission control rejecting requests above {}% of queue occupancy or {} ms of batch latency",
+                     config.getAdmissionMaxQueueOccupancyPercent(), config.getAdmissionMaxBatchLatencyInMs());
+        }
+
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param queueOccupancy
+     *            the fraction of the request queue the request would be published to that is taken
+     * @return whether the request can be processed. Otherwise, it must be rejected
+     */
+    boolean admit(float queueOccupancy) {
+        return admit(queueOccupancy, System.nanoTime());
+    }
+
+    @VisibleForTesting
+    boolean admit(float queueOccupancy, long now) {
+        if (!enabled) {
+            return true;
+        }
+        if (queueOccupancy > maxQueueOccupancy
+                || batchingController.getSmoothedBatchLatencyInNs(now) > maxBatchLatencyInNs) {
+            rejected.inc();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the time the clients are told to wait before retrying a rejected request: the batch latency, as that is
+     * roughly what it takes for the queued requests to be served, and not less than the configured minimum
+     */
+    int getRetryAfterInMs() {
+        return retryAfterInMs(batchingController.getSmoothedBatchLatencyInNs());
+    }
+
+    @VisibleForTesting
+    int retryAfterInMs(long batchLatencyInNs) {
+        return (int) Math.max(minRetryAfterInMs, NANOSECONDS.toMillis(batchLatencyInNs));
+    }
+
+}
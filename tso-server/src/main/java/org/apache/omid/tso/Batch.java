@@ -29,6 +29,12 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_COMMIT_RETRY;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_FENCE;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_TIMESTAMP;
+
 public class Batch {
 
     private static final Logger LOG = LoggerFactory.getLogger(Batch.class);
@@ -37,6 +43,8 @@ public class Batch {
     private final int size;
     private int numEvents;
     private final PersistEvent[] events; // TODO Check if it's worth to have a dynamic structure for this
+    // System.nanoTime() when the first event was added
+    private long firstEventTime;
 
     Batch(int id, int size) {
 
@@ -94,22 +102,44 @@ public class Batch {
 
     }
 
+    long getFirstEventTime() {
+        Preconditions.checkState(numEvents > 0, "batch is empty");
+        return firstEventTime;
+    }
+
+    private int nextEventIndex() {
+        if (numEvents == 0) {
+            firstEventTime = System.nanoTime();
+        }
+        return numEvents++;
+    }
+
     void addTimestamp(long startTimestamp, Channel c, MonitoringContext context) {
 
         Preconditions.checkState(!isFull(), "batch is full");
-        int index = numEvents++;
+        int index = nextEventIndex();
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.timestamp.latency");
+        context.timerStart(PERSISTENCE_TIMESTAMP);
         e.makePersistTimestamp(startTimestamp, c, context);
 
     }
 
+    void addTimestampRange(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext context) {
+
+        Preconditions.checkState(!isFull(), "batch is full");
+        int index = nextEventIndex();
+        PersistEvent e = events[index];
+        context.timerStart(PERSISTENCE_TIMESTAMP);
+        e.makePersistTimestampRange(firstTimestamp, numTimestamps, c, context);
+
+    }
+
     void addFence(long tableID, long fenceTimestamp, Channel c, MonitoringContext context) {
 
         Preconditions.checkState(!isFull(), "batch is full");
-        int index = numEvents++;
+        int index = nextEventIndex();
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.fence.latency");
+        context.timerStart(PERSISTENCE_FENCE);
         e.makePersistFence(tableID, fenceTimestamp, c, context);
 
     }
@@ -117,9 +147,9 @@ public class Batch {
     void addCommit(long startTimestamp, long commitTimestamp, Channel c, MonitoringContext context, Optional<Long> newLowWatermark) {
 
         Preconditions.checkState(!isFull(), "batch is full");
-        int index = numEvents++;
+        int index = nextEventIndex();
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.commit.latency");
+        context.timerStart(PERSISTENCE_COMMIT);
         e.makePersistCommit(startTimestamp, commitTimestamp, newLowWatermark, c, context);
 
     }
@@ -127,9 +157,9 @@ public class Batch {
     void addCommitRetry(long startTimestamp, Channel c, MonitoringContext context) {
 
         Preconditions.checkState(!isFull(), "batch is full");
-        int index = numEvents++;
+        int index = nextEventIndex();
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.commit-retry.latency");
+        context.timerStart(PERSISTENCE_COMMIT_RETRY);
         e.makeCommitRetry(startTimestamp, c, context);
 
     }
@@ -137,9 +167,9 @@ public class Batch {
     void addAbort(long startTimestamp, Channel c, MonitoringContext context) {
 
         Preconditions.checkState(!isFull(), "batch is full");
-        int index = numEvents++;
+        int index = nextEventIndex();
         PersistEvent e = events[index];
-        context.timerStart("persistence.processor.abort.latency");
+        context.timerStart(PERSISTENCE_ABORT);
         e.makePersistAbort(startTimestamp, c, context);
 
     }
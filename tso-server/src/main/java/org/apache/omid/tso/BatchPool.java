@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.commons.pool2.BaseObjectPool;
+import org.apache.omid.metrics.Gauge;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.Timer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.apache.omid.metrics.MetricsUtils.name;
+
+/**
+ * Fixed-size pool of the batches the persistence processor fills, which are returned by the reply processor once
+ * their responses are sent. All the batches are created upfront. The idle ones are kept in an array of slots that
+ * are taken and filled with compare-and-set, so borrowing and returning a batch takes neither locks nor allocations.
+ * As there are as many slots as batches, a returned batch always finds an empty slot.
+ *
+ * When all the batches are in use, the borrower blocks until one is returned. Only the borrowers that find the pool
+ * exhausted synchronize, and the returners only take the lock to wake them up when there are borrowers waiting.
+ */
+class BatchPool extends BaseObjectPool<Batch> {
+
+    private final Batch.BatchFactory factory;
+    private final AtomicReferenceArray<Batch> idleBatches;
+    private final AtomicInteger numActive = new AtomicInteger();
+
+    private final Object exhaustedLock = new Object();
+    // Borrowers blocked because the pool was exhausted. Updated holding exhaustedLock
+    private volatile int numWaiters;
+
+    private final Timer waitTimer;
+
+    BatchPool(int poolSize, int batchSize, MetricsRegistry metrics) throws Exception {
+
+        this.factory = new Batch.BatchFactory(batchSize);
+        this.idleBatches = new AtomicReferenceArray<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            idleBatches.set(i, factory.create());
+        }
+
+        this.waitTimer = metrics.timer(name("tso", "batch-pool", "wait"));
+        metrics.gauge(name("tso", "batch-pool", "active"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return numActive.get();
+            }
+        });
+
+    }
+
+    @Override
+    public Batch borrowObject() throws Exception {
+
+        assertOpen();
+        Batch batch = pollIdleBatch();
+        if (batch != null) {
+            return batch;
+        }
+
+        long waitStartTime = System.nanoTime();
+        synchronized (exhaustedLock) {
+            numWaiters++;
+            try {
+                // Returners check numWaiters after filling their slot, so a batch returned after this poll wakes us up
+                while ((batch = pollIdleBatch()) == null) {
+                    exhaustedLock.wait();
+                }
+            } finally {
+                numWaiters--;
+            }
+        }
+        waitTimer.update(System.nanoTime() - waitStartTime);
+        return batch;
+
+    }
+
+    @Override
+    public void returnObject(Batch batch) throws Exception {
+
+        batch.clear(); // Reset num events when returning the batch to the pool
+        offerIdleBatch(batch);
+
+    }
+
+    @Override
+    public void invalidateObject(Batch batch) throws Exception {
+
+        // Replaces the batch with a new one, so the pool keeps its size
+        offerIdleBatch(factory.create());
+
+    }
+
+    @Override
+    public int getNumIdle() {
+        return idleBatches.length() - numActive.get();
+    }
+
+    @Override
+    public int getNumActive() {
+        return numActive.get();
+    }
+
+    private Batch pollIdleBatch() {
+
+        for (int i = 0; i < idleBatches.length(); i++) {
+            Batch batch = idleBatches.get(i);
+            if (batch != null && idleBatches.compareAndSet(i, batch, null)) {
+                numActive.incrementAndGet();
+                return batch;
+            }
+        }
+        return null;
+
+    }
+
+    private void offerIdleBatch(Batch batch) {
+
+        int active;
+        do {
+            active = numActive.get();
+            if (active == 0) {
+                throw new IllegalStateException("Returned more batches than the pool size " + idleBatches.length());
+            }
+        } while (!numActive.compareAndSet(active, active - 1));
+
+        // A single pass may miss the free slot: while this thread scans, a batch can be borrowed from a slot already
+        // passed and returned to a later one. There is always a free slot for each batch being returned, so keep going
+        int slot = 0;
+        while (!idleBatches.compareAndSet(slot, null, batch)) {
+            slot++;
+            if (slot == idleBatches.length()) {
+                slot = 0;
+                Thread.yield();
+            }
+        }
+        if (numWaiters > 0) {
+            synchronized (exhaustedLock) {
+                exhaustedLock.notifyAll();
+            }
+        }
+
+    }
+
+}
@@ -20,14 +20,11 @@ package org.apache.omid.tso;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import org.apache.commons.pool2.ObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.omid.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
-import java.util.ArrayList;
-import java.util.List;
 
 public class BatchPoolModule extends AbstractModule {
 
@@ -45,30 +42,15 @@ public class BatchPoolModule extends AbstractModule {
 
     @Provides
     @Singleton
-    ObjectPool<Batch> getBatchPool() throws Exception {
+    ObjectPool<Batch> getBatchPool(MetricsRegistry metrics) throws Exception {
 
-        int poolSize = config.getNumConcurrentCTWriters();
+        // Each writer can hold several batches while their flushes are in flight
+        int poolSize = config.getNumConcurrentCTWriters() * config.getMaxInFlightBatchesPerCTWriter();
         int batchSize = config.getBatchSizePerCTWriter();
 
         LOG.info("Pool Size (# of Batches) {}; Batch Size {}", poolSize, batchSize);
         LOG.info("Total Batch Size (Pool size * Batch Size): {}", poolSize * batchSize);
-        // Setup ObjectPool behaviour
-        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
-        config.setMaxTotal(poolSize);
-        config.setMaxIdle(poolSize + 1); // This avoids GenericObjectPool to destroy the batches when returned to
-                                         // the pool during the pre-creation below
-        config.setBlockWhenExhausted(true);
-        GenericObjectPool<Batch> batchPool = new GenericObjectPool<>(new Batch.BatchFactory(batchSize), config);
-        LOG.info("Pre-creating objects in the pool...");
-        // TODO There should be a better way to do the pre-creation below avoiding the two loops
-        List<Batch> batches = new ArrayList<>(poolSize);
-        for (int i = 0; i < poolSize; i++) {
-            batches.add(batchPool.borrowObject());
-        }
-        for (Batch batch : batches) {
-            batchPool.returnObject(batch);
-        }
-        return batchPool;
+        return new BatchPool(poolSize, batchSize, metrics);
 
     }
 
@@ -20,6 +20,9 @@ package org.apache.omid.tso;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Stores the mapping between a particular cell id and the commit timestamp
  * of the last transaction that changed it.
@@ -28,10 +31,16 @@ import org.slf4j.LoggerFactory;
  * For a map of size N we create an array of size 2*N and store the keys
  * on even indexes and values on odd indexes. The rationale is that we want
  * queries to be fast and touch as least memory regions as possible.
+ * Other layouts can be configured through the {@link ConflictMap} implementations.
  *
  * Each time an entry is removed, the caller updates the largestDeletedTimestamp
  * if the entry's commit timestamp is greater than this value.
  *
+ * The map can be resized online with {@link #resize(int)}. The entries of the old storage are migrated
+ * incrementally, a few of them on each put, so the request processor never stalls for a full rehash. Until the
+ * migration finishes, lookups check the new storage first and then the old one. Entries evicted while migrating
+ * are reported to the caller as any other eviction.
+ *
  * TODO: improve garbage collection, right now an entry is picked at random
  * (by hash) which could cause the eviction of a very recent timestamp
  */
@@ -40,7 +49,25 @@ class CommitHashMap {
 
     private static final Logger LOG = LoggerFactory.getLogger(CommitHashMap.class);
 
-    private final LongCache cellIdToCommitMap;
+    private static final int ASSOCIATIVITY = 32;
+
+    // Number of entries of the old storage migrated on each put while resizing
+    static final int MIGRATED_ENTRIES_PER_PUT = 2 * ASSOCIATIVITY;
+
+    // Null for maps created without a TSO config, which are always stored in the heap
+    private final TSOServerConfig config;
+    private final String suffix;
+
+    // Volatile to let other threads peek at the storage in use while resizing
+    private volatile ConflictMap cellIdToCommitMap;
+    private File file;
+    private volatile int size;
+    private int generation = 0;
+
+    // Storage being migrated to cellIdToCommitMap while resizing. Null otherwise
+    private volatile ConflictMap previousCellIdToCommitMap;
+    private File previousFile;
+    private int migrationCursor;
 
     /**
      * Constructs a new, empty hashtable with a default size of 1000
@@ -58,19 +85,178 @@ class CommitHashMap {
      *             if the size is less than zero.
      */
     public CommitHashMap(int size) {
+        this(null, "");
         if (size < 0) {
             throw new IllegalArgumentException("Illegal size: " + size);
         }
 
-        this.cellIdToCommitMap = new LongCache(size, 32);
+        this.cellIdToCommitMap = new LongCache(size, ASSOCIATIVITY);
+        this.size = size;
         LOG.info("CellId -> CommitTS map created with [{}] buckets (32 elems/bucket)", size);
     }
 
+    private CommitHashMap(TSOServerConfig config, String suffix) {
+        this.config = config;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Creates a new, empty hashtable with the specified size and the storage configured in the TSO config
+     *
+     * @param size
+     *            the size of the hashtable.
+     * @param suffix
+     *            suffix appended to the file name of memory-mapped storage, in order to distinguish several maps
+     * @throws IOException
+     *             if the memory-mapped file can not be created.
+     */
+    static CommitHashMap create(TSOServerConfig config, int size, String suffix) throws IOException {
+        CommitHashMap map = new CommitHashMap(config, suffix);
+        map.allocate(size);
+        return map;
+    }
+
     public long getLatestWriteForCell(long hash) {
-        return cellIdToCommitMap.get(hash);
+        long value = cellIdToCommitMap.get(hash);
+        if (value == 0 && previousCellIdToCommitMap != null) {
+            value = previousCellIdToCommitMap.get(hash);
+        }
+        return value;
+    }
+
+    /**
+     * Speculative version of {@link #getLatestWriteForCell(long)} that can be called from threads other than the one
+     * updating the map. See {@link ConflictMap#peek(long)}
+     */
+    long peekLatestWriteForCell(long hash) {
+        ConflictMap previous = previousCellIdToCommitMap;
+        long value = cellIdToCommitMap.peek(hash);
+        if (value == 0 && previous != null) {
+            value = previous.peek(hash);
+        }
+        return value;
+    }
+
+    /**
+     * Brings the slots of the cells passed to the CPU caches before looking them up. See {@link ConflictMap#prefetch}
+     */
+    void prefetch(long[] hashes, int numHashes) {
+        cellIdToCommitMap.prefetch(hashes, numHashes);
     }
 
     public long putLatestWriteForCell(long hash, long commitTimestamp) {
-        return cellIdToCommitMap.set(hash, commitTimestamp);
+        long removed = cellIdToCommitMap.set(hash, commitTimestamp);
+        if (previousCellIdToCommitMap != null) {
+            removed = Math.max(removed, migrateEntries(MIGRATED_ENTRIES_PER_PUT));
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of buckets of the hashtable. While resizing, this is the size of the new storage
+     */
+    int getSize() {
+        return size;
+    }
+
+    boolean isResizing() {
+        return previousCellIdToCommitMap != null;
     }
+
+    /**
+     * Starts resizing the hashtable to the size passed. The current entries are migrated incrementally on the
+     * following puts. Only one resize can be in progress at a time
+     *
+     * @throws IOException
+     *             if the new memory-mapped file can not be created. The hashtable is left unchanged in that case.
+     */
+    void resize(int newSize) throws IOException {
+        if (newSize <= 0) {
+            throw new IllegalArgumentException("Illegal size: " + newSize);
+        }
+        if (isResizing()) {
+            throw new IllegalStateException("A resize is already in progress");
+        }
+        ConflictMap previous = cellIdToCommitMap;
+        File previousStorageFile = file;
+        int previousSize = size;
+        generation++;
+        allocate(newSize);
+        previousCellIdToCommitMap = previous;
+        previousFile = previousStorageFile;
+        migrationCursor = 0;
+        LOG.info("Resizing CellId -> CommitTS map from [{}] to [{}] buckets", previousSize, newSize);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void allocate(int newSize) throws IOException {
+        ConflictMap map;
+        File newFile = null;
+        TSOServerConfig.CONFLICT_MAP_STORAGE storage = config == null ? null : config.getConflictMapStorageEnum();
+        storage = storage == null ? TSOServerConfig.CONFLICT_MAP_STORAGE.HEAP : storage;
+        TSOServerConfig.CONFLICT_MAP_LAYOUT layout = config == null ? null : config.getConflictMapLayoutEnum();
+        layout = layout == null ? TSOServerConfig.CONFLICT_MAP_LAYOUT.SET_ASSOCIATIVE : layout;
+        boolean masked = layout == TSOServerConfig.CONFLICT_MAP_LAYOUT.MASKED_SET_ASSOCIATIVE;
+        switch (layout) {
+            case ROBIN_HOOD:
+            case CUCKOO:
+                if (storage != TSOServerConfig.CONFLICT_MAP_STORAGE.HEAP) {
+                    throw new IllegalArgumentException("Conflict map layout " + layout + " only supports HEAP storage");
+                }
+                map = layout == TSOServerConfig.CONFLICT_MAP_LAYOUT.ROBIN_HOOD
+                        ? new RobinHoodConflictMap(newSize, ASSOCIATIVITY)
+                        : new CuckooConflictMap(newSize);
+                break;
+            case SET_ASSOCIATIVE:
+            case MASKED_SET_ASSOCIATIVE:
+            default:
+                switch (storage) {
+                    case OFF_HEAP:
+                        map = OffHeapLongCache.direct(newSize, ASSOCIATIVITY, masked);
+                        break;
+                    case MEMORY_MAPPED:
+                        // Each generation needs its own file, as the previous one is still in use while migrating
+                        newFile = new File(config.getConflictMapFile() + suffix + (generation == 0 ? "" : "." + generation));
+                        map = OffHeapLongCache.mapped(newSize, ASSOCIATIVITY, masked, newFile);
+                        break;
+                    case HEAP:
+                    default:
+                        map = masked ? LongCache.masked(newSize, ASSOCIATIVITY) : new LongCache(newSize, ASSOCIATIVITY);
+                        break;
+                }
+                break;
+        }
+        this.cellIdToCommitMap = map;
+        this.file = newFile;
+        this.size = newSize;
+    }
+
+    // Moves the entries of the previous storage not superseded by a newer write. Returns the largest evicted value
+    private long migrateEntries(int numEntries) {
+        long removed = 0;
+        int end = Math.min(migrationCursor + numEntries, previousCellIdToCommitMap.getNumEntries());
+        for (; migrationCursor < end; migrationCursor++) {
+            long value = previousCellIdToCommitMap.getValueAt(migrationCursor);
+            if (value == 0) {
+                continue;
+            }
+            long key = previousCellIdToCommitMap.getKeyAt(migrationCursor);
+            if (cellIdToCommitMap.get(key) == 0) {
+                removed = Math.max(removed, cellIdToCommitMap.set(key, value));
+            }
+        }
+        if (migrationCursor == previousCellIdToCommitMap.getNumEntries()) {
+            previousCellIdToCommitMap = null;
+            if (previousFile != null && !previousFile.delete()) {
+                LOG.warn("Could not delete old conflict map file {}", previousFile);
+            }
+            previousFile = null;
+            LOG.info("CellId -> CommitTS map resized to [{}] buckets", size);
+        }
+        return removed;
+    }
+
 }
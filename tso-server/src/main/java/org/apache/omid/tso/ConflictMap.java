@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+/**
+ * Fixed-capacity map of cell ids to the commit timestamp of the last transaction that wrote them, used by
+ * {@link CommitHashMap} to detect write-write conflicts.
+ *
+ * When there is no room for a new cell, implementations evict another entry and return its commit timestamp, so the
+ * request processor can raise the low watermark over it. Zero is never a valid commit timestamp and marks empty slots.
+ *
+ * Implementations are not thread safe, with the exception of {@link #peek(long)} in those overriding it to that end.
+ */
+interface ConflictMap {
+
+    /**
+     * @return the value stored for the key passed or 0 if there is none
+     */
+    long get(long key);
+
+    /**
+     * Same as {@link #get(long)}, but it can be called concurrently with the thread updating the map in the
+     * implementations overriding it, {@link LongCache} and its subclasses. The value returned may be stale, so it is
+     * only good for speculative checks, but it never belongs to another key. The default implementation is just
+     * {@link #get(long)}, which must not be called concurrently with updates.
+     */
+    default long peek(long key) {
+        return get(key);
+    }
+
+    /**
+     * Hints that the keys passed are going to be looked up soon, so the map can bring their slots to the CPU caches
+     * beforehand, in the order that suits its memory layout. It must not change the contents of the map, but it
+     * may overwrite the keys array
+     */
+    default void prefetch(long[] keys, int numKeys) {
+    }
+
+    /**
+     * Stores the value passed for the key, overwriting the previous one if any
+     *
+     * @return the value of the entry evicted to make room for the key or 0 if none was
+     */
+    long set(long key, long value);
+
+    /**
+     * @return the number of slots that can be iterated with {@link #getKeyAt(int)} and {@link #getValueAt(int)}
+     */
+    int getNumEntries();
+
+    long getKeyAt(int entry);
+
+    /**
+     * @return the value stored in the slot passed or 0 if the slot is empty
+     */
+    long getValueAt(int entry);
+
+}
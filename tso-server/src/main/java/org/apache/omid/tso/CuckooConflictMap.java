@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+/**
+ * {@link ConflictMap} using bucketized cuckoo hashing. Each key can be stored in any of the SLOTS_PER_BUCKET slots of
+ * two buckets chosen by independent hash functions, so a lookup touches at most two cache lines. When both buckets are
+ * full, an entry is kicked out to its alternate bucket, which may kick out another one, up to MAX_KICKS times. If the
+ * entry being carried still has no room, the oldest (smallest) value in its two buckets is evicted.
+ *
+ * The number of buckets is a power of two, so the buckets are taken from the top bits of the hashes, without divisions.
+ */
+final class CuckooConflictMap implements ConflictMap {
+
+    static final int SLOTS_PER_BUCKET = 4;
+    private static final int MAX_KICKS = 32;
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+    private static final long MIX_CONSTANT = 0xC2B2AE3D27D4EB4FL;
+
+    private final long[] keys;
+    private final long[] values;
+    private final int shift;
+    private int kickCounter = 0;
+
+    CuckooConflictMap(int size) {
+        int numBuckets = LongCache.maskedSize(Math.max(2, (size + SLOTS_PER_BUCKET - 1) / SLOTS_PER_BUCKET));
+        this.keys = new long[numBuckets * SLOTS_PER_BUCKET];
+        this.values = new long[numBuckets * SLOTS_PER_BUCKET];
+        this.shift = 64 - Integer.numberOfTrailingZeros(numBuckets);
+    }
+
+    @Override
+    public long get(long key) {
+        int slot = find(bucket1(key), key);
+        if (slot < 0) {
+            slot = find(bucket2(key), key);
+        }
+        return slot < 0 ? 0 : values[slot];
+    }
+
+    @Override
+    public long set(long key, long value) {
+
+        int bucket1 = bucket1(key);
+        int bucket2 = bucket2(key);
+        int slot = find(bucket1, key);
+        if (slot < 0) {
+            slot = find(bucket2, key);
+        }
+        if (slot < 0) {
+            slot = findEmpty(bucket1);
+        }
+        if (slot < 0) {
+            slot = findEmpty(bucket2);
+        }
+        if (slot >= 0) {
+            keys[slot] = key;
+            values[slot] = value;
+            return 0;
+        }
+
+        // Both buckets are full. Kick entries out to their alternate buckets
+        long carriedKey = key;
+        long carriedValue = value;
+        int bucket = bucket1;
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            int victim = bucket * SLOTS_PER_BUCKET + (kickCounter++ & (SLOTS_PER_BUCKET - 1));
+            long victimKey = keys[victim];
+            long victimValue = values[victim];
+            keys[victim] = carriedKey;
+            values[victim] = carriedValue;
+            carriedKey = victimKey;
+            carriedValue = victimValue;
+            int victimBucket1 = bucket1(carriedKey);
+            bucket = victimBucket1 == bucket ? bucket2(carriedKey) : victimBucket1;
+            slot = findEmpty(bucket);
+            if (slot >= 0) {
+                keys[slot] = carriedKey;
+                values[slot] = carriedValue;
+                return 0;
+            }
+        }
+
+        // No room for the entry being carried. Evict the oldest value in its buckets
+        int oldestSlot = -1;
+        long oldestValue = carriedValue;
+        int carriedBucket1 = bucket1(carriedKey);
+        int carriedBucket2 = bucket2(carriedKey);
+        for (int b = 0; b < 2; b++) {
+            int candidateBucket = b == 0 ? carriedBucket1 : carriedBucket2;
+            for (int i = candidateBucket * SLOTS_PER_BUCKET; i < (candidateBucket + 1) * SLOTS_PER_BUCKET; i++) {
+                if (values[i] < oldestValue) {
+                    oldestValue = values[i];
+                    oldestSlot = i;
+                }
+            }
+        }
+        if (oldestSlot >= 0) {
+            keys[oldestSlot] = carriedKey;
+            values[oldestSlot] = carriedValue;
+        }
+        return oldestValue;
+
+    }
+
+    @Override
+    public int getNumEntries() {
+        return keys.length;
+    }
+
+    @Override
+    public long getKeyAt(int entry) {
+        return keys[entry];
+    }
+
+    @Override
+    public long getValueAt(int entry) {
+        return values[entry];
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private int bucket1(long key) {
+        return (int) ((key * GOLDEN_RATIO) >>> shift);
+    }
+
+    private int bucket2(long key) {
+        long hash = (key ^ (key >>> 33)) * MIX_CONSTANT;
+        int bucket = (int) ((hash ^ (hash >>> 29)) >>> shift);
+        return bucket == bucket1(key) ? bucket ^ 1 : bucket;
+    }
+
+    private int find(int bucket, long key) {
+        for (int i = bucket * SLOTS_PER_BUCKET; i < (bucket + 1) * SLOTS_PER_BUCKET; i++) {
+            if (values[i] != 0 && keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findEmpty(int bucket) {
+        for (int i = bucket * SLOTS_PER_BUCKET; i < (bucket + 1) * SLOTS_PER_BUCKET; i++) {
+            if (values[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.TimeoutHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Set of ring buffers feeding a single consumer thread. Each producer thread is given its own single-producer ring the
+ * first time it publishes, so producers do not contend with each other when claiming slots. Once all of them are
+ * taken, the remaining producer threads share a multi-producer ring. The consumer drains the rings in turns, taking a
+ * bounded number of events from each one, so no producer can starve the others.
+ *
+ * The events published by a thread are consumed in the order they were published. A netty channel is always served
+ * by the same event loop thread, so the requests of a channel keep their order too. Note that rings are never released,
+ * so producer threads are expected to be long-lived (e.g. netty workers).
+ *
+ * Like in the disruptor, the handler is told when an event is the last one of a batch, and the events of a batch are
+ * not overwritten until the last one is handled. The timeout handler is called when no events arrive for the timeout
+ * configured.
+ */
+class IngestRings<T> implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestRings.class);
+
+    // Maximum number of events taken from a ring before moving to the next one
+    static final int MAX_EVENTS_PER_TURN = 1 << 8;
+    private static final int SPINS_BEFORE_PARKING = 1 << 10;
+
+    private final Shard<T>[] shards; // The last one is shared by the producer threads not owning a shard
+    private final AtomicInteger nextShard = new AtomicInteger(0);
+    private final ThreadLocal<Shard<T>> threadShard = new ThreadLocal<>();
+
+    private final EventHandler<T> handler;
+    private final TimeoutHandler timeoutHandler;
+    private final ExceptionHandler exceptionHandler;
+    private final long timeoutNanos;
+
+    private volatile Thread consumer;
+    private volatile boolean parked = false;
+    private volatile boolean running = true;
+
+    @SuppressWarnings("unchecked")
+    IngestRings(EventFactory<T> eventFactory,
+                int numRings,
+                int ringSize,
+                int sharedRingSize,
+                EventHandler<T> handler,
+                TimeoutHandler timeoutHandler,
+                ExceptionHandler exceptionHandler,
+                long timeout,
+                TimeUnit timeoutUnit) {
+
+        Preconditions.checkArgument(numRings > 0, "Illegal number of ingest rings: %s", numRings);
+        Preconditions.checkArgument(Integer.bitCount(ringSize) == 1, "Ingest ring size must be a power of 2: %s", ringSize);
+        Preconditions.checkArgument(Integer.bitCount(sharedRingSize) == 1,
+                                    "Shared ring size must be a power of 2: %s", sharedRingSize);
+        this.shards = new Shard[numRings + 1];
+        for (int i = 0; i < numRings; i++) {
+            shards[i] = new Shard<>(RingBuffer.createSingleProducer(eventFactory, ringSize));
+        }
+        shards[numRings] = new Shard<>(RingBuffer.createMultiProducer(eventFactory, sharedRingSize));
+        this.handler = handler;
+        this.timeoutHandler = timeoutHandler;
+        this.exceptionHandler = exceptionHandler;
+        this.timeoutNanos = timeoutUnit.toNanos(timeout);
+        LOG.info("{} ingest rings of {} slots created (shared ring of {} slots)", numRings, ringSize, sharedRingSize);
+
+    }
+
+    /**
+     * Returns the ring the calling thread must publish to, assigning one to it the first time it is called.
+     * After publishing, the thread must call {@link #signal()}.
+     */
+    RingBuffer<T> ringOfCurrentThread() {
+        return shardOfCurrentThread().ring;
+    }
+
+    /**
+     * Wakes up the consumer, if sleeping, after the calling thread published to its ring
+     */
+    void signal() {
+        Shard<T> shard = shardOfCurrentThread();
+        // Volatile write of a field only written by the owner of the shard. It keeps the read of parked from being
+        // done before the publication of the event is visible, so the consumer can not miss it and park
+        shard.signalFence = shard.ring.getCursor();
+        if (parked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    void halt() {
+        running = false;
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+
+        consumer = Thread.currentThread();
+        int idleSpins = 0;
+        long idleSince = System.nanoTime();
+        while (running) {
+            boolean consumed = false;
+            for (Shard<T> shard : shards) {
+                consumed |= drain(shard);
+            }
+            if (consumed) {
+                idleSpins = 0;
+                idleSince = System.nanoTime();
+                continue;
+            }
+            if (++idleSpins < SPINS_BEFORE_PARKING) {
+                Thread.yield();
+                continue;
+            }
+            long idleNanos = System.nanoTime() - idleSince;
+            if (idleNanos >= timeoutNanos) {
+                onTimeout();
+                idleSince = System.nanoTime();
+                continue;
+            }
+            parked = true;
+            if (!hasEvents()) {
+                LockSupport.parkNanos(this, timeoutNanos - idleNanos);
+            }
+            parked = false;
+        }
+        consumer = null;
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private Shard<T> shardOfCurrentThread() {
+        Shard<T> shard = threadShard.get();
+        if (shard == null) {
+            int index = nextShard.getAndIncrement();
+            if (index < shards.length - 1) {
+                shard = shards[index];
+                LOG.info("Ingest ring {} assigned to thread {}", index, Thread.currentThread().getName());
+            } else {
+                shard = shards[shards.length - 1];
+                nextShard.set(shards.length); // Avoid overflowing
+                LOG.info("Thread {} publishing to the shared ingest ring", Thread.currentThread().getName());
+            }
+            threadShard.set(shard);
+        }
+        return shard;
+    }
+
+    // Handles up to MAX_EVENTS_PER_TURN events published in the ring of the shard. Returns whether there were any
+    private boolean drain(Shard<T> shard) {
+        long first = shard.consumed.get() + 1;
+        long last = first - 1;
+        while (last - first + 1 < MAX_EVENTS_PER_TURN && shard.ring.isPublished(last + 1)) {
+            last++;
+        }
+        if (last < first) {
+            return false;
+        }
+        for (long sequence = first; sequence <= last; sequence++) {
+            T event = shard.ring.get(sequence);
+            try {
+                handler.onEvent(event, sequence, sequence == last);
+            } catch (Throwable t) {
+                exceptionHandler.handleEventException(t, sequence, event);
+            }
+        }
+        shard.consumed.set(last); // Releases the slots to the producers
+        return true;
+    }
+
+    private boolean hasEvents() {
+        for (Shard<T> shard : shards) {
+            if (shard.ring.isPublished(shard.consumed.get() + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onTimeout() {
+        try {
+            timeoutHandler.onTimeout(-1L);
+        } catch (Throwable t) {
+            exceptionHandler.handleEventException(t, -1L, null);
+        }
+    }
+
+    private static final class Shard<T> {
+
+        private final RingBuffer<T> ring;
+        private final Sequence consumed = new Sequence();
+        private volatile long signalFence;
+
+        Shard(RingBuffer<T> ring) {
+            this.ring = ring;
+            ring.addGatingSequences(consumed);
+        }
+
+    }
+
+}
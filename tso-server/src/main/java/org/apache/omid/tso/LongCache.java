@@ -17,52 +17,210 @@
  */
 package org.apache.omid.tso;
 
-public class LongCache {
+import com.lmax.disruptor.util.Util;
+import sun.misc.Unsafe;
+
+import java.util.Arrays;
+
+/**
+ * Set-associative cache of long keys to long values. Each key is stored in one of the associativity slots following its
+ * bucket. When all of them are taken, the slot with the oldest (smallest) value is evicted.
+ *
+ * The bucket of a key is its hash modulo the size by default. Masked caches have a power of two size and take the
+ * bucket from the top bits of the key multiplied by the golden ratio instead, avoiding a division on every access and
+ * spreading sequential keys.
+ *
+ * The key/value pairs are stored in a long array in the heap by default. Subclasses can provide other storage by
+ * overriding {@link #read(int)} and {@link #write(int, long)}.
+ *
+ * {@link #peek(long)} can run concurrently with {@link #set(long, long)}. When a key takes the slot of another one,
+ * the value of the slot is cleared before the new key is stored, and the new value is stored after it, so a
+ * concurrent peek sees either the value of the key it looks for or 0, never the value of another key.
+ */
+public class LongCache implements ConflictMap {
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private static final Unsafe UNSAFE = Util.getUnsafe();
+    private static final int SLOTS_PER_CACHE_LINE = 64 / Long.BYTES;
 
     private final long[] cache;
     private final int size;
     private final int associativity;
+    private final int indexShift; // -1 when the bucket is computed with a modulo
+
+    // Keeps the reads done by prefetch() from being optimized away
+    private long prefetchSink;
 
     public LongCache(int size, int associativity) {
+        this(size, associativity, true, false);
+    }
+
+    protected LongCache(int size, int associativity, boolean onHeap, boolean masked) {
+        if (masked && Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("The size of a masked LongCache must be a power of two: " + size);
+        }
         this.size = size;
-        this.cache = new long[2 * (size + associativity)];
+        this.cache = onHeap ? new long[numSlots(size, associativity)] : null;
         this.associativity = associativity;
+        this.indexShift = masked ? 64 - Integer.numberOfTrailingZeros(size) : -1;
     }
 
+    /**
+     * Creates a masked cache on the heap. The size passed is rounded up to a power of two
+     */
+    public static LongCache masked(int size, int associativity) {
+        return new LongCache(maskedSize(size), associativity, true, true);
+    }
+
+    @Override
     public long set(long key, long value) {
         final int index = index(key);
         int oldestIndex = 0;
         long oldestValue = Long.MAX_VALUE;
+        boolean found = false;
         for (int i = 0; i < associativity; ++i) {
             int currIndex = 2 * (index + i);
-            if (cache[currIndex] == key) {
+            if (read(currIndex) == key) {
                 oldestValue = 0;
                 oldestIndex = currIndex;
+                found = true;
                 break;
             }
-            if (cache[currIndex + 1] <= oldestValue) {
-                oldestValue = cache[currIndex + 1];
+            if (read(currIndex + 1) <= oldestValue) {
+                oldestValue = read(currIndex + 1);
                 oldestIndex = currIndex;
             }
         }
-        cache[oldestIndex] = key;
-        cache[oldestIndex + 1] = value;
+        if (!found) {
+            // Keep peek() from pairing the new key with the evicted value or the evicted key with the new value
+            write(oldestIndex + 1, 0);
+            UNSAFE.storeFence();
+            write(oldestIndex, key);
+            UNSAFE.storeFence();
+        }
+        write(oldestIndex + 1, value);
         return oldestValue;
     }
 
+    @Override
     public long get(long key) {
         final int index = index(key);
         for (int i = 0; i < associativity; ++i) {
             int currIndex = 2 * (index + i);
-            if (cache[currIndex] == key) {
-                return cache[currIndex + 1];
+            if (read(currIndex) == key) {
+                return read(currIndex + 1);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long peek(long key) {
+        final int index = index(key);
+        for (int i = 0; i < associativity; ++i) {
+            int currIndex = 2 * (index + i);
+            if (read(currIndex) == key) {
+                UNSAFE.loadFence();
+                long value = read(currIndex + 1);
+                UNSAFE.loadFence();
+                // Discard the value if the slot was taken by another key meanwhile
+                return read(currIndex) == key ? value : 0;
             }
         }
         return 0;
     }
 
+    /**
+     * Touches every cache line of the associativity window of each key in ascending bucket order, as lookups of keys
+     * not in the cache go through the whole window. Sorting the buckets turns the random probes of a batch into a
+     * forward sweep over the cache that lets the CPU overlap the misses, and windows overlapping the ones before are
+     * only touched from where those ended. The bucket indexes replace the keys in the array passed
+     */
+    @Override
+    public void prefetch(long[] keys, int numKeys) {
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = index(keys[i]);
+        }
+        Arrays.sort(keys, 0, numKeys);
+        long sink = 0;
+        int touchedUpTo = 0; // First slot after the last window touched
+        for (int i = 0; i < numKeys; i++) {
+            int from = Math.max(2 * (int) keys[i], touchedUpTo);
+            int to = 2 * ((int) keys[i] + associativity);
+            if (from >= to) {
+                continue;
+            }
+            for (int slot = from; slot < to; slot += SLOTS_PER_CACHE_LINE) {
+                sink += read(slot);
+            }
+            sink += read(to - 1); // The window may end in a line not reached by the stride
+            touchedUpTo = to;
+        }
+        prefetchSink += sink;
+    }
+
     private int index(long hash) {
-        return (int) (Math.abs(hash) % size);
+        if (indexShift < 0) {
+            return (int) (Math.abs(hash) % size);
+        }
+        if (indexShift == 64) { // Single bucket. Java shifts longs by the distance modulo 64
+            return 0;
+        }
+        return (int) ((hash * GOLDEN_RATIO) >>> indexShift);
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of key/value pairs that can be stored, including the overflow slots of the last bucket
+     */
+    @Override
+    public int getNumEntries() {
+        return size + associativity;
+    }
+
+    @Override
+    public long getKeyAt(int entry) {
+        return read(2 * entry);
+    }
+
+    @Override
+    public long getValueAt(int entry) {
+        return read(2 * entry + 1);
+    }
+
+    /**
+     * Returns the smallest power of two greater than or equal to the size passed
+     */
+    static int maskedSize(int size) {
+        if (size <= 1) {
+            return 1;
+        }
+        if (size > 1 << 30) {
+            throw new IllegalArgumentException("Illegal size for a masked LongCache: " + size);
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Returns the number of longs required to store a cache of the given size and associativity
+     */
+    static int numSlots(int size, int associativity) {
+        return 2 * (size + associativity);
+    }
+
+    /**
+     * Plain read of a slot. The ordering required by {@link #peek(long)} is enforced by the callers with fences
+     */
+    protected long read(int slot) {
+        return cache[slot];
+    }
+
+    protected void write(int slot, long value) {
+        cache[slot] = value;
     }
 
 }
@@ -21,4 +21,6 @@ import java.util.concurrent.Future;
 
 public interface LowWatermarkWriter {
     Future<Void> persistLowWatermark(final long lowWatermark);
+
+    Future<Void> persistTableGroupLowWatermarks(final long[] lowWatermarks);
 }
@@ -76,4 +76,22 @@ public class LowWatermarkWriterImpl implements LowWatermarkWriter {
             }
         });
     }
+
+    @Override
+    public Future<Void> persistTableGroupLowWatermarks(final long[] lowWatermarks) {
+
+        return lowWatermarkWriterExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try {
+                    lwmWriteTimer.start();
+                    lowWatermarkWriter.updateTableGroupLowWatermarks(lowWatermarks);
+                    lowWatermarkWriter.flush();
+                } finally {
+                    lwmWriteTimer.stop();
+                }
+                return null;
+            }
+        });
+    }
 }
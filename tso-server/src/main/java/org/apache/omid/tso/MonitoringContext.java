@@ -20,9 +20,41 @@ package org.apache.omid.tso;
 
 public interface MonitoringContext {
 
-    void timerStart(String name);
+    /**
+     * The stages of a request that are timed, each published as a timer named tso.&lt;metric name&gt;. Using a fixed
+     * set of stages allows the contexts to keep their measurements in arrays indexed by the ordinal of the stage
+     */
+    enum Stage {
 
-    void timerStop(String name);
+        REQUEST_TIMESTAMP("request.processor.timestamp.latency"),
+        REQUEST_COMMIT("request.processor.commit.latency"),
+        REQUEST_FENCE("request.processor.fence.latency"),
+        PERSISTENCE_TIMESTAMP("persistence.processor.timestamp.latency"),
+        PERSISTENCE_COMMIT("persistence.processor.commit.latency"),
+        PERSISTENCE_ABORT("persistence.processor.abort.latency"),
+        PERSISTENCE_COMMIT_RETRY("persistence.processor.commit-retry.latency"),
+        PERSISTENCE_FENCE("persistence.processor.fence.latency"),
+        REPLY_TIMESTAMP("reply.processor.timestamp.latency"),
+        REPLY_COMMIT("reply.processor.commit.latency"),
+        REPLY_ABORT("reply.processor.abort.latency"),
+        REPLY_FENCE("reply.processor.fence.latency"),
+        RETRY_COMMIT_RETRY("retry.processor.commit-retry.latency");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+
+    }
+
+    void timerStart(Stage stage);
+
+    void timerStop(Stage stage);
 
     void publish();
 
@@ -17,57 +17,81 @@
  */
 package org.apache.omid.tso;
 
-import org.apache.phoenix.thirdparty.com.google.common.base.Stopwatch;
 import org.apache.phoenix.thirdparty.com.google.common.base.Throwables;
 import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.NotThreadSafe;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.apache.omid.metrics.MetricsUtils.name;
-import java.util.concurrent.TimeUnit;
 
+/**
+ * Times the stages of a request with System.nanoTime stamps kept in arrays indexed by stage, so measuring does not
+ * allocate. The context is handed between the request, persistence and reply processors through their rings, which
+ * order the accesses of the different threads, so the stamps need no synchronization.
+ */
 @NotThreadSafe
 public class MonitoringContextImpl implements MonitoringContext{
 
     private static final Logger LOG = LoggerFactory.getLogger(MonitoringContextImpl.class);
 
+    private static final Stage[] STAGES = Stage.values();
+
     private volatile boolean flag;
-    private Map<String, Long> elapsedTimeMsMap = new ConcurrentHashMap<>();
-    private Map<String, Stopwatch> timers = new ConcurrentHashMap<>();
-    private MetricsRegistry metrics;
+    private final long[] startTimes = new long[STAGES.length];
+    private final long[] elapsedTimes = new long[STAGES.length];
+    // Bit masks, indexed by the ordinal of the stage, of the timers started and of the measurements taken
+    private int started;
+    private int stopped;
+    private final Timer[] timers;
 
     public MonitoringContextImpl(MetricsRegistry metrics) {
-        this.metrics = metrics;
+        this(timersFor(metrics));
+    }
+
+    MonitoringContextImpl(Timer[] timers) {
+        this.timers = timers;
+    }
+
+    /**
+     * @return the timers where the measurements of each stage are published, indexed by the ordinal of the stage
+     */
+    static Timer[] timersFor(MetricsRegistry metrics) {
+        Timer[] timers = new Timer[STAGES.length];
+        for (Stage stage : STAGES) {
+            timers[stage.ordinal()] = metrics.timer(name("tso", stage.getMetricName()));
+        }
+        return timers;
     }
 
-    public void timerStart(String name) {
-        Stopwatch stopwatch = Stopwatch.createStarted();
-        timers.put(name, stopwatch);
+    public void timerStart(Stage stage) {
+        startTimes[stage.ordinal()] = System.nanoTime();
+        started |= 1 << stage.ordinal();
     }
 
-    public void timerStop(String name) {
+    public void timerStop(Stage stage) {
         if (flag) {
-            LOG.warn("timerStop({}) called after publish. Measurement was ignored. {}", name, Throwables.getStackTraceAsString(new Exception()));
+            LOG.warn("timerStop({}) called after publish. Measurement was ignored. {}", stage, Throwables.getStackTraceAsString(new Exception()));
             return;
         }
-        Stopwatch activeStopwatch = timers.get(name);
-        if (activeStopwatch == null) {
+        int bit = 1 << stage.ordinal();
+        if ((started & bit) == 0) {
             throw new IllegalStateException(
-                    String.format("There is no %s timer in the %s monitoring context.", name, this));
+                    String.format("There is no %s timer in the %s monitoring context.", stage.getMetricName(), this));
         }
-        activeStopwatch.stop();
-        elapsedTimeMsMap.put(name, activeStopwatch.elapsed(TimeUnit.NANOSECONDS));
-        timers.remove(name);
+        elapsedTimes[stage.ordinal()] = System.nanoTime() - startTimes[stage.ordinal()];
+        started &= ~bit;
+        stopped |= bit;
     }
 
     public void publish() {
         flag = true;
-        for (Map.Entry<String, Long> entry : elapsedTimeMsMap.entrySet()) {
-            metrics.timer(name("tso", entry.getKey())).update(entry.getValue());
+        for (Stage stage : STAGES) {
+            if ((stopped & (1 << stage.ordinal())) != 0) {
+                timers[stage.ordinal()].update(elapsedTimes[stage.ordinal()]);
+            }
         }
     }
 
@@ -19,13 +19,17 @@
 package org.apache.omid.tso;
 
 public class MonitoringContextNullImpl implements MonitoringContext {
+
+    // Stateless, so a single instance is shared by all the requests that are not monitored
+    static final MonitoringContextNullImpl INSTANCE = new MonitoringContextNullImpl();
+
     @Override
-    public void timerStart(String name) {
+    public void timerStart(Stage stage) {
 
     }
 
     @Override
-    public void timerStop(String name) {
+    public void timerStop(Stage stage) {
 
     }
 
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link LongCache} storing its key/value pairs out of the heap, either in direct memory or in a memory-mapped file.
+ * This allows to have conflict maps with tens of millions of buckets without paying for them in GC pauses and JVM
+ * startup time.
+ *
+ * As a single buffer can not hold more than 2GB, the storage is split in segments of 2^SEGMENT_SHIFT longs.
+ *
+ * Direct memory is limited by the -XX:MaxDirectMemorySize JVM option, which defaults to the max heap size.
+ * The contents of the memory-mapped file are discarded when the cache is created, as they are meaningless after
+ * a TSO restart.
+ */
+public class OffHeapLongCache extends LongCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapLongCache.class);
+
+    private static final int SEGMENT_SHIFT = 27; // 1GB segments
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final ByteBuffer[] segments;
+
+    private OffHeapLongCache(int size, int associativity, boolean masked, ByteBuffer[] segments) {
+        super(size, associativity, false, masked);
+        this.segments = segments;
+    }
+
+    /**
+     * Creates a cache backed by direct memory
+     */
+    public static OffHeapLongCache direct(int size, int associativity) {
+        return direct(size, associativity, false);
+    }
+
+    /**
+     * Creates a cache backed by direct memory. The size of masked caches is rounded up to a power of two
+     */
+    public static OffHeapLongCache direct(int size, int associativity, boolean masked) {
+
+        size = masked ? maskedSize(size) : size;
+        long numSlots = checkNumSlots(size, associativity);
+        ByteBuffer[] segments = new ByteBuffer[numSegments(numSlots)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentBytes(numSlots, i)).order(ByteOrder.nativeOrder());
+        }
+        LOG.info("Off-heap LongCache created in direct memory ({} bytes)", numSlots * Long.BYTES);
+        return new OffHeapLongCache(size, associativity, masked, segments);
+
+    }
+
+    /**
+     * Creates a cache backed by a file mapped in memory. The file is created if it does not exist and truncated if it does
+     */
+    public static OffHeapLongCache mapped(int size, int associativity, File file) throws IOException {
+        return mapped(size, associativity, false, file);
+    }
+
+    /**
+     * Creates a cache backed by a file mapped in memory. The size of masked caches is rounded up to a power of two
+     */
+    public static OffHeapLongCache mapped(int size, int associativity, boolean masked, File file) throws IOException {
+
+        size = masked ? maskedSize(size) : size;
+        long numSlots = checkNumSlots(size, associativity);
+        ByteBuffer[] segments = new ByteBuffer[numSegments(numSlots)];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0); // Discard previous contents. New file regions are read as zeros
+            raf.setLength(numSlots * Long.BYTES);
+            for (int i = 0; i < segments.length; i++) {
+                long position = ((long) i << SEGMENT_SHIFT) * Long.BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, segmentBytes(numSlots, i))
+                        .order(ByteOrder.nativeOrder());
+            }
+        }
+        LOG.info("Off-heap LongCache created in memory-mapped file {} ({} bytes)", file, numSlots * Long.BYTES);
+        return new OffHeapLongCache(size, associativity, masked, segments);
+
+    }
+
+    @Override
+    protected long read(int slot) {
+        return segments[slot >>> SEGMENT_SHIFT].getLong((slot & SEGMENT_MASK) << 3);
+    }
+
+    @Override
+    protected void write(int slot, long value) {
+        segments[slot >>> SEGMENT_SHIFT].putLong((slot & SEGMENT_MASK) << 3, value);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private static long checkNumSlots(int size, int associativity) {
+        long numSlots = 2L * ((long) size + associativity);
+        Preconditions.checkArgument(size > 0 && numSlots <= Integer.MAX_VALUE,
+                                    "Illegal size for an off-heap LongCache: %s", size);
+        return numSlots;
+    }
+
+    private static int numSegments(long numSlots) {
+        return (int) ((numSlots + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+
+    private static int segmentBytes(long numSlots, int segment) {
+        long segmentSlots = Math.min(numSlots - ((long) segment << SEGMENT_SHIFT), 1L << SEGMENT_SHIFT);
+        return (int) (segmentSlots * Long.BYTES);
+    }
+
+}
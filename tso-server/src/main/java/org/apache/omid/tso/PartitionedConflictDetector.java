@@ -0,0 +1,398 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.lmax.disruptor.dsl.ProducerType.SINGLE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.omid.tso.PartitionedConflictDetector.PartitionEvent.EVENT_FACTORY;
+
+/**
+ * Splits the cell id space among a number of partitions, each one owning its own slice of the conflict map and served
+ * by a dedicated conflict detection thread. The cells of a commit are checked in parallel in all the partitions they
+ * hash to, and the verdict is the combination of the verdicts of all of them, so it is the same for all the partitions
+ * involved. The caller is still in charge of assigning commit timestamps, so they keep their total order.
+ *
+ * Each partition processes its requests in arrival order, so a check always sees the updates of all the commits
+ * decided before it. This allows to apply the updates of a committed transaction asynchronously.
+ *
+ * Each partition also tracks the highest commit timestamp evicted from its slice, which is used to abort transactions
+ * that started before it. The highest of these values reported so far is exposed as the low watermark.
+ *
+ * The caller waits for the verdicts of each commit before checking the next one, so every commit pays a round trip to
+ * the partition threads. This only pays off when write sets are large enough for the parallel checks to outweigh it.
+ * While waiting, the caller yields with the HIGH_THROUGHPUT wait strategy and parks with the LOW_CPU one.
+ *
+ * WARNING: Only one thread (the request processor thread) can call the methods of this class.
+ */
+class PartitionedConflictDetector implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedConflictDetector.class);
+
+    private static final int PARTITION_RING_SIZE = 1 << 10;
+
+    private final ExecutorService partitionsExec;
+    private final Partition[] partitions;
+
+    // Scratch state about the partitions involved in the last check
+    private final int[] cellsPerPartition;
+    private final int[] involvedPartitions;
+    private int numInvolvedPartitions = 0;
+    private final PendingChecks pendingChecks;
+
+    private long lowWatermark = 0L;
+
+    PartitionedConflictDetector(TSOServerConfig config, Panicker panicker) throws IOException {
+        this(config, panicker, waitStrategyFor(config));
+    }
+
+    PartitionedConflictDetector(TSOServerConfig config, Panicker panicker, WaitStrategy strategy) throws IOException {
+
+        int numPartitions = config.getConflictDetectionPartitions();
+        this.pendingChecks = new PendingChecks(config.getWaitStrategyEnum() == TSOServerConfig.WAIT_STRATEGY.LOW_CPU);
+
+        Preconditions.checkArgument(numPartitions > 1, "# of conflict detection partitions [%s] must be > 1", numPartitions);
+
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setNameFormat("conflict-detector-%d");
+        this.partitionsExec = Executors.newFixedThreadPool(numPartitions, threadFactory.build());
+
+        int partitionMapSize = Math.max(1, config.getConflictMapSize() / numPartitions);
+        this.partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            CommitHashMap hashmap = CommitHashMap.create(config, partitionMapSize, "-" + i);
+            partitions[i] = new Partition(hashmap, pendingChecks, partitionsExec, panicker, strategy);
+        }
+        this.cellsPerPartition = new int[numPartitions];
+        this.involvedPartitions = new int[numPartitions];
+
+        LOG.info("Conflict detection split in {} partitions of {} buckets", numPartitions, partitionMapSize);
+
+    }
+
+    private static WaitStrategy waitStrategyFor(TSOServerConfig config) {
+        return config.getWaitStrategyEnum() == TSOServerConfig.WAIT_STRATEGY.LOW_CPU ? new BlockingWaitStrategy()
+                                                                                     : new YieldingWaitStrategy();
+    }
+
+    /**
+     * Checks in parallel, in all the partitions the write set hashes to, whether a transaction has a write-write
+     * conflict with a transaction committed after it started. When there are no conflicts, the caller must call
+     * {@link #commit(long)} before checking the next transaction if the transaction is committed.
+     */
+    boolean hasConflicts(long startTimestamp, long[] writeSet, int numCells) {
+
+        Arrays.fill(cellsPerPartition, 0);
+        for (int i = 0; i < numCells; i++) {
+            cellsPerPartition[partitionOf(writeSet[i])]++;
+        }
+        numInvolvedPartitions = 0;
+        for (int p = 0; p < partitions.length; p++) {
+            if (cellsPerPartition[p] > 0) {
+                involvedPartitions[numInvolvedPartitions++] = p;
+            }
+        }
+        if (numInvolvedPartitions == 0) {
+            return false;
+        }
+
+        pendingChecks.set(numInvolvedPartitions);
+        for (int i = 0; i < numInvolvedPartitions; i++) {
+            int p = involvedPartitions[i];
+            partitions[p].claimCheck(startTimestamp, cellsPerPartition[p]);
+        }
+        for (int i = 0; i < numCells; i++) {
+            partitions[partitionOf(writeSet[i])].addCellToCheck(writeSet[i]);
+        }
+        for (int i = 0; i < numInvolvedPartitions; i++) {
+            partitions[involvedPartitions[i]].publish();
+        }
+
+        pendingChecks.await();
+
+        boolean conflict = false;
+        for (int i = 0; i < numInvolvedPartitions; i++) {
+            Partition partition = partitions[involvedPartitions[i]];
+            conflict |= partition.conflict;
+            lowWatermark = Math.max(lowWatermark, partition.reportedLowWatermark);
+        }
+        return conflict;
+
+    }
+
+    /**
+     * Asynchronously adds the cells of the last transaction checked to the conflict map with the commit timestamp passed
+     */
+    void commit(long commitTimestamp) {
+
+        for (int i = 0; i < numInvolvedPartitions; i++) {
+            partitions[involvedPartitions[i]].update(commitTimestamp);
+        }
+        numInvolvedPartitions = 0;
+
+    }
+
+    /**
+     * Returns the highest commit timestamp evicted from the partitions that has been reported so far
+     */
+    long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    int getNumPartitions() {
+        return partitions.length;
+    }
+
+    // The bits are mixed to decorrelate the partition from the bucket selected in the partition conflict map
+    int partitionOf(long cellId) {
+        return (int) Long.remainderUnsigned(cellId * 0x9E3779B97F4A7C15L, partitions.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        LOG.info("Terminating Conflict Detection partitions...");
+        for (Partition partition : partitions) {
+            partition.disruptor.halt();
+            partition.disruptor.shutdown();
+        }
+        partitionsExec.shutdownNow();
+        try {
+            partitionsExec.awaitTermination(3, SECONDS);
+            LOG.info("\tConflict Detection partitions executor shutdown");
+        } catch (InterruptedException e) {
+            LOG.error("Interrupted whilst finishing Conflict Detection partitions executor");
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Conflict Detection partitions terminated");
+
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper classes
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private static final class Partition implements EventHandler<PartitionEvent> {
+
+        private final Disruptor<PartitionEvent> disruptor;
+        private final RingBuffer<PartitionEvent> ring;
+        private final PendingChecks pendingChecks;
+
+        // Accessed only by the partition thread
+        private final CommitHashMap hashmap;
+        private long[] lastCheckedCells = new long[PartitionEvent.INITIAL_CAPACITY];
+        private int numLastCheckedCells = 0;
+        private long lowWatermark = 0L;
+
+        // Written by the partition thread before decreasing the pending checks, read by the request processor thread
+        private boolean conflict;
+        private long reportedLowWatermark;
+
+        // Accessed only by the request processor thread
+        private long claimedSequence;
+        private PartitionEvent claimedEvent;
+
+        Partition(CommitHashMap hashmap,
+                  PendingChecks pendingChecks,
+                  ExecutorService executor,
+                  Panicker panicker,
+                  WaitStrategy strategy) {
+            this.hashmap = hashmap;
+            this.pendingChecks = pendingChecks;
+            this.disruptor = new Disruptor<>(EVENT_FACTORY, PARTITION_RING_SIZE, executor, SINGLE, strategy);
+            disruptor.handleExceptionsWith(new FatalExceptionHandler(panicker)); // This must be before handleEventsWith()
+            disruptor.handleEventsWith(this);
+            this.ring = disruptor.start();
+        }
+
+        void claimCheck(long startTimestamp, int numCells) {
+            claimedSequence = ring.next();
+            claimedEvent = ring.get(claimedSequence);
+            PartitionEvent.makeCheck(claimedEvent, startTimestamp, numCells);
+        }
+
+        void addCellToCheck(long cellId) {
+            claimedEvent.addCell(cellId);
+        }
+
+        void publish() {
+            ring.publish(claimedSequence);
+        }
+
+        void update(long commitTimestamp) {
+            long seq = ring.next();
+            PartitionEvent.makeUpdate(ring.get(seq), commitTimestamp);
+            ring.publish(seq);
+        }
+
+        @Override
+        public void onEvent(PartitionEvent event, long sequence, boolean endOfBatch) {
+
+            switch (event.type) {
+                case CHECK:
+                    handleCheck(event);
+                    break;
+                case UPDATE:
+                    handleUpdate(event);
+                    break;
+                default:
+                    throw new IllegalStateException("Event not allowed in Conflict Detection partition: " + event.type);
+            }
+
+        }
+
+        private void handleCheck(PartitionEvent event) {
+
+            if (lastCheckedCells.length < event.numCells) {
+                lastCheckedCells = new long[event.cells.length];
+            }
+            System.arraycopy(event.cells, 0, lastCheckedCells, 0, event.numCells);
+            numLastCheckedCells = event.numCells;
+
+            // Cells evicted from this partition may have not been reported yet, so the partition low watermark
+            // needs to be checked here too
+            boolean hasConflict = event.timestamp <= lowWatermark;
+            for (int i = 0; i < numLastCheckedCells && !hasConflict; i++) {
+                long value = hashmap.getLatestWriteForCell(lastCheckedCells[i]);
+                hasConflict = value != 0 && value >= event.timestamp;
+            }
+            conflict = hasConflict;
+            reportedLowWatermark = lowWatermark;
+            pendingChecks.checkDone();
+
+        }
+
+        private void handleUpdate(PartitionEvent event) {
+
+            for (int i = 0; i < numLastCheckedCells; i++) {
+                long removed = hashmap.putLatestWriteForCell(lastCheckedCells[i], event.timestamp);
+                lowWatermark = Math.max(removed, lowWatermark);
+            }
+            numLastCheckedCells = 0;
+
+        }
+
+    }
+
+    /**
+     * Counts the partitions that have not given their verdict on the last check yet, waking up the request processor
+     * thread when they all have, if it parked waiting for them
+     */
+    private static final class PendingChecks {
+
+        private static final int SPINS_BEFORE_PARKING = 100;
+
+        private final boolean park;
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private volatile Thread waiter;
+
+        PendingChecks(boolean park) {
+            this.park = park;
+        }
+
+        void set(int numChecks) {
+            pending.set(numChecks);
+        }
+
+        // Called by the partition threads
+        void checkDone() {
+            if (pending.decrementAndGet() == 0) {
+                Thread thread = waiter;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+        }
+
+        void await() {
+            for (int spins = 0; pending.get() != 0; spins++) {
+                if (!park || spins < SPINS_BEFORE_PARKING) {
+                    Thread.yield();
+                    continue;
+                }
+                // The write of waiter goes before the read of pending, so the last partition can not miss it
+                waiter = Thread.currentThread();
+                while (pending.get() != 0) {
+                    LockSupport.park(this);
+                }
+                waiter = null;
+            }
+        }
+
+    }
+
+    final static class PartitionEvent {
+
+        enum Type {
+            CHECK, UPDATE
+        }
+
+        static final int INITIAL_CAPACITY = 40;
+
+        private Type type = null;
+        private long timestamp = 0L; // Start timestamp for checks and commit timestamp for updates
+        private long[] cells = new long[INITIAL_CAPACITY];
+        private int numCells = 0;
+
+        static void makeCheck(PartitionEvent e, long startTimestamp, int expectedCells) {
+            e.type = Type.CHECK;
+            e.timestamp = startTimestamp;
+            e.numCells = 0;
+            if (e.cells.length < expectedCells) {
+                e.cells = new long[Math.max(expectedCells, 2 * e.cells.length)];
+            }
+        }
+
+        static void makeUpdate(PartitionEvent e, long commitTimestamp) {
+            e.type = Type.UPDATE;
+            e.timestamp = commitTimestamp;
+            e.numCells = 0;
+        }
+
+        void addCell(long cellId) {
+            cells[numCells++] = cellId;
+        }
+
+        final static EventFactory<PartitionEvent> EVENT_FACTORY = new EventFactory<PartitionEvent>() {
+            @Override
+            public PartitionEvent newInstance() {
+                return new PartitionEvent();
+            }
+        };
+
+    }
+
+}
@@ -34,6 +34,7 @@ public final class PersistEvent {
 
     private long startTimestamp = 0L;
     private long commitTimestamp = 0L;
+    private int numTimestamps = 1;
     private Optional<Long> newLowWatermark;
 
     void makePersistCommit(long startTimestamp, long commitTimestamp, Optional<Long> newLowWatermark, Channel c, MonitoringContext monCtx) {
@@ -66,8 +67,15 @@ public final class PersistEvent {
 
     void makePersistTimestamp(long startTimestamp, Channel c, MonitoringContext monCtx) {
 
+        makePersistTimestampRange(startTimestamp, 1, c, monCtx);
+
+    }
+
+    void makePersistTimestampRange(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) {
+
         this.type = Type.TIMESTAMP;
-        this.startTimestamp = startTimestamp;
+        this.startTimestamp = firstTimestamp;
+        this.numTimestamps = numTimestamps;
         this.channel = c;
         this.monCtx = monCtx;
 
@@ -113,6 +121,12 @@ public final class PersistEvent {
 
     }
 
+    int getNumTimestamps() {
+
+        return numTimestamps;
+
+    }
+
     public Optional<Long> getNewLowWatermark() {
         return newLowWatermark;
     }
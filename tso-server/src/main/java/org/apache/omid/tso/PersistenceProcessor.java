@@ -33,6 +33,9 @@ interface PersistenceProcessor extends Closeable {
 
     void addTimestampToBatch(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
 
+    void addTimestampRangeToBatch(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx)
+            throws Exception;
+
     void addFenceToBatch(long tableID, long fenceTimestamp, Channel c, MonitoringContext monCtx) throws Exception;
 
     void triggerCurrentBatchFlush() throws Exception;
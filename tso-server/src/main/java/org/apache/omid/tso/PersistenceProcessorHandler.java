@@ -19,6 +19,9 @@ package org.apache.omid.tso;
 
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.thirdparty.com.google.common.base.MoreObjects;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.Futures;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ListenableFuture;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lmax.disruptor.WorkHandler;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.metrics.Histogram;
@@ -29,11 +32,25 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static org.apache.omid.tso.PersistEvent.Type.COMMIT_RETRY;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_COMMIT_RETRY;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_FENCE;
+import static org.apache.omid.tso.MonitoringContext.Stage.PERSISTENCE_TIMESTAMP;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_FENCE;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_TIMESTAMP;
 
 
 public class PersistenceProcessorHandler implements WorkHandler<PersistenceProcessorImpl.PersistBatchEvent> {
@@ -52,12 +69,31 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
     private final RetryProcessor retryProcessor;
     private final CommitTable.Writer writer;
     final Panicker panicker;
+    private final AdaptiveBatchingController batchingController;
+
+    // Pipelined flushes. When more than one batch can be in flight, the commit table writes are asynchronous and the
+    // batches are completed in order by a single thread once their writes are persisted
+    private final int maxInFlightBatches;
+    private final Semaphore inFlightBatchPermits;
+    private final Queue<InFlightBatch> inFlightBatches = new ConcurrentLinkedQueue<>();
+    private final ExecutorService flushCompletionExecutor;
 
     // Metrics in this component
     private final Timer flushTimer;
     private final Histogram batchSizeHistogram;
     private final Histogram flushedCommitEventsHistogram;
 
+    PersistenceProcessorHandler(MetricsRegistry metrics,
+                                String tsoHostAndPort,
+                                LeaseManagement leaseManager,
+                                CommitTable commitTable,
+                                ReplyProcessor replyProcessor,
+                                RetryProcessor retryProcessor,
+                                Panicker panicker)
+    throws InterruptedException, ExecutionException, IOException {
+        this(metrics, tsoHostAndPort, leaseManager, commitTable, replyProcessor, retryProcessor, panicker, null, 1);
+    }
+
     @Inject
     PersistenceProcessorHandler(MetricsRegistry metrics,
                                 String tsoHostAndPort, // TODO This should not be passed here. Should be part of panicker
@@ -65,7 +101,23 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
                                 CommitTable commitTable,
                                 ReplyProcessor replyProcessor,
                                 RetryProcessor retryProcessor,
-                                Panicker panicker)
+                                Panicker panicker,
+                                AdaptiveBatchingController batchingController,
+                                TSOServerConfig config)
+    throws InterruptedException, ExecutionException, IOException {
+        this(metrics, tsoHostAndPort, leaseManager, commitTable, replyProcessor, retryProcessor, panicker,
+             batchingController, config.getMaxInFlightBatchesPerCTWriter());
+    }
+
+    PersistenceProcessorHandler(MetricsRegistry metrics,
+                                String tsoHostAndPort,
+                                LeaseManagement leaseManager,
+                                CommitTable commitTable,
+                                ReplyProcessor replyProcessor,
+                                RetryProcessor retryProcessor,
+                                Panicker panicker,
+                                AdaptiveBatchingController batchingController,
+                                int maxInFlightBatches)
     throws InterruptedException, ExecutionException, IOException {
 
         this.id = String.valueOf(consecutiveSequenceCreator.getAndIncrement());
@@ -75,6 +127,16 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
         this.replyProcessor = replyProcessor;
         this.retryProcessor = retryProcessor;
         this.panicker = panicker;
+        this.batchingController = batchingController;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.inFlightBatchPermits = new Semaphore(maxInFlightBatches);
+        if (maxInFlightBatches > 1) {
+            ThreadFactoryBuilder threadFactory =
+                    new ThreadFactoryBuilder().setNameFormat("persist-" + id + "-completion").setDaemon(true);
+            this.flushCompletionExecutor = Executors.newSingleThreadExecutor(threadFactory.build());
+        } else {
+            this.flushCompletionExecutor = null;
+        }
 
         // Metrics setup
         String flushTimerName = name("tso", "persistence-processor-handler", id, "flush", "latency");
@@ -101,17 +163,17 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
             PersistEvent event = batch.get(i);
             switch (event.getType()) {
                 case TIMESTAMP:
-                    event.getMonCtx().timerStop("persistence.processor.timestamp.latency");
+                    event.getMonCtx().timerStop(PERSISTENCE_TIMESTAMP);
                     break;
                 case COMMIT:
                     writer.addCommittedTransaction(event.getStartTimestamp(), event.getCommitTimestamp());
                     commitEventsToFlush++;
                     break;
                 case COMMIT_RETRY:
-                    event.getMonCtx().timerStop("persistence.processor.commit-retry.latency");
+                    event.getMonCtx().timerStop(PERSISTENCE_COMMIT_RETRY);
                     break;
                 case ABORT:
-                    event.getMonCtx().timerStop("persistence.processor.abort.latency");
+                    event.getMonCtx().timerStop(PERSISTENCE_ABORT);
                     break;
                 case FENCE:
                     // Persist the fence by using the fence identifier as both the start and commit timestamp.
@@ -123,34 +185,93 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
             }
         }
 
+        if (maxInFlightBatches > 1) {
+            flushAsync(batchEvent.getBatchSequence(), batch, commitEventsToFlush);
+            return;
+        }
+
         // Flush and send the responses back to the client. WARNING: Before sending the responses, first we need
         // to filter commit retries in the batch to disambiguate them.
         flush(commitEventsToFlush);
+        batchFlushed(batchEvent.getBatchSequence(), batch, numOfBatchedEvents);
+
+    }
+
+    private void batchFlushed(long batchSequence, Batch batch, int numOfBatchedEvents) throws Exception {
+
+        if (batchingController != null) {
+            batchingController.batchFlushed(numOfBatchedEvents, System.nanoTime() - batch.getFirstEventTime());
+        }
         filterAndDissambiguateClientRetries(batch);
         for (int i=0; i < batch.getNumEvents(); i++) { // Just for statistics
             PersistEvent event = batch.get(i);
             switch (event.getType()) {
                 case TIMESTAMP:
-                    event.getMonCtx().timerStart("reply.processor.timestamp.latency");
+                    event.getMonCtx().timerStart(REPLY_TIMESTAMP);
                     break;
                 case COMMIT:
-                    event.getMonCtx().timerStop("persistence.processor.commit.latency");
-                    event.getMonCtx().timerStart("reply.processor.commit.latency");
+                    event.getMonCtx().timerStop(PERSISTENCE_COMMIT);
+                    event.getMonCtx().timerStart(REPLY_COMMIT);
                     break;
                 case COMMIT_RETRY:
                     throw new IllegalStateException("COMMIT_RETRY events must be filtered before this step: " + event);
                 case ABORT:
-                    event.getMonCtx().timerStart("reply.processor.abort.latency");
+                    event.getMonCtx().timerStart(REPLY_ABORT);
                     break;
                 case FENCE:
-                    event.getMonCtx().timerStop("persistence.processor.fence.latency");
-                    event.getMonCtx().timerStart("reply.processor.fence.latency");
+                    event.getMonCtx().timerStop(PERSISTENCE_FENCE);
+                    event.getMonCtx().timerStart(REPLY_FENCE);
                     break;
                 default:
                     throw new IllegalStateException("Event not allowed in Persistent Processor Handler: " + event);
             }
         }
-        replyProcessor.manageResponsesBatch(batchEvent.getBatchSequence(), batch);
+        replyProcessor.manageResponsesBatch(batchSequence, batch);
+
+    }
+
+    /**
+     * Starts the flush of a batch without waiting for it to be persisted, blocking only when this handler already
+     * has the maximum number of batches in flight. The batches are completed in the order they were flushed, so a
+     * batch is never sent to the reply processor before the previous ones of this handler are persisted.
+     */
+    private void flushAsync(long batchSequence, Batch batch, int commitEventsToFlush) throws InterruptedException {
+
+        inFlightBatchPermits.acquire();
+        commitSuicideIfNotMaster();
+        final InFlightBatch inFlightBatch = new InFlightBatch(batchSequence, batch, commitEventsToFlush);
+        inFlightBatches.add(inFlightBatch);
+        inFlightBatch.future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    completeInFlightBatches();
+                } catch (Throwable t) {
+                    panicker.panic("Error completing commit batch", t);
+                }
+            }
+        }, flushCompletionExecutor);
+
+    }
+
+    // Only called from the flush completion thread
+    private void completeInFlightBatches() throws Exception {
+
+        InFlightBatch inFlightBatch;
+        while ((inFlightBatch = inFlightBatches.peek()) != null && inFlightBatch.future.isDone()) {
+            inFlightBatches.remove();
+            try {
+                Futures.getDone(inFlightBatch.future);
+            } catch (ExecutionException e) {
+                panicker.panic("Error persisting commit batch", e.getCause());
+                return;
+            }
+            flushTimer.update(System.nanoTime() - inFlightBatch.startFlushTimeInNs);
+            flushedCommitEventsHistogram.update(inFlightBatch.commitEventsToFlush);
+            commitSuicideIfNotMaster();
+            batchFlushed(inFlightBatch.batchSequence, inFlightBatch.batch, inFlightBatch.batch.getNumEvents());
+            inFlightBatchPermits.release();
+        }
 
     }
 
@@ -199,6 +320,24 @@ public class PersistenceProcessorHandler implements WorkHandler<PersistenceProce
 
     }
 
+    private final class InFlightBatch {
+
+        final long batchSequence;
+        final Batch batch;
+        final int commitEventsToFlush;
+        final long startFlushTimeInNs;
+        final ListenableFuture<Void> future;
+
+        InFlightBatch(long batchSequence, Batch batch, int commitEventsToFlush) {
+            this.batchSequence = batchSequence;
+            this.batch = batch;
+            this.commitEventsToFlush = commitEventsToFlush;
+            this.startFlushTimeInNs = System.nanoTime();
+            this.future = commitEventsToFlush > 0 ? writer.flushAsync() : Futures.<Void>immediateFuture(null);
+        }
+
+    }
+
     private void swapBatchElements(Batch batch, int firstIdx, int lastIdx) {
         PersistEvent tmpEvent = batch.get(firstIdx);
         PersistEvent lastEventInBatch = batch.get(lastIdx);
@@ -41,6 +41,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static com.lmax.disruptor.dsl.ProducerType.SINGLE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.omid.tso.PersistenceProcessorImpl.PersistBatchEvent.EVENT_FACTORY;
 import static org.apache.omid.tso.PersistenceProcessorImpl.PersistBatchEvent.makePersistBatch;
@@ -62,6 +63,22 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     volatile private long batchSequence;
     private MetricsRegistry metrics;
 
+    // Age after which the current batch is flushed with the next event added, even if it is not full. 0 to disable
+    private final long batchMaxAgeInNs;
+    // Sets the number of events after which the current batch is flushed when there are idle writers. May be null
+    private final AdaptiveBatchingController batchingController;
+
+    PersistenceProcessorImpl(TSOServerConfig config,
+                             WaitStrategy strategy,
+                             CommitTable commitTable,
+                             ObjectPool<Batch> batchPool,
+                             Panicker panicker,
+                             PersistenceProcessorHandler[] handlers,
+                             MetricsRegistry metrics)
+            throws Exception {
+        this(config, strategy, commitTable, batchPool, panicker, handlers, metrics, null);
+    }
+
     @Inject
     PersistenceProcessorImpl(TSOServerConfig config,
                              @Named("PersistenceStrategy") WaitStrategy strategy,
@@ -69,7 +86,8 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
                              ObjectPool<Batch> batchPool,
                              Panicker panicker,
                              PersistenceProcessorHandler[] handlers,
-                             MetricsRegistry metrics)
+                             MetricsRegistry metrics,
+                             AdaptiveBatchingController batchingController)
             throws Exception {
 
         // ------------------------------------------------------------------------------------------------------------
@@ -89,6 +107,8 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
         // ------------------------------------------------------------------------------------------------------------
 
         this.metrics = metrics;
+        this.batchMaxAgeInNs = MILLISECONDS.toNanos(config.getBatchMaxAgeInMs());
+        this.batchingController = batchingController;
         this.batchSequence = 0L;
         this.batchPool = batchPool;
         this.currentBatch = batchPool.borrowObject();
@@ -106,6 +126,9 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
         PersistBatchEvent e = persistRing.get(seq);
         makePersistBatch(e, batchSequence++, currentBatch);
         persistRing.publish(seq);
+        if (batchingController != null) {
+            batchingController.batchSent();
+        }
         currentBatch = batchPool.borrowObject();
 
     }
@@ -116,18 +139,14 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
             throws Exception {
 
         currentBatch.addCommit(startTimestamp, commitTimestamp, c, monCtx, newLowWatermark);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfFullOrExpired();
 
     }
 
     @Override
     public void addCommitRetryToBatch(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
         currentBatch.addCommitRetry(startTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfFullOrExpired();
     }
 
     @Override
@@ -135,9 +154,7 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
             throws Exception {
 
         currentBatch.addAbort(startTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfFullOrExpired();
 
     }
 
@@ -145,9 +162,16 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     public void addTimestampToBatch(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
 
         currentBatch.addTimestamp(startTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
-            triggerCurrentBatchFlush();
-        }
+        flushCurrentBatchIfFullOrExpired();
+
+    }
+
+    @Override
+    public void addTimestampRangeToBatch(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx)
+            throws Exception {
+
+        currentBatch.addTimestampRange(firstTimestamp, numTimestamps, c, monCtx);
+        flushCurrentBatchIfFullOrExpired();
 
     }
 
@@ -155,10 +179,18 @@ class PersistenceProcessorImpl implements PersistenceProcessor {
     public void addFenceToBatch(long tableID, long fenceTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
 
         currentBatch.addFence(tableID, fenceTimestamp, c, monCtx);
-        if (currentBatch.isFull()) {
+        flushCurrentBatchIfFullOrExpired();
+
+    }
+
+    private void flushCurrentBatchIfFullOrExpired() throws Exception {
+        if (currentBatch.isFull()
+                || (batchMaxAgeInNs > 0 && System.nanoTime() - currentBatch.getFirstEventTime() >= batchMaxAgeInNs)
+                || (batchingController != null
+                    && currentBatch.getNumEvents() >= batchingController.getBatchSize()
+                    && batchingController.hasIdleWriter())) {
             triggerCurrentBatchFlush();
         }
-
     }
 
     @Override
@@ -44,6 +44,12 @@ public class PersitenceProcessorNullImpl implements PersistenceProcessor {
         System.out.println("a");
     }
 
+    @Override
+    public void addTimestampRangeToBatch(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx)
+            throws Exception {
+
+    }
+
     @Override
     public void addFenceToBatch(long tableID, long fenceTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
 
@@ -48,6 +48,17 @@ interface ReplyProcessor extends Closeable {
      */
     void sendCommitResponse(long startTimestamp, long commitTimestamp, Channel channel, MonitoringContext monCtx, Optional<Long> newLowWatermark);
 
+    /**
+     * Stages the low watermarks of the table groups that result from committing a tx. They are persisted when the
+     * commit response of that tx is sent, as by then all the commits that came before are in the commit table.
+     *
+     * @param commitTimestamp
+     *            the commit timestamp of the tx that raised the low watermarks
+     * @param lowWatermarks
+     *            the low watermark of each table group
+     */
+    void stageTableGroupLowWatermarks(long commitTimestamp, long[] lowWatermarks);
+
     /**
      * Allows to send an abort response back to the client.
      *
@@ -69,6 +80,18 @@ interface ReplyProcessor extends Closeable {
 
     void sendTimestampResponse(long startTimestamp, Channel channel, MonitoringContext monCtx);
 
+    /**
+     * Allow to send several consecutive start timestamps back to the client in a single response.
+     *
+     * @param firstTimestamp
+     *            the first of the start timestamps to return
+     * @param numTimestamps
+     *            the number of start timestamps, spaced by the checkpoints reserved per transaction
+     * @param channel
+     *            the channel used to send the response back to the client
+     */
+    void sendTimestampRangeResponse(long firstTimestamp, int numTimestamps, Channel channel, MonitoringContext monCtx);
+
     /**
      * Allow to send a fence response back to the client.
      *
@@ -82,5 +105,13 @@ interface ReplyProcessor extends Closeable {
 
     void sendFenceResponse(long tableID, long fenceTimestamp, Channel channel, MonitoringContext monCtx);
 
+    /**
+     * Returns the commit timestamp up to which all the commits are known to be in the commit table, because the
+     * batches that hold them have been handled in order.
+     *
+     * @return the highest commit timestamp persisted in order, or -1 when there is none yet
+     */
+    long getPersistedCommitTimestamp();
+
 }
 
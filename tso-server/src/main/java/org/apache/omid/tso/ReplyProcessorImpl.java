@@ -19,6 +19,7 @@ package org.apache.omid.tso;
 
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
+import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -31,21 +32,31 @@ import com.lmax.disruptor.dsl.Disruptor;
 import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.metrics.Meter;
 import org.apache.omid.metrics.MetricsRegistry;
-import org.apache.omid.proto.TSOProto;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.lmax.disruptor.dsl.ProducerType.MULTI;
+import static com.lmax.disruptor.dsl.ProducerType.SINGLE;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.omid.tso.ReplyProcessorImpl.ReplyBatchEvent.EVENT_FACTORY;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_FENCE;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_TIMESTAMP;
 
 class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEvent>, ReplyProcessor {
 
@@ -56,6 +67,12 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     private final Disruptor<ReplyBatchEvent> disruptor;
     private final RingBuffer<ReplyBatchEvent> replyRing;
 
+    // Reply workers that write the responses of the batches released in order. Empty when this thread writes them
+    private final ExecutorService replyWorkersExec;
+    private final Disruptor<ReplyBatchEvent> replyWorkersDisruptor;
+    private final RingBuffer<ReplyBatchEvent> releasedBatchRing;
+    private final ReplyWorker[] replyWorkers;
+
     private final ObjectPool<Batch> batchPool;
 
     @VisibleForTesting
@@ -64,6 +81,10 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     @VisibleForTesting
     PriorityQueue<ReplyBatchEvent> futureEvents;
 
+    // Whether the commit and abort responses of a batch are sent as soon as it is persisted, without waiting for the
+    // batches with lower sequences
+    private final boolean relaxedReplyOrdering;
+
     // Metrics
     private final Meter abortMeter;
     private final Meter commitMeter;
@@ -73,13 +94,69 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     private final LowWatermarkWriter lowWatermarkWriter;
     private long highestLowWaterMarkSeen;
 
+    // Highest commit timestamp of the batches handled in order
+    private volatile long persistedCommitTimestamp = -1;
+
+    // Responses of the batches being handled, coalesced per channel so each channel gets a single write and flush.
+    // There is one coalescer per thread writing batches. Responses sent from other threads are written right away
+    private static final int COALESCED_BUFFER_SIZE = 1 << 8;
+    private final ResponseCoalescer[] coalescers;
+    // Low watermarks of the table groups waiting for the commit response of the tx that raised them
+    private final Queue<StagedLowWatermarks> stagedTableGroupLowWatermarks = new ConcurrentLinkedQueue<>();
+
+    ReplyProcessorImpl(WaitStrategy strategy,
+                       MetricsRegistry metrics,
+                       Panicker panicker,
+                       ObjectPool<Batch> batchPool,
+                       LowWatermarkWriter lowWatermarkWriter) {
+        this(strategy, metrics, panicker, batchPool, lowWatermarkWriter, 0, false);
+    }
+
     @Inject
     ReplyProcessorImpl(@Named("ReplyStrategy") WaitStrategy strategy,
                        MetricsRegistry metrics,
                        Panicker panicker,
                        ObjectPool<Batch> batchPool,
-                       LowWatermarkWriter lowWatermarkWriter) {
+                       LowWatermarkWriter lowWatermarkWriter,
+                       TSOServerConfig config) {
+        this(strategy, metrics, panicker, batchPool, lowWatermarkWriter, config.getNumReplyWorkers(),
+             config.getRelaxedReplyOrdering());
+    }
+
+    ReplyProcessorImpl(WaitStrategy strategy,
+                       MetricsRegistry metrics,
+                       Panicker panicker,
+                       ObjectPool<Batch> batchPool,
+                       LowWatermarkWriter lowWatermarkWriter,
+                       int numReplyWorkers,
+                       boolean relaxedReplyOrdering) {
         this.lowWatermarkWriter = lowWatermarkWriter;
+        this.relaxedReplyOrdering = relaxedReplyOrdering;
+
+        // ------------------------------------------------------------------------------------------------------------
+        // Reply workers initialization
+        // ------------------------------------------------------------------------------------------------------------
+
+        Preconditions.checkArgument(numReplyWorkers >= 0, "# of reply workers must be >= 0");
+        this.replyWorkers = new ReplyWorker[numReplyWorkers];
+        if (numReplyWorkers > 0) {
+            ThreadFactoryBuilder workersThreadFactory = new ThreadFactoryBuilder().setNameFormat("reply-worker-%d");
+            this.replyWorkersExec = Executors.newFixedThreadPool(numReplyWorkers, workersThreadFactory.build());
+            this.replyWorkersDisruptor = new Disruptor<>(EVENT_FACTORY, 1 << 12, replyWorkersExec, SINGLE, strategy);
+            replyWorkersDisruptor.handleExceptionsWith(new FatalExceptionHandler(panicker));
+            this.coalescers = new ResponseCoalescer[numReplyWorkers];
+            for (int i = 0; i < numReplyWorkers; i++) {
+                coalescers[i] = new ResponseCoalescer();
+                replyWorkers[i] = new ReplyWorker(i, coalescers[i]);
+            }
+            replyWorkersDisruptor.handleEventsWith(replyWorkers);
+            this.releasedBatchRing = replyWorkersDisruptor.start();
+        } else {
+            this.replyWorkersExec = null;
+            this.replyWorkersDisruptor = null;
+            this.releasedBatchRing = null;
+            this.coalescers = new ResponseCoalescer[] { new ResponseCoalescer() };
+        }
 
         // ------------------------------------------------------------------------------------------------------------
         // Disruptor initialization
@@ -120,24 +197,128 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     void handleReplyBatchEvent(ReplyBatchEvent replyBatchEvent) throws Exception {
 
         Batch batch = replyBatchEvent.getBatch();
+        Replies replies = replyBatchEvent.pendingReplies;
+        updatePersistedCommitTimestamp(batch);
+        if (replyWorkers.length > 0) {
+            persistLowWatermarks(batch);
+            releaseBatch(replyBatchEvent, replies);
+            return;
+        }
+        if (replies != Replies.ALL) {
+            persistLowWatermarks(batch);
+        }
+        sendReplies(batch, replies);
+
+        batchPool.returnObject(batch);
+    }
+
+    // Sends the commit and abort responses of a batch persisted before the batches with lower sequences. They do not
+    // depend on those batches, unlike the timestamp and fence responses, which are left for the ordered path
+    private void handleEarlyReplies(ReplyBatchEvent replyBatchEvent) {
+        if (replyWorkers.length > 0) {
+            releaseBatch(replyBatchEvent, Replies.COMMITS_AND_ABORTS);
+        } else {
+            sendReplies(replyBatchEvent.getBatch(), Replies.COMMITS_AND_ABORTS);
+        }
+        replyBatchEvent.pendingReplies = Replies.TIMESTAMPS_AND_FENCES;
+    }
+
+    private void sendReplies(Batch batch, Replies replies) {
+        ResponseCoalescer coalescer = coalescers[0];
+        coalescer.owner = Thread.currentThread();
+        try {
+            handleReplies(batch, replies, 0, 1);
+        } finally {
+            coalescer.owner = null;
+            coalescer.flush();
+        }
+    }
+
+    // Hands the batch to the reply workers, which share its responses
+    private void releaseBatch(ReplyBatchEvent replyBatchEvent, Replies replies) {
+        long seq = releasedBatchRing.next();
+        ReplyBatchEvent e = releasedBatchRing.get(seq);
+        ReplyBatchEvent.makeReplyBatch(e, replyBatchEvent.getBatch(), replyBatchEvent.getBatchSequence());
+        e.pendingReplies = replies;
+        e.pendingReplyWorkers.set(replyWorkers.length);
+        releasedBatchRing.publish(seq);
+    }
+
+    private void updatePersistedCommitTimestamp(Batch batch) {
+        for (int i = batch.getNumEvents() - 1; i >= 0; i--) {
+            PersistEvent event = batch.get(i);
+            if (event.getType() == PersistEvent.Type.COMMIT) {
+                if (event.getCommitTimestamp() > persistedCommitTimestamp) {
+                    persistedCommitTimestamp = event.getCommitTimestamp();
+                }
+                return;
+            }
+        }
+    }
+
+    // Persists the low watermarks raised by the commits of the batch, when they are not persisted as they are replied
+    private void persistLowWatermarks(Batch batch) {
+        long lastCommitTimestamp = -1;
         for (int i = 0; i < batch.getNumEvents(); i++) {
             PersistEvent event = batch.get(i);
+            if (event.getType() == PersistEvent.Type.COMMIT) {
+                updateLowWatermark(event.getNewLowWatermark());
+                lastCommitTimestamp = Math.max(lastCommitTimestamp, event.getCommitTimestamp());
+            }
+        }
+        if (lastCommitTimestamp != -1 && !stagedTableGroupLowWatermarks.isEmpty()) {
+            updateTableGroupLowWatermarks(lastCommitTimestamp);
+        }
+    }
+
+    // Sends the responses passed of the batch for the channels of the partition passed, in the order of the batch
+    private void handleReplies(Batch batch, Replies replies, int partition, int numPartitions) {
+        for (int i = 0; i < batch.getNumEvents(); i++) {
+            PersistEvent event = batch.get(i);
+            if (numPartitions > 1 && partitionOf(event.getChannel(), numPartitions) != partition) {
+                continue;
+            }
 
             switch (event.getType()) {
                 case COMMIT:
-                    sendCommitResponse(event.getStartTimestamp(),
-                            event.getCommitTimestamp(),
-                            event.getChannel(),
-                            event.getMonCtx(),
-                            event.getNewLowWatermark());
+                    if (replies == Replies.TIMESTAMPS_AND_FENCES) {
+                        continue;
+                    }
+                    if (replies == Replies.ALL && replyWorkers.length == 0) {
+                        sendCommitResponse(event.getStartTimestamp(),
+                                event.getCommitTimestamp(),
+                                event.getChannel(),
+                                event.getMonCtx(),
+                                event.getNewLowWatermark());
+                    } else {
+                        // The low watermarks of the batch are persisted apart, in the order of the batches
+                        writeCommitResponse(event.getStartTimestamp(),
+                                event.getCommitTimestamp(),
+                                event.getChannel(),
+                                event.getMonCtx());
+                    }
                     break;
                 case ABORT:
+                    if (replies == Replies.TIMESTAMPS_AND_FENCES) {
+                        continue;
+                    }
                     sendAbortResponse(event.getStartTimestamp(), event.getChannel(), event.getMonCtx());
                     break;
                 case TIMESTAMP:
-                    sendTimestampResponse(event.getStartTimestamp(), event.getChannel(), event.getMonCtx());
+                    if (replies == Replies.COMMITS_AND_ABORTS) {
+                        continue;
+                    }
+                    if (event.getNumTimestamps() == 1) {
+                        sendTimestampResponse(event.getStartTimestamp(), event.getChannel(), event.getMonCtx());
+                    } else {
+                        sendTimestampRangeResponse(event.getStartTimestamp(), event.getNumTimestamps(),
+                                                   event.getChannel(), event.getMonCtx());
+                    }
                     break;
                 case FENCE:
+                    if (replies == Replies.COMMITS_AND_ABORTS) {
+                        continue;
+                    }
                     sendFenceResponse(event.getStartTimestamp(), event.getCommitTimestamp(), event.getChannel(), event.getMonCtx());
                     break;
                 case COMMIT_RETRY:
@@ -147,8 +328,36 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
             }
             event.getMonCtx().publish();
         }
+    }
 
-        batchPool.returnObject(batch);
+    private static int partitionOf(Channel c, int numPartitions) {
+        return (c.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    private ResponseCoalescer coalescerOfCurrentThread() {
+        Thread current = Thread.currentThread();
+        for (ResponseCoalescer coalescer : coalescers) {
+            if (coalescer.owner == current) {
+                return coalescer;
+            }
+        }
+        return null;
+    }
+
+    // Returns the buffer to encode a response for the channel passed
+    private ByteBuf responseBuffer(Channel c) {
+        ResponseCoalescer coalescer = coalescerOfCurrentThread();
+        if (coalescer == null) {
+            return ByteBufAllocator.DEFAULT.buffer(WireResponse.MAX_FRAME_SIZE);
+        }
+        return coalescer.bufferOf(c);
+    }
+
+    // Sends the response encoded in the buffer passed, unless it is being coalesced with the rest of the batch
+    private void sendResponse(Channel c, ByteBuf response) {
+        if (coalescerOfCurrentThread() == null) {
+            c.writeAndFlush(response);
+        }
     }
 
     private void processWaitingEvents() throws Exception {
@@ -166,9 +375,17 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
         // Order of event's reply need to be guaranteed in order to preserve snapshot isolation.
         // This is done in order to present a scenario where a start id of N is returned
         // while commit smaller than still does not appear in the commit table.
+        // With reply workers, this is the order in which batches are released to them, after their low watermarks
+        // are persisted. Each channel is written by a single worker, so the replies to each client keep this order.
+
+        // Commits and aborts, whose replies do not hand out timestamps, can be replied as soon as they are persisted
+        // when the reply ordering is relaxed. The low watermarks they raise are still persisted in order.
 
         // If previous events were not processed yet (events contain smaller id)
         if (event.getBatchSequence() > nextIDToHandle.get()) {
+            if (relaxedReplyOrdering) {
+                handleEarlyReplies(event);
+            }
             futureEvents.add(event);
             return;
         }
@@ -204,55 +421,84 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
     public void sendCommitResponse(long startTimestamp, long commitTimestamp, Channel c, MonitoringContext monCtx
             , Optional<Long> newLowWatermark) {
         updateLowWatermark(newLowWatermark);
-        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
-        TSOProto.CommitResponse.Builder commitBuilder = TSOProto.CommitResponse.newBuilder();
-        commitBuilder.setAborted(false)
-                .setStartTimestamp(startTimestamp)
-                .setCommitTimestamp(commitTimestamp);
-        builder.setCommitResponse(commitBuilder.build());
-        c.writeAndFlush(builder.build());
+        if (!stagedTableGroupLowWatermarks.isEmpty()) {
+            updateTableGroupLowWatermarks(commitTimestamp);
+        }
+        writeCommitResponse(startTimestamp, commitTimestamp, c, monCtx);
+    }
+
+    private void writeCommitResponse(long startTimestamp, long commitTimestamp, Channel c, MonitoringContext monCtx) {
+        ByteBuf response = responseBuffer(c);
+        WireResponse.encodeCommitResponse(response, startTimestamp, commitTimestamp);
+        sendResponse(c, response);
         commitMeter.mark();
-        monCtx.timerStop("reply.processor.commit.latency");
+        monCtx.timerStop(REPLY_COMMIT);
+    }
+
+    @Override
+    public void stageTableGroupLowWatermarks(long commitTimestamp, long[] lowWatermarks) {
+        stagedTableGroupLowWatermarks.add(new StagedLowWatermarks(commitTimestamp, lowWatermarks));
+    }
+
+    // Persists the latest low watermarks staged by a tx committed up to the commit timestamp passed
+    @VisibleForTesting
+    void updateTableGroupLowWatermarks(long commitTimestamp) {
+        long[] lowWatermarks = null;
+        StagedLowWatermarks staged = stagedTableGroupLowWatermarks.peek();
+        while (staged != null && staged.commitTimestamp <= commitTimestamp) {
+            lowWatermarks = stagedTableGroupLowWatermarks.poll().lowWatermarks;
+            staged = stagedTableGroupLowWatermarks.peek();
+        }
+        if (lowWatermarks != null) {
+            lowWatermarkWriter.persistTableGroupLowWatermarks(lowWatermarks);
+        }
     }
 
     @Override
     public void sendAbortResponse(long startTimestamp, Channel c, MonitoringContext monCtx) {
 
-        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
-        TSOProto.CommitResponse.Builder commitBuilder = TSOProto.CommitResponse.newBuilder();
-        commitBuilder.setAborted(true);
-        commitBuilder.setStartTimestamp(startTimestamp);
-        builder.setCommitResponse(commitBuilder.build());
-        c.writeAndFlush(builder.build());
+        ByteBuf response = responseBuffer(c);
+        WireResponse.encodeAbortResponse(response, startTimestamp);
+        sendResponse(c, response);
         abortMeter.mark();
-        monCtx.timerStop("reply.processor.abort.latency");
+        monCtx.timerStop(REPLY_ABORT);
     }
 
     @Override
     public void sendTimestampResponse(long startTimestamp, Channel c, MonitoringContext monCtx) {
 
-        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
-        TSOProto.TimestampResponse.Builder respBuilder = TSOProto.TimestampResponse.newBuilder();
-        respBuilder.setStartTimestamp(startTimestamp);
-        builder.setTimestampResponse(respBuilder.build());
-        c.writeAndFlush(builder.build());
+        ByteBuf response = responseBuffer(c);
+        WireResponse.encodeTimestampResponse(response, startTimestamp);
+        sendResponse(c, response);
         timestampMeter.mark();
-        monCtx.timerStop("reply.processor.timestamp.latency");
+        monCtx.timerStop(REPLY_TIMESTAMP);
+    }
+
+    @Override
+    public void sendTimestampRangeResponse(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) {
+
+        ByteBuf response = responseBuffer(c);
+        WireResponse.encodeTimestampRangeResponse(response, firstTimestamp, numTimestamps);
+        sendResponse(c, response);
+        timestampMeter.mark(numTimestamps);
+        monCtx.timerStop(REPLY_TIMESTAMP);
     }
 
     @Override
     public void sendFenceResponse(long tableID, long fenceTimestamp, Channel c, MonitoringContext monCtx) {
 
-        TSOProto.Response.Builder builder = TSOProto.Response.newBuilder();
-        TSOProto.FenceResponse.Builder fenceBuilder = TSOProto.FenceResponse.newBuilder();
-        fenceBuilder.setTableId(tableID);
-        fenceBuilder.setFenceId(fenceTimestamp);
-        builder.setFenceResponse(fenceBuilder.build());
-        c.writeAndFlush(builder.build());
-        monCtx.timerStop("reply.processor.fence.latency");
+        ByteBuf response = responseBuffer(c);
+        WireResponse.encodeFenceResponse(response, tableID, fenceTimestamp);
+        sendResponse(c, response);
+        monCtx.timerStop(REPLY_FENCE);
         fenceMeter.mark();
     }
 
+    @Override
+    public long getPersistedCommitTimestamp() {
+        return persistedCommitTimestamp;
+    }
+
     @Override
     public void close() {
 
@@ -268,18 +514,123 @@ class ReplyProcessorImpl implements EventHandler<ReplyProcessorImpl.ReplyBatchEv
             LOG.error("Interrupted whilst finishing Reply Processor Disruptor executor");
             Thread.currentThread().interrupt();
         }
+        if (replyWorkersDisruptor != null) {
+            replyWorkersDisruptor.halt();
+            replyWorkersDisruptor.shutdown();
+            replyWorkersExec.shutdownNow();
+            try {
+                replyWorkersExec.awaitTermination(3, SECONDS);
+                LOG.info("\tReply workers shutdown");
+            } catch (InterruptedException e) {
+                LOG.error("Interrupted whilst finishing reply workers");
+                Thread.currentThread().interrupt();
+            }
+        }
         LOG.info("Reply Processor terminated");
 
     }
 
+    // Writes the responses of the released batches to the channels of its partition
+    private final class ReplyWorker implements EventHandler<ReplyBatchEvent> {
+
+        private final int partition;
+        private final ResponseCoalescer coalescer;
+
+        ReplyWorker(int partition, ResponseCoalescer coalescer) {
+            this.partition = partition;
+            this.coalescer = coalescer;
+        }
+
+        @Override
+        public void onEvent(ReplyBatchEvent event, long sequence, boolean endOfBatch) throws Exception {
+            Batch batch = event.getBatch();
+            coalescer.owner = Thread.currentThread();
+            try {
+                handleReplies(batch, event.pendingReplies, partition, replyWorkers.length);
+            } finally {
+                coalescer.owner = null;
+                coalescer.flush();
+            }
+            // The last worker done with the batch returns it, unless the rest of its responses are still to be sent
+            if (event.pendingReplies != Replies.COMMITS_AND_ABORTS && event.pendingReplyWorkers.decrementAndGet() == 0) {
+                batchPool.returnObject(batch);
+            }
+        }
+
+    }
+
+    // Responses of a batch coalesced per channel
+    private static final class ResponseCoalescer {
+
+        // The thread handling a batch with this coalescer
+        private volatile Thread owner = null;
+        private Channel[] channels = new Channel[16];
+        private ByteBuf[] responses = new ByteBuf[16];
+        private int numChannels = 0;
+        private int lastChannel = 0;
+
+        ByteBuf bufferOf(Channel c) {
+            if (numChannels > 0 && channels[lastChannel] == c) {
+                return responses[lastChannel];
+            }
+            for (int i = 0; i < numChannels; i++) {
+                if (channels[i] == c) {
+                    lastChannel = i;
+                    return responses[i];
+                }
+            }
+            if (numChannels == channels.length) {
+                channels = Arrays.copyOf(channels, 2 * numChannels);
+                responses = Arrays.copyOf(responses, 2 * numChannels);
+            }
+            lastChannel = numChannels++;
+            channels[lastChannel] = c;
+            responses[lastChannel] = ByteBufAllocator.DEFAULT.buffer(COALESCED_BUFFER_SIZE);
+            return responses[lastChannel];
+        }
+
+        void flush() {
+            for (int i = 0; i < numChannels; i++) {
+                channels[i].writeAndFlush(responses[i]);
+                channels[i] = null;
+                responses[i] = null;
+            }
+            numChannels = 0;
+            lastChannel = 0;
+        }
+
+    }
+
+    // Responses of a batch to be sent
+    private enum Replies {
+        ALL, COMMITS_AND_ABORTS, TIMESTAMPS_AND_FENCES
+    }
+
+    private static final class StagedLowWatermarks {
+
+        private final long commitTimestamp;
+        private final long[] lowWatermarks;
+
+        StagedLowWatermarks(long commitTimestamp, long[] lowWatermarks) {
+            this.commitTimestamp = commitTimestamp;
+            this.lowWatermarks = lowWatermarks;
+        }
+
+    }
+
     final static class ReplyBatchEvent {
 
         private Batch batch;
         private long batchSequence;
+        // Responses of the batch not sent yet
+        private Replies pendingReplies = Replies.ALL;
+        // Reply workers yet to handle the batch, when it is shared by them
+        private final AtomicInteger pendingReplyWorkers = new AtomicInteger();
 
         static void makeReplyBatch(ReplyBatchEvent e, Batch batch, long batchSequence) {
             e.batch = batch;
             e.batchSequence = batchSequence;
+            e.pendingReplies = Replies.ALL;
         }
 
         Batch getBatch() {
@@ -27,7 +27,38 @@ public interface RequestProcessor extends TSOStateManager.StateObserver, Closeab
 
     void timestampRequest(Channel c, MonitoringContext monCtx);
 
+    /**
+     * Same as above, but reserving numTimestamps consecutive start timestamps that are sent in a single response
+     */
+    void timestampRequest(int numTimestamps, Channel c, MonitoringContext monCtx);
+
+    /**
+     * Same as above, but skipping the request if it is still queued when the deadline passed, in System.nanoTime(),
+     * is reached, as the client no longer waits for its response
+     */
+    void timestampRequest(int numTimestamps, long deadline, Channel c, MonitoringContext monCtx);
+
     void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet, boolean isRetry, Channel c, MonitoringContext monCtx);
 
+    /**
+     * Same as above, but skipping the request if it is still queued when the deadline passed, in System.nanoTime(), is
+     * reached, as the client no longer waits for its response. Once the request processor decides a commit, it is
+     * persisted and replied whatever its deadline, as it already took a commit timestamp and updated the conflict map
+     */
+    void commitRequest(long startTimestamp, Collection<Long> writeSet, Collection<Long> tableIdSet, boolean isRetry,
+                       long deadline, Channel c, MonitoringContext monCtx);
+
+    /**
+     * Same as above, but decoding the commit request straight from its serialized form into the request processor
+     * events. The request passed can be reused by the caller as soon as this method returns. The deadline of the
+     * request, if any, is counted from this call.
+     */
+    void commitRequest(WireCommitRequest request, Channel c, MonitoringContext monCtx);
+
     void fenceRequest(long tableID, Channel c, MonitoringContext monCtx);
+
+    /**
+     * Returns the fraction, from 0 to 1, of the slots taken in the queue the calling thread publishes its requests to
+     */
+    float getRequestQueueOccupancy();
 }
@@ -24,27 +24,42 @@ import io.netty.channel.Channel;
 
 import java.io.IOException;
 
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_TIMESTAMP;
+
 public class RequestProcessorPersistCT extends AbstractRequestProcessor {
 
     private final PersistenceProcessor persistenceProcessor;
+    private final ReplyProcessor replyProcessor;
+    private final LeaseManagement leaseManager;
+
+    // Whether aborts, and timestamps while no commit awaits persistence, are replied without going through the batches
+    private final boolean persistenceBypass;
+    // Highest commit timestamp forwarded to be persisted
+    private long lastForwardedCommitTimestamp = -1;
 
     @Inject
     RequestProcessorPersistCT(MetricsRegistry metrics,
                               TimestampOracle timestampOracle,
                               PersistenceProcessor persistenceProcessor,
                               Panicker panicker,
+                              LeaseManagement leaseManager,
                               TSOServerConfig config,
                               LowWatermarkWriter lowWatermarkWriter,
                               ReplyProcessor replyProcessor) throws IOException {
 
         super(metrics, timestampOracle, panicker, config, lowWatermarkWriter, replyProcessor);
         this.persistenceProcessor = persistenceProcessor;
-        requestRing = disruptor.start();
+        this.replyProcessor = replyProcessor;
+        this.leaseManager = leaseManager;
+        this.persistenceBypass = config.getPersistenceBypass();
+        start();
     }
 
     @Override
     public void forwardCommit(long startTimestamp, long commitTimestamp, Channel c, MonitoringContext monCtx,
                               Optional<Long> lowWatermark) throws Exception {
+        lastForwardedCommitTimestamp = commitTimestamp;
         persistenceProcessor.addCommitToBatch(startTimestamp,commitTimestamp,c,monCtx , lowWatermark);
     }
 
@@ -55,14 +70,46 @@ public class RequestProcessorPersistCT extends AbstractRequestProcessor {
 
     @Override
     public void forwardAbort(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
+        // An abort writes nothing to the commit table, so its reply does not wait for any
+        if (canBypassPersistence()) {
+            monCtx.timerStart(REPLY_ABORT);
+            replyProcessor.sendAbortResponse(startTimestamp, c, monCtx);
+            monCtx.publish();
+            return;
+        }
         persistenceProcessor.addAbortToBatch(startTimestamp,c,monCtx);
     }
 
     @Override
     public void forwardTimestamp(long startTimestamp, Channel c, MonitoringContext monCtx) throws Exception {
+        // A timestamp can be handed out right away once all the commits below it are in the commit table
+        if (canBypassPersistence() && lastForwardedCommitTimestamp <= replyProcessor.getPersistedCommitTimestamp()) {
+            monCtx.timerStart(REPLY_TIMESTAMP);
+            replyProcessor.sendTimestampResponse(startTimestamp, c, monCtx);
+            monCtx.publish();
+            return;
+        }
         persistenceProcessor.addTimestampToBatch(startTimestamp,c,monCtx);
     }
 
+    @Override
+    public void forwardTimestampRange(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx)
+            throws Exception {
+        if (canBypassPersistence() && lastForwardedCommitTimestamp <= replyProcessor.getPersistedCommitTimestamp()) {
+            monCtx.timerStart(REPLY_TIMESTAMP);
+            replyProcessor.sendTimestampRangeResponse(firstTimestamp, numTimestamps, c, monCtx);
+            monCtx.publish();
+            return;
+        }
+        persistenceProcessor.addTimestampRangeToBatch(firstTimestamp, numTimestamps, c, monCtx);
+    }
+
+    // The replies that bypass the batches must not be sent once the lease is lost, as the TSO may no longer be the
+    // master. Then they go through the batches, whose flush checks the lease too and commits suicide if it was lost
+    private boolean canBypassPersistence() {
+        return persistenceBypass && leaseManager.stillInLeasePeriod();
+    }
+
     @Override
     public void onTimeout() throws Exception {
         persistenceProcessor.triggerCurrentBatchFlush();
@@ -24,6 +24,10 @@ import io.netty.channel.Channel;
 
 import java.io.IOException;
 
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_ABORT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_TIMESTAMP;
+
 public class RequestProcessorSkipCT extends AbstractRequestProcessor {
 
 
@@ -45,7 +49,7 @@ public class RequestProcessorSkipCT extends AbstractRequestProcessor {
         super(metrics, timestampOracle, panicker, config, lowWatermarkWriter, replyProcessor);
         this.replyProcessor = replyProcessor;
         this.tsoHostAndPort = tsoHostAndPort;
-        requestRing = disruptor.start();
+        start();
         this.leaseManager = leaseManager;
         this.panicker = panicker;
     }
@@ -59,28 +63,34 @@ public class RequestProcessorSkipCT extends AbstractRequestProcessor {
     @Override
     public void forwardCommit(long startTimestamp, long commitTimestamp, Channel c, MonitoringContext monCtx, Optional<Long> newLowWatermark) {
         commitSuicideIfNotMaster();
-        monCtx.timerStart("reply.processor.commit.latency");
+        monCtx.timerStart(REPLY_COMMIT);
         replyProcessor.sendCommitResponse(startTimestamp, commitTimestamp, c, monCtx, newLowWatermark);
     }
 
     @Override
     public void forwardCommitRetry(long startTimestamp, Channel c, MonitoringContext monCtx) {
-        monCtx.timerStart("reply.processor.abort.latency");
+        monCtx.timerStart(REPLY_ABORT);
         replyProcessor.sendAbortResponse(startTimestamp, c, monCtx);
     }
 
     @Override
     public void forwardAbort(long startTimestamp, Channel c, MonitoringContext monCtx) {
-        monCtx.timerStart("reply.processor.abort.latency");
+        monCtx.timerStart(REPLY_ABORT);
         replyProcessor.sendAbortResponse(startTimestamp, c, monCtx);
     }
 
     @Override
     public void forwardTimestamp(long startTimestamp, Channel c, MonitoringContext monCtx) {
-        monCtx.timerStart("reply.processor.timestamp.latency");
+        monCtx.timerStart(REPLY_TIMESTAMP);
         replyProcessor.sendTimestampResponse(startTimestamp, c, monCtx);
     }
 
+    @Override
+    public void forwardTimestampRange(long firstTimestamp, int numTimestamps, Channel c, MonitoringContext monCtx) {
+        monCtx.timerStart(REPLY_TIMESTAMP);
+        replyProcessor.sendTimestampRangeResponse(firstTimestamp, numTimestamps, c, monCtx);
+    }
+
     @Override
     public void onTimeout() {
         
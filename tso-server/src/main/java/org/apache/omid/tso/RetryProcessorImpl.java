@@ -47,6 +47,7 @@ import static com.codahale.metrics.MetricRegistry.name;
 import static com.lmax.disruptor.dsl.ProducerType.SINGLE;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.omid.tso.RetryProcessorImpl.RetryEvent.EVENT_FACTORY;
+import static org.apache.omid.tso.MonitoringContext.Stage.RETRY_COMMIT_RETRY;
 
 /**
  * Manages the disambiguation of the retry requests that clients send when they did not received a response in the
@@ -115,7 +116,7 @@ class RetryProcessorImpl implements EventHandler<RetryProcessorImpl.RetryEvent>,
         switch (event.getType()) {
             case COMMIT:
                 handleCommitRetry(event);
-                event.getMonCtx().timerStop("retry.processor.commit-retry.latency");
+                event.getMonCtx().timerStop(RETRY_COMMIT_RETRY);
                 break;
             default:
                 assert (false);
@@ -158,7 +159,7 @@ class RetryProcessorImpl implements EventHandler<RetryProcessorImpl.RetryEvent>,
     public void disambiguateRetryRequestHeuristically(long startTimestamp, Channel c, MonitoringContext monCtx) {
         long seq = retryRing.next();
         RetryEvent e = retryRing.get(seq);
-        monCtx.timerStart("retry.processor.commit-retry.latency");
+        monCtx.timerStart(RETRY_COMMIT_RETRY);
         RetryEvent.makeCommitRetry(e, startTimestamp, c, monCtx);
         retryRing.publish(seq);
     }
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+/**
+ * {@link ConflictMap} using open addressing with linear probing and Robin Hood insertion: a new entry takes the slot of
+ * any entry closer to its home slot than itself, which is then moved forward. This keeps the displacements short and
+ * even, so lookups touch few, contiguous slots.
+ *
+ * No entry is stored farther than maxDisplacement slots from its home slot. When an entry can not be placed within that
+ * reach, the oldest (smallest) value in its reach is evicted. As entries are never removed otherwise, a lookup stops at
+ * the first empty slot or after maxDisplacement slots.
+ *
+ * The capacity is the size passed rounded up to a power of two, so the home slot is taken from the top bits of the key
+ * multiplied by the golden ratio, without divisions.
+ */
+final class RobinHoodConflictMap implements ConflictMap {
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private final long[] keys;
+    private final long[] values;
+    private final int mask;
+    private final int shift;
+    private final int maxDisplacement;
+    private final int maxProbes;
+
+    RobinHoodConflictMap(int size, int maxDisplacement) {
+        if (maxDisplacement <= 0) {
+            throw new IllegalArgumentException("Illegal max displacement: " + maxDisplacement);
+        }
+        int capacity = Math.max(LongCache.maskedSize(size), LongCache.maskedSize(Math.max(2, maxDisplacement)));
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        this.maxDisplacement = maxDisplacement;
+        this.maxProbes = 4 * maxDisplacement;
+    }
+
+    @Override
+    public long get(long key) {
+        int home = home(key);
+        for (int d = 0; d < maxDisplacement; d++) {
+            int slot = (home + d) & mask;
+            long value = values[slot];
+            if (value == 0 || keys[slot] == key) {
+                return value;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long set(long key, long value) {
+
+        int home = home(key);
+        for (int d = 0; d < maxDisplacement; d++) {
+            int slot = (home + d) & mask;
+            if (values[slot] == 0) {
+                break;
+            }
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return 0;
+            }
+        }
+
+        // Insert the entry, moving forward the entries it is farther from home than
+        long carriedKey = key;
+        long carriedValue = value;
+        int carriedHome = home;
+        int d = 0;
+        for (int probes = 0; d < maxDisplacement && probes < maxProbes; probes++, d++) {
+            int slot = (carriedHome + d) & mask;
+            if (values[slot] == 0) {
+                keys[slot] = carriedKey;
+                values[slot] = carriedValue;
+                return 0;
+            }
+            int slotHome = home(keys[slot]);
+            int slotDisplacement = (slot - slotHome) & mask;
+            if (slotDisplacement < d) {
+                long slotKey = keys[slot];
+                long slotValue = values[slot];
+                keys[slot] = carriedKey;
+                values[slot] = carriedValue;
+                carriedKey = slotKey;
+                carriedValue = slotValue;
+                carriedHome = slotHome;
+                d = slotDisplacement;
+            }
+        }
+
+        // No room within the reach of the entry being carried. Evict the oldest value in it
+        int oldestSlot = -1;
+        long oldestValue = carriedValue;
+        for (d = 0; d < maxDisplacement; d++) {
+            int slot = (carriedHome + d) & mask;
+            if (values[slot] < oldestValue) {
+                oldestValue = values[slot];
+                oldestSlot = slot;
+            }
+        }
+        if (oldestSlot >= 0) {
+            keys[oldestSlot] = carriedKey;
+            values[oldestSlot] = carriedValue;
+        }
+        return oldestValue;
+
+    }
+
+    @Override
+    public int getNumEntries() {
+        return keys.length;
+    }
+
+    @Override
+    public long getKeyAt(int entry) {
+        return keys[entry];
+    }
+
+    @Override
+    public long getValueAt(int entry) {
+        return values[entry];
+    }
+
+    private int home(long key) {
+        return (int) ((key * GOLDEN_RATIO) >>> shift);
+    }
+
+}
@@ -21,34 +21,42 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import javax.inject.Inject;
 
+import org.apache.omid.NettyTransport;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.proto.TSOProto;
+import org.apache.omid.tso.AbstractRequestProcessor.RequestEvent;
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.LengthFieldPrepender;
-import io.netty.handler.codec.protobuf.ProtobufDecoder;
-import io.netty.handler.codec.protobuf.ProtobufEncoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.TooLongFrameException;
 import io.netty.handler.ssl.OptionalSslHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.util.AttributeKey;
@@ -68,6 +76,12 @@ public class TSOChannelHandler extends ChannelInboundHandlerAdapter implements C
 
     private final Logger LOG = LoggerFactory.getLogger(TSOChannelHandler.class);
 
+    // Max packet length is 10MB. Transactions with so many cells
+    // that the packet is rejected will receive a ServiceUnavailableException.
+    // 10MB is enough for 2 million cells in a transaction though.
+    private static final int MAX_FRAME_LENGTH = 10 * 1024 * 1024;
+    private static final int FRAME_LENGTH_FIELD_SIZE = 4;
+
     private final ServerBootstrap bootstrap;
 
     @VisibleForTesting
@@ -77,6 +91,10 @@ public class TSOChannelHandler extends ChannelInboundHandlerAdapter implements C
 
     private RequestProcessor requestProcessor;
 
+    private AdmissionController admissionController;
+
+    private MonitoringContextFactory monitoringContextFactory;
+
     private TSOServerConfig config;
 
     private MetricsRegistry metrics;
@@ -84,38 +102,59 @@ public class TSOChannelHandler extends ChannelInboundHandlerAdapter implements C
     private static final AttributeKey<TSOChannelContext> TSO_CTX =
             AttributeKey.valueOf("TSO_CTX");
 
-    @Inject
     public TSOChannelHandler(TSOServerConfig config, RequestProcessor requestProcessor, MetricsRegistry metrics) {
+        this(config, requestProcessor, metrics,
+             new AdmissionController(config, metrics, new AdaptiveBatchingController(config, metrics)));
+    }
+
+    @Inject
+    public TSOChannelHandler(TSOServerConfig config,
+                             RequestProcessor requestProcessor,
+                             MetricsRegistry metrics,
+                             AdmissionController admissionController) {
 
         this.config = config;
         this.metrics = metrics;
         this.requestProcessor = requestProcessor;
+        this.admissionController = admissionController;
+        this.monitoringContextFactory = new MonitoringContextFactory(config, metrics);
 
         // Setup netty listener
-        int workerThreadCount= (Runtime.getRuntime().availableProcessors() * 2 + 1) * 2;
+        NettyTransport transport = NettyTransport.get(config.getNativeTransport());
+        int workerThreadCount = config.getNumNetworkWorkerThreads() > 0
+                ? config.getNumNetworkWorkerThreads()
+                : (Runtime.getRuntime().availableProcessors() * 2 + 1) * 2;
+        LOG.info("Using {} transport with {} worker threads", transport, workerThreadCount);
         ThreadFactory bossThreadFactory = new ThreadFactoryBuilder().setNameFormat("tsoserver-boss-%d").build();
         ThreadFactory workerThreadFactory = new ThreadFactoryBuilder().setNameFormat("tsoserver-worker-%d").build();
-        EventLoopGroup workerGroup = new NioEventLoopGroup(workerThreadCount, workerThreadFactory);
-        EventLoopGroup bossGroup = new NioEventLoopGroup(bossThreadFactory);
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(workerThreadCount, workerThreadFactory);
+        // A single listening channel, so a single thread accepts the connections
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(1, bossThreadFactory);
 
         this.bootstrap = new ServerBootstrap();
         bootstrap.group(bossGroup,  workerGroup);
-        bootstrap.channel(NioServerSocketChannel.class);
+        bootstrap.channel(transport.serverChannelClass());
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, config.getTcpNoDelay());
+        bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                              new WriteBufferWaterMark(config.getWriteBufferLowWaterMark(),
+                                                       config.getWriteBufferHighWaterMark()));
+        if (config.getBusyPollInUs() > 0) {
+            if (transport.isEpoll()) {
+                bootstrap.childOption(EpollChannelOption.SO_BUSY_POLL, config.getBusyPollInUs());
+            } else {
+                LOG.warn("Busy polling is only supported by the epoll transport. Ignoring busyPollInUs");
+            }
+        }
         bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
             @Override
             public void initChannel(SocketChannel channel) throws Exception {
                 ChannelPipeline pipeline = channel.pipeline();
-                // Max packet length is 10MB. Transactions with so many cells
-                // that the packet is rejected will receive a ServiceUnavailableException.
-                // 10MB is enough for 2 million cells in a transaction though.
                 if (config.getTlsEnabled())
                 {
                     initSSL(pipeline, config.getSupportPlainText());
                 }
-                pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(10 * 1024 * 1024, 0, 4, 0, 4));
-                pipeline.addLast("lengthprepender", new LengthFieldPrepender(4));
-                pipeline.addLast("protobufdecoder", new ProtobufDecoder(TSOProto.Request.getDefaultInstance()));
-                pipeline.addLast("protobufencoder", new ProtobufEncoder());
+                pipeline.addLast("requestdecoder", new RequestDecoder());
+                pipeline.addLast("responseencoder", new ResponseEncoder());
                 pipeline.addLast("handler", TSOChannelHandler.this);
             }
         });
@@ -217,20 +256,56 @@ public class TSOChannelHandler extends ChannelInboundHandlerAdapter implements C
             }
 
             if (request.hasTimestampRequest()) {
-                requestProcessor.timestampRequest(ctx.channel(), MonitoringContextFactory.getInstance(config,metrics));
+                if (!admit(ctx)) {
+                    sendOverloadedResponse(ctx, TSOProto.OverloadedResponse.newBuilder().setTimestampRequest(true));
+                    return;
+                }
+                int numTimestamps = Math.min(request.getTimestampRequest().getNumTimestamps(),
+                                             config.getMaxTimestampsPerRequest());
+                if (request.hasDeadlineInMs()) {
+                    requestProcessor.timestampRequest(Math.max(numTimestamps, 1),
+                                                      RequestEvent.deadlineIn(request.getDeadlineInMs()),
+                                                      ctx.channel(),
+                                                      monitoringContextFactory.newContext());
+                } else if (numTimestamps > 1) {
+                    requestProcessor.timestampRequest(numTimestamps, ctx.channel(),
+                                                      monitoringContextFactory.newContext());
+                } else {
+                    requestProcessor.timestampRequest(ctx.channel(), monitoringContextFactory.newContext());
+                }
             } else if (request.hasCommitRequest()) {
                 TSOProto.CommitRequest cr = request.getCommitRequest();
-                requestProcessor.commitRequest(cr.getStartTimestamp(),
-                                               cr.getCellIdList(),
-                                               cr.getTableIdList(),
-                                               cr.getIsRetry(),
-                                               ctx.channel(),
-                                               MonitoringContextFactory.getInstance(config,metrics));
+                if (!admit(ctx)) {
+                    sendOverloadedResponse(ctx, TSOProto.OverloadedResponse.newBuilder()
+                            .setStartTimestamp(cr.getStartTimestamp()));
+                    return;
+                }
+                if (request.hasDeadlineInMs()) {
+                    requestProcessor.commitRequest(cr.getStartTimestamp(),
+                                                   idsOf(cr.getCellIdList(), cr.getFixedCellIdList()),
+                                                   idsOf(cr.getTableIdList(), cr.getFixedTableIdList()),
+                                                   cr.getIsRetry(),
+                                                   RequestEvent.deadlineIn(request.getDeadlineInMs()),
+                                                   ctx.channel(),
+                                                   monitoringContextFactory.newContext());
+                } else {
+                    requestProcessor.commitRequest(cr.getStartTimestamp(),
+                                                   idsOf(cr.getCellIdList(), cr.getFixedCellIdList()),
+                                                   idsOf(cr.getTableIdList(), cr.getFixedTableIdList()),
+                                                   cr.getIsRetry(),
+                                                   ctx.channel(),
+                                                   monitoringContextFactory.newContext());
+                }
             } else if (request.hasFenceRequest()) {
                 TSOProto.FenceRequest fr = request.getFenceRequest();
                 requestProcessor.fenceRequest(fr.getTableId(),
                         ctx.channel(),
-                        MonitoringContextFactory.getInstance(config,metrics));
+                        monitoringContextFactory.newContext());
+            } else if (request.hasRequestBatch()) {
+                // Batches not unpacked by the decoder, e.g. because they mix several fields, are handled here
+                for (TSOProto.Request batchedRequest : request.getRequestBatch().getRequestList()) {
+                    channelRead(ctx, batchedRequest);
+                }
             } else {
                 LOG.error("Invalid request {}. Closing channel {}", request, ctx.channel());
                 ctx.channel().close();
@@ -274,6 +349,7 @@ public class TSOChannelHandler extends ChannelInboundHandlerAdapter implements C
     private static class TSOChannelContext {
 
         boolean handshakeComplete;
+        boolean overloadedResponses; // Whether the client can handle the rejection of its requests
 
         TSOChannelContext() {
             handshakeComplete = false;
@@ -289,15 +365,117 @@ public class TSOChannelHandler extends ChannelInboundHandlerAdapter implements C
 
     }
 
+    /**
+     * Decodes the length-prefixed request frames. Commit requests received once the handshake has been completed are
+     * decoded straight into the request processor, avoiding the allocation of the protobuf messages. The rest of the
+     * requests are decoded as TSOProto.Request messages and passed to the next handler in the pipeline. The requests
+     * carried in a request batch envelope are unpacked and decoded the same way.
+     */
+    private class RequestDecoder extends ByteToMessageDecoder {
+
+        private final WireCommitRequest commitRequest = new WireCommitRequest();
+        private final WireRequestBatch requestBatch = new WireRequestBatch();
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+
+            if (in.readableBytes() < FRAME_LENGTH_FIELD_SIZE) {
+                return;
+            }
+            int frameLength = in.getInt(in.readerIndex());
+            if (frameLength < 0) {
+                in.skipBytes(in.readableBytes());
+                throw new CorruptedFrameException("Negative frame length: " + frameLength);
+            }
+            if (frameLength > MAX_FRAME_LENGTH) {
+                in.skipBytes(in.readableBytes());
+                throw new TooLongFrameException("Frame length " + frameLength + " exceeds " + MAX_FRAME_LENGTH);
+            }
+            if (in.readableBytes() < FRAME_LENGTH_FIELD_SIZE + frameLength) {
+                return;
+            }
+
+            int frameStart = in.readerIndex() + FRAME_LENGTH_FIELD_SIZE;
+            int frameEnd = frameStart + frameLength;
+            in.readerIndex(frameEnd);
+            if (handshakeCompleted(ctx) && requestBatch.wrap(in, frameStart, frameEnd)) {
+                while (requestBatch.next()) {
+                    decodeRequest(ctx, in, requestBatch.getRequestStart(), requestBatch.getRequestEnd(), out);
+                }
+            } else {
+                decodeRequest(ctx, in, frameStart, frameEnd, out);
+            }
+
+        }
+
+        private void decodeRequest(ChannelHandlerContext ctx, ByteBuf in, int start, int end, List<Object> out)
+                throws IOException {
+
+            if (handshakeCompleted(ctx) && commitRequest.wrap(in, start, end)) {
+                // The commits are handled right away, so the requests of the same batch parsed before them go first
+                fireDecodedRequests(ctx, out);
+                if (admit(ctx)) {
+                    requestProcessor.commitRequest(commitRequest, ctx.channel(), monitoringContextFactory.newContext());
+                } else {
+                    sendOverloadedResponse(ctx, TSOProto.OverloadedResponse.newBuilder()
+                            .setStartTimestamp(commitRequest.getStartTimestamp()));
+                }
+            } else {
+                byte[] array;
+                int offset;
+                if (in.hasArray()) {
+                    array = in.array();
+                    offset = in.arrayOffset() + start;
+                } else {
+                    array = ByteBufUtil.getBytes(in, start, end - start, false);
+                    offset = 0;
+                }
+                out.add(TSOProto.Request.getDefaultInstance().getParserForType().parseFrom(array, offset, end - start));
+            }
+
+        }
+
+        // Passes down the pipeline the requests parsed so far, as the decoder does with its output after each decode
+        private void fireDecodedRequests(ChannelHandlerContext ctx, List<Object> out) {
+
+            for (int i = 0; i < out.size(); i++) {
+                ctx.fireChannelRead(out.get(i));
+            }
+            out.clear();
+
+        }
+
+    }
+
+    /**
+     * Encodes the protobuf responses written to the channel as length-prefixed frames. The responses of the reply
+     * processor are written already encoded by {@link WireResponse}, so they are passed through untouched.
+     */
+    private static class ResponseEncoder extends MessageToByteEncoder<TSOProto.Response> {
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, TSOProto.Response response, ByteBuf out) throws Exception {
+            out.writeInt(response.getSerializedSize());
+            response.writeTo(new ByteBufOutputStream(out));
+        }
+
+    }
+
     private void checkHandshake(final ChannelHandlerContext ctx, TSOProto.HandshakeRequest request) {
 
         TSOProto.HandshakeResponse.Builder response = TSOProto.HandshakeResponse.newBuilder();
         if (request.hasClientCapabilities()) {
 
             response.setClientCompatible(true)
-                    .setServerCapabilities(TSOProto.Capabilities.newBuilder().build());
+                    .setServerCapabilities(TSOProto.Capabilities.newBuilder()
+                                                   .setMaxTimestampsPerRequest(config.getMaxTimestampsPerRequest())
+                                                   .setRequestBatches(true)
+                                                   .setFixed64WriteSets(true)
+                                                   .setRequestDeadlines(config.getShedExpiredRequests())
+                                                   .build());
             TSOChannelContext tsoCtx = new TSOChannelContext();
             tsoCtx.setHandshakeComplete();
+            tsoCtx.overloadedResponses = request.getClientCapabilities().getOverloadedResponses();
             ctx.channel().attr(TSO_CTX).set(tsoCtx);
         } else {
             response.setClientCompatible(false);
@@ -307,6 +485,41 @@ public class TSOChannelHandler extends ChannelInboundHandlerAdapter implements C
 
     }
 
+    // Whether a timestamp or commit request received from the client can be processed. Otherwise it must be rejected
+    private boolean admit(ChannelHandlerContext ctx) {
+
+        if (!admissionController.isEnabled()) {
+            return true;
+        }
+        TSOChannelContext tsoCtx = ctx.channel().attr(TSO_CTX).get();
+        if (tsoCtx == null || !tsoCtx.overloadedResponses) {
+            return true;
+        }
+        return admissionController.admit(requestProcessor.getRequestQueueOccupancy());
+
+    }
+
+    private void sendOverloadedResponse(ChannelHandlerContext ctx, TSOProto.OverloadedResponse.Builder response) {
+
+        response.setRetryAfterInMs(admissionController.getRetryAfterInMs());
+        ctx.channel().writeAndFlush(TSOProto.Response.newBuilder().setOverloadedResponse(response).build());
+
+    }
+
+    // Joins the ids of a commit request sent in its varint and fixed width fields
+    private static List<Long> idsOf(List<Long> varintIds, List<Long> fixedIds) {
+        if (fixedIds.isEmpty()) {
+            return varintIds;
+        }
+        if (varintIds.isEmpty()) {
+            return fixedIds;
+        }
+        List<Long> ids = new ArrayList<>(varintIds.size() + fixedIds.size());
+        ids.addAll(varintIds);
+        ids.addAll(fixedIds);
+        return ids;
+    }
+
     private boolean handshakeCompleted(ChannelHandlerContext ctx) {
 
         TSOChannelContext tsoCtx = ctx.channel().attr(TSO_CTX).get();
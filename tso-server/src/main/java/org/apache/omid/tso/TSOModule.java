@@ -38,6 +38,8 @@ class TSOModule extends AbstractModule {
 
     TSOModule(TSOServerConfig config) {
         Preconditions.checkArgument(config.getNumConcurrentCTWriters() >= 2, "# of Commit Table writers must be >= 2");
+        Preconditions.checkArgument(config.getMaxInFlightBatchesPerCTWriter() >= 1,
+                                    "# of in flight batches per Commit Table writer must be >= 1");
         this.config = config;
     }
 
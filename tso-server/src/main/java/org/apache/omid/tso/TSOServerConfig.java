@@ -51,6 +51,19 @@ public class TSOServerConfig extends SecureHBaseConfig {
       WORLD_TIME
     };
 
+    public static enum CONFLICT_MAP_STORAGE {
+        HEAP,
+        OFF_HEAP,
+        MEMORY_MAPPED
+    };
+
+    public static enum CONFLICT_MAP_LAYOUT {
+        SET_ASSOCIATIVE,
+        MASKED_SET_ASSOCIATIVE,
+        ROBIN_HOOD,
+        CUCKOO
+    };
+
     // ----------------------------------------------------------------------------------------------------------------
     // Instantiation
     // ----------------------------------------------------------------------------------------------------------------
@@ -75,6 +88,18 @@ public class TSOServerConfig extends SecureHBaseConfig {
 
     private int port;
 
+    private boolean nativeTransport = true;
+
+    private int numNetworkWorkerThreads = 0;
+
+    private int busyPollInUs = 0;
+
+    private boolean tcpNoDelay = true;
+
+    private int writeBufferLowWaterMark = 32 * 1024;
+
+    private int writeBufferHighWaterMark = 64 * 1024;
+
     private MetricsRegistry metrics;
 
     private int conflictMapSize;
@@ -85,6 +110,56 @@ public class TSOServerConfig extends SecureHBaseConfig {
 
     private int batchPersistTimeoutInMs;
 
+    private int maxTimestampsPerRequest = 128;
+
+    private int maxInFlightBatchesPerCTWriter = 1;
+
+    private int batchMaxAgeInMs = 0;
+
+    private boolean adaptiveBatching = false;
+
+    private int batchLatencyTargetInMs = 10;
+
+    private int conflictDetectionPartitions = 1;
+
+    private String conflictMapStorage = CONFLICT_MAP_STORAGE.HEAP.name();
+
+    private String conflictMapFile = "omid-conflict-map";
+
+    private String conflictMapLayout = CONFLICT_MAP_LAYOUT.SET_ASSOCIATIVE.name();
+
+    private int conflictMapMaxSize = 0;
+
+    private long lowWatermarkLagTarget = 10_000_000_000L;
+
+    private int conflictMapTableGroups = 0;
+
+    private boolean speculativeConflictCheck = false;
+
+    private int conflictDetectionBatchSize = 64;
+
+    private int requestRingSize = 1 << 12;
+
+    private int numIngestRings = 0;
+
+    private int ingestRingSize = 1 << 10;
+
+    private int numReplyWorkers = 0;
+
+    private boolean relaxedReplyOrdering = false;
+
+    private boolean persistenceBypass = false;
+
+    private boolean admissionControl = false;
+
+    private int admissionMaxQueueOccupancyPercent = 50;
+
+    private int admissionMaxBatchLatencyInMs = 500;
+
+    private int overloadedRetryAfterInMs = 10;
+
+    private boolean shedExpiredRequests = false;
+
     private String waitStrategy;
 
     private String networkIfaceName = NetworkUtils.getDefaultNetworkInterface();
@@ -95,6 +170,8 @@ public class TSOServerConfig extends SecureHBaseConfig {
 
     public boolean monitorContext;
 
+    private double monitorContextSamplingRate = 1.0;
+
     private boolean tlsEnabled = false;
     private boolean supportPlainText = true;
 
@@ -128,6 +205,14 @@ public class TSOServerConfig extends SecureHBaseConfig {
         this.monitorContext = monitorContext;
     }
 
+    public double getMonitorContextSamplingRate() {
+        return monitorContextSamplingRate;
+    }
+
+    public void setMonitorContextSamplingRate(double monitorContextSamplingRate) {
+        this.monitorContextSamplingRate = monitorContextSamplingRate;
+    }
+
     public Boolean getLowLatency() {
         return lowLatency;
     }
@@ -176,6 +261,262 @@ public class TSOServerConfig extends SecureHBaseConfig {
         this.batchPersistTimeoutInMs = value;
     }
 
+    public int getMaxTimestampsPerRequest() {
+        return maxTimestampsPerRequest;
+    }
+
+    public void setMaxTimestampsPerRequest(int maxTimestampsPerRequest) {
+        this.maxTimestampsPerRequest = maxTimestampsPerRequest;
+    }
+
+    public int getMaxInFlightBatchesPerCTWriter() {
+        return maxInFlightBatchesPerCTWriter;
+    }
+
+    public void setMaxInFlightBatchesPerCTWriter(int maxInFlightBatchesPerCTWriter) {
+        this.maxInFlightBatchesPerCTWriter = maxInFlightBatchesPerCTWriter;
+    }
+
+    public int getBatchMaxAgeInMs() {
+        return batchMaxAgeInMs;
+    }
+
+    public void setBatchMaxAgeInMs(int batchMaxAgeInMs) {
+        this.batchMaxAgeInMs = batchMaxAgeInMs;
+    }
+
+    public boolean getAdaptiveBatching() {
+        return adaptiveBatching;
+    }
+
+    public void setAdaptiveBatching(boolean adaptiveBatching) {
+        this.adaptiveBatching = adaptiveBatching;
+    }
+
+    public int getBatchLatencyTargetInMs() {
+        return batchLatencyTargetInMs;
+    }
+
+    public void setBatchLatencyTargetInMs(int batchLatencyTargetInMs) {
+        this.batchLatencyTargetInMs = batchLatencyTargetInMs;
+    }
+
+    public int getConflictDetectionPartitions() {
+        return conflictDetectionPartitions;
+    }
+
+    public void setConflictDetectionPartitions(int conflictDetectionPartitions) {
+        this.conflictDetectionPartitions = conflictDetectionPartitions;
+    }
+
+    public String getConflictMapStorage() {
+        return conflictMapStorage;
+    }
+
+    public CONFLICT_MAP_STORAGE getConflictMapStorageEnum() {
+        return TSOServerConfig.CONFLICT_MAP_STORAGE.valueOf(conflictMapStorage);
+    }
+
+    public void setConflictMapStorage(String conflictMapStorage) {
+        this.conflictMapStorage = conflictMapStorage;
+    }
+
+    public String getConflictMapFile() {
+        return conflictMapFile;
+    }
+
+    public void setConflictMapFile(String conflictMapFile) {
+        this.conflictMapFile = conflictMapFile;
+    }
+
+    public String getConflictMapLayout() {
+        return conflictMapLayout;
+    }
+
+    public CONFLICT_MAP_LAYOUT getConflictMapLayoutEnum() {
+        return TSOServerConfig.CONFLICT_MAP_LAYOUT.valueOf(conflictMapLayout);
+    }
+
+    public void setConflictMapLayout(String conflictMapLayout) {
+        this.conflictMapLayout = conflictMapLayout;
+    }
+
+    public int getConflictMapMaxSize() {
+        return conflictMapMaxSize;
+    }
+
+    public void setConflictMapMaxSize(int conflictMapMaxSize) {
+        this.conflictMapMaxSize = conflictMapMaxSize;
+    }
+
+    public long getLowWatermarkLagTarget() {
+        return lowWatermarkLagTarget;
+    }
+
+    public void setLowWatermarkLagTarget(long lowWatermarkLagTarget) {
+        this.lowWatermarkLagTarget = lowWatermarkLagTarget;
+    }
+
+    public int getConflictMapTableGroups() {
+        return conflictMapTableGroups;
+    }
+
+    public void setConflictMapTableGroups(int conflictMapTableGroups) {
+        this.conflictMapTableGroups = conflictMapTableGroups;
+    }
+
+    public boolean getSpeculativeConflictCheck() {
+        return speculativeConflictCheck;
+    }
+
+    public void setSpeculativeConflictCheck(boolean speculativeConflictCheck) {
+        this.speculativeConflictCheck = speculativeConflictCheck;
+    }
+
+    public int getConflictDetectionBatchSize() {
+        return conflictDetectionBatchSize;
+    }
+
+    public void setConflictDetectionBatchSize(int conflictDetectionBatchSize) {
+        this.conflictDetectionBatchSize = conflictDetectionBatchSize;
+    }
+
+    public int getRequestRingSize() {
+        return requestRingSize;
+    }
+
+    public void setRequestRingSize(int requestRingSize) {
+        this.requestRingSize = requestRingSize;
+    }
+
+    public int getNumIngestRings() {
+        return numIngestRings;
+    }
+
+    public void setNumIngestRings(int numIngestRings) {
+        this.numIngestRings = numIngestRings;
+    }
+
+    public int getIngestRingSize() {
+        return ingestRingSize;
+    }
+
+    public void setIngestRingSize(int ingestRingSize) {
+        this.ingestRingSize = ingestRingSize;
+    }
+
+    public int getNumReplyWorkers() {
+        return numReplyWorkers;
+    }
+
+    public void setNumReplyWorkers(int numReplyWorkers) {
+        this.numReplyWorkers = numReplyWorkers;
+    }
+
+    public boolean getRelaxedReplyOrdering() {
+        return relaxedReplyOrdering;
+    }
+
+    public void setRelaxedReplyOrdering(boolean relaxedReplyOrdering) {
+        this.relaxedReplyOrdering = relaxedReplyOrdering;
+    }
+
+    public boolean getNativeTransport() {
+        return nativeTransport;
+    }
+
+    public void setNativeTransport(boolean nativeTransport) {
+        this.nativeTransport = nativeTransport;
+    }
+
+    public int getNumNetworkWorkerThreads() {
+        return numNetworkWorkerThreads;
+    }
+
+    public void setNumNetworkWorkerThreads(int numNetworkWorkerThreads) {
+        this.numNetworkWorkerThreads = numNetworkWorkerThreads;
+    }
+
+    public int getBusyPollInUs() {
+        return busyPollInUs;
+    }
+
+    public void setBusyPollInUs(int busyPollInUs) {
+        this.busyPollInUs = busyPollInUs;
+    }
+
+    public boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public boolean getAdmissionControl() {
+        return admissionControl;
+    }
+
+    public void setAdmissionControl(boolean admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    public int getAdmissionMaxQueueOccupancyPercent() {
+        return admissionMaxQueueOccupancyPercent;
+    }
+
+    public void setAdmissionMaxQueueOccupancyPercent(int admissionMaxQueueOccupancyPercent) {
+        this.admissionMaxQueueOccupancyPercent = admissionMaxQueueOccupancyPercent;
+    }
+
+    public int getAdmissionMaxBatchLatencyInMs() {
+        return admissionMaxBatchLatencyInMs;
+    }
+
+    public void setAdmissionMaxBatchLatencyInMs(int admissionMaxBatchLatencyInMs) {
+        this.admissionMaxBatchLatencyInMs = admissionMaxBatchLatencyInMs;
+    }
+
+    public int getOverloadedRetryAfterInMs() {
+        return overloadedRetryAfterInMs;
+    }
+
+    public void setOverloadedRetryAfterInMs(int overloadedRetryAfterInMs) {
+        this.overloadedRetryAfterInMs = overloadedRetryAfterInMs;
+    }
+
+    public boolean getShedExpiredRequests() {
+        return shedExpiredRequests;
+    }
+
+    public void setShedExpiredRequests(boolean shedExpiredRequests) {
+        this.shedExpiredRequests = shedExpiredRequests;
+    }
+
+    public boolean getPersistenceBypass() {
+        return persistenceBypass;
+    }
+
+    public void setPersistenceBypass(boolean persistenceBypass) {
+        this.persistenceBypass = persistenceBypass;
+    }
+
     public String getNetworkIfaceName() {
         return networkIfaceName;
     }
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.committable.CommitTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Conflict map split in table groups. Tables are assigned to a group with {@link CommitTable#tableGroupOf(long, int)}
+ * and each group has its own {@link CommitHashMap} and low watermark, so the evictions caused by a hot table only
+ * raise the low watermark of its group. Txs that do not report their tables are tracked in an extra, untagged group.
+ *
+ * A tx reporting its tables checks and updates the maps of the groups of its tables, and also checks the untagged
+ * group, as untagged txs may have written the same cells. Untagged txs check all the groups and update the untagged
+ * one. Therefore, a tx writing to a table of group g is aborted if it started before the low watermark of g or the low
+ * watermark of the untagged group. This is the effective low watermark of g reported by {@link #getLowWatermarks()}.
+ *
+ * Not thread safe. It is meant to be used from the request processor thread.
+ */
+class TableGroupConflictMaps {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TableGroupConflictMaps.class);
+
+    private final int numTableGroups;
+    private final CommitHashMap[] maps; // The last one is the untagged group
+    private final long[] lowWatermarks;
+
+    // Scratch space to collect the groups of the tables of a tx without allocating
+    private final boolean[] txGroups;
+
+    TableGroupConflictMaps(TSOServerConfig config, int numTableGroups) throws IOException {
+        if (numTableGroups <= 0) {
+            throw new IllegalArgumentException("Illegal number of table groups: " + numTableGroups);
+        }
+        this.numTableGroups = numTableGroups;
+        this.maps = new CommitHashMap[numTableGroups + 1];
+        int groupSize = Math.max(1, config.getConflictMapSize() / numTableGroups);
+        for (int i = 0; i < maps.length; i++) {
+            maps[i] = CommitHashMap.create(config, groupSize, "-group-" + i);
+        }
+        this.lowWatermarks = new long[numTableGroups + 1];
+        this.txGroups = new boolean[numTableGroups];
+        LOG.info("Conflict map split in {} table groups of {} buckets", numTableGroups, groupSize);
+    }
+
+    int getNumTableGroups() {
+        return numTableGroups;
+    }
+
+    /**
+     * Sets the low watermark of all the groups. Called when the TSO gets leadership
+     */
+    void reset(long lowWatermark) {
+        Arrays.fill(lowWatermarks, lowWatermark);
+    }
+
+    boolean hasConflicts(long startTimestamp, long[] writeSet, int numCells, long[] tableIdSet, int numTableIds) {
+        if (numTableIds == 0) {
+            for (int g = 0; g <= numTableGroups; g++) {
+                if (hasConflicts(g, startTimestamp, writeSet, numCells)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        markTxGroups(tableIdSet, numTableIds);
+        for (int g = 0; g < numTableGroups; g++) {
+            if (txGroups[g] && hasConflicts(g, startTimestamp, writeSet, numCells)) {
+                return true;
+            }
+        }
+        return hasConflicts(numTableGroups, startTimestamp, writeSet, numCells);
+    }
+
+    /**
+     * Adds the write set of a committed tx to the maps of its groups. Returns whether any low watermark changed
+     */
+    boolean commit(long[] writeSet, int numCells, long[] tableIdSet, int numTableIds, long commitTimestamp) {
+        if (numTableIds == 0) {
+            return put(numTableGroups, writeSet, numCells, commitTimestamp);
+        }
+        markTxGroups(tableIdSet, numTableIds);
+        boolean changed = false;
+        for (int g = 0; g < numTableGroups; g++) {
+            if (txGroups[g]) {
+                changed |= put(g, writeSet, numCells, commitTimestamp);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the effective low watermark of each table group, as persisted in the commit table
+     */
+    long[] getLowWatermarks() {
+        long[] effective = new long[numTableGroups];
+        for (int g = 0; g < numTableGroups; g++) {
+            effective[g] = Math.max(lowWatermarks[g], lowWatermarks[numTableGroups]);
+        }
+        return effective;
+    }
+
+    /**
+     * Returns the minimum of the effective low watermarks of the groups. No tx started before it can commit
+     */
+    long getLowWatermark() {
+        long min = Long.MAX_VALUE;
+        for (int g = 0; g < numTableGroups; g++) {
+            min = Math.min(min, Math.max(lowWatermarks[g], lowWatermarks[numTableGroups]));
+        }
+        return min;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private void markTxGroups(long[] tableIdSet, int numTableIds) {
+        Arrays.fill(txGroups, false);
+        for (int i = 0; i < numTableIds; i++) {
+            txGroups[CommitTable.tableGroupOf(tableIdSet[i], numTableGroups)] = true;
+        }
+    }
+
+    private boolean hasConflicts(int group, long startTimestamp, long[] writeSet, int numCells) {
+        if (numCells == 0) {
+            return false;
+        }
+        if (startTimestamp <= lowWatermarks[group]) {
+            return true;
+        }
+        CommitHashMap map = maps[group];
+        for (int i = 0; i < numCells; i++) {
+            long value = map.getLatestWriteForCell(writeSet[i]);
+            if (value != 0 && value >= startTimestamp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean put(int group, long[] writeSet, int numCells, long commitTimestamp) {
+        CommitHashMap map = maps[group];
+        long newLowWatermark = lowWatermarks[group];
+        for (int i = 0; i < numCells; i++) {
+            newLowWatermark = Math.max(newLowWatermark, map.putLatestWriteForCell(writeSet[i], commitTimestamp));
+        }
+        if (newLowWatermark != lowWatermarks[group]) {
+            lowWatermarks[group] = newLowWatermark;
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -36,6 +36,12 @@ public interface TimestampOracle {
      */
     long next();
 
+    /**
+     * Reserves several consecutive timestamps at once, spaced by CommitTable.MAX_CHECKPOINTS_PER_TXN like the ones
+     * returned by {@link #next()}, and returns the first of them.
+     */
+    long next(int numTimestamps);
+
     /**
      * Returns the last timestamp assigned.
      */
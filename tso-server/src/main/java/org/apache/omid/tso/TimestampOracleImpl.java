@@ -134,10 +134,19 @@ public class TimestampOracleImpl implements TimestampOracle {
     /**
      * Returns the next timestamp if available. Otherwise spins till the ts-persist thread allocates a new timestamp.
      */
-    @SuppressWarnings("StatementWithEmptyBody")
     @Override
     public long next() {
-        lastTimestamp += CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        return next(1);
+    }
+
+    /**
+     * Same as {@link #next()}, waiting if needed till the allocated timestamps cover the whole range.
+     */
+    @SuppressWarnings("StatementWithEmptyBody")
+    @Override
+    public long next(int numTimestamps) {
+        long firstTimestamp = lastTimestamp + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        lastTimestamp += (long) numTimestamps * CommitTable.MAX_CHECKPOINTS_PER_TXN;
 
         if (lastTimestamp >= nextAllocationThreshold) {
             // set the nextAllocationThread to max value of long in order to
@@ -158,7 +167,7 @@ public class TimestampOracleImpl implements TimestampOracle {
             assert (lastTimestamp < maxTimestamp);
         }
 
-        return lastTimestamp;
+        return firstTimestamp;
     }
 
     @Override
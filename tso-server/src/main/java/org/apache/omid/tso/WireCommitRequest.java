@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.phoenix.thirdparty.com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A TSOProto.CommitRequest still in its serialized form in the inbound buffer of a channel. It allows to decode the
+ * write set and the table ids of a commit straight into the primitive arrays of the request processor events, avoiding
+ * the allocation of the protobuf messages and the boxing of the cell ids.
+ *
+ * The request is decoded in two passes. The first one, {@link #wrap(ByteBuf, int, int)}, validates the frame, reads
+ * the scalar fields and counts the cells and table ids. The second one, {@link #decode(long[], long[])}, copies the
+ * cells and table ids. The ids sent as packed fixed64 values are counted from their length and copied without varint
+ * decoding. Frames using anything not understood here must be decoded with the protobuf parser.
+ *
+ * Instances are meant to be reused by the netty thread serving a channel.
+ */
+@NotThreadSafe
+final class WireCommitRequest {
+
+    // Tags (field number << 3 | wire type) used in TSOProto.Request and TSOProto.CommitRequest
+    private static final int REQUEST_COMMIT_REQUEST_TAG = 2 << 3 | 2;
+    private static final int START_TIMESTAMP_TAG = 1 << 3;
+    private static final int IS_RETRY_TAG = 2 << 3;
+    private static final int CELL_ID_TAG = 3 << 3;
+    private static final int PACKED_CELL_ID_TAG = 3 << 3 | 2;
+    private static final int TABLE_ID_TAG = 4 << 3;
+    private static final int PACKED_TABLE_ID_TAG = 4 << 3 | 2;
+    private static final int FIXED_CELL_ID_TAG = 5 << 3 | 2;
+    private static final int FIXED_TABLE_ID_TAG = 6 << 3 | 2;
+    private static final int REQUEST_DEADLINE_TAG = 6 << 3;
+
+    private static final MalformedException MALFORMED = new MalformedException();
+
+    private ByteBuf buffer;
+    private int start;
+    private int end;
+    private int pos;
+
+    private long startTimestamp;
+    private boolean isRetry;
+    private int numCells;
+    private int numTableIds;
+    private int deadlineInMs;
+
+    /**
+     * Validates that the frame passed contains a TSOProto.Request with just a commit request, and optionally its
+     * deadline, that can be decoded with this class and, if so, reads its scalar fields and counts its cells and table
+     * ids.
+     *
+     * @return true if the frame can be decoded by this class. False otherwise.
+     */
+    boolean wrap(ByteBuf buffer, int frameStart, int frameEnd) {
+
+        this.buffer = buffer;
+        this.startTimestamp = 0L;
+        this.isRetry = false;
+        this.numCells = 0;
+        this.numTableIds = 0;
+        this.deadlineInMs = -1;
+        try {
+            pos = frameStart;
+            if (pos >= frameEnd || buffer.getByte(pos++) != REQUEST_COMMIT_REQUEST_TAG) {
+                return false;
+            }
+            int length = readLength(frameEnd);
+            this.start = pos;
+            this.end = pos + length;
+            // The fields of the request are serialized in order, so the deadline can only come after the commit request
+            pos = end;
+            if (pos < frameEnd) {
+                if (buffer.getByte(pos++) != REQUEST_DEADLINE_TAG) {
+                    return false;
+                }
+                deadlineInMs = (int) readVarint(frameEnd);
+                if (pos != frameEnd || deadlineInMs < 0) {
+                    return false;
+                }
+            }
+            pos = start;
+            while (pos < end) {
+                int tag = (int) readVarint(end);
+                switch (tag) {
+                    case START_TIMESTAMP_TAG:
+                        startTimestamp = readVarint(end);
+                        break;
+                    case IS_RETRY_TAG:
+                        isRetry = readVarint(end) != 0;
+                        break;
+                    case CELL_ID_TAG:
+                        skipVarint(end);
+                        numCells++;
+                        break;
+                    case PACKED_CELL_ID_TAG:
+                        numCells += countPackedVarints();
+                        break;
+                    case TABLE_ID_TAG:
+                        skipVarint(end);
+                        numTableIds++;
+                        break;
+                    case PACKED_TABLE_ID_TAG:
+                        numTableIds += countPackedVarints();
+                        break;
+                    case FIXED_CELL_ID_TAG:
+                        numCells += countFixed64s();
+                        break;
+                    case FIXED_TABLE_ID_TAG:
+                        numTableIds += countFixed64s();
+                        break;
+                    default:
+                        return false;
+                }
+            }
+            return true;
+        } catch (MalformedException e) {
+            return false;
+        }
+
+    }
+
+    /**
+     * Copies the cell ids and the table ids of the request wrapped in the arrays passed. The arrays must be able
+     * to hold at least {@link #getNumCells()} and {@link #getNumTableIds()} elements respectively.
+     */
+    void decode(long[] cells, long[] tableIds) {
+
+        Preconditions.checkArgument(cells.length >= numCells && tableIds.length >= numTableIds);
+        int cellIdx = 0;
+        int tableIdx = 0;
+        pos = start;
+        while (pos < end) {
+            int tag = (int) readVarint(end);
+            switch (tag) {
+                case CELL_ID_TAG:
+                    cells[cellIdx++] = readVarint(end);
+                    break;
+                case PACKED_CELL_ID_TAG:
+                    cellIdx = readPackedVarints(cells, cellIdx);
+                    break;
+                case TABLE_ID_TAG:
+                    tableIds[tableIdx++] = readVarint(end);
+                    break;
+                case PACKED_TABLE_ID_TAG:
+                    tableIdx = readPackedVarints(tableIds, tableIdx);
+                    break;
+                case FIXED_CELL_ID_TAG:
+                    cellIdx = readFixed64s(cells, cellIdx);
+                    break;
+                case FIXED_TABLE_ID_TAG:
+                    tableIdx = readFixed64s(tableIds, tableIdx);
+                    break;
+                default:
+                    readVarint(end); // Scalar fields were read in wrap()
+                    break;
+            }
+        }
+
+    }
+
+    long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    boolean isRetry() {
+        return isRetry;
+    }
+
+    int getNumCells() {
+        return numCells;
+    }
+
+    int getNumTableIds() {
+        return numTableIds;
+    }
+
+    /**
+     * Returns the deadline of the request, in ms from its arrival, or -1 if it has none
+     */
+    int getDeadlineInMs() {
+        return deadlineInMs;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private long readVarint(int limit) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw MALFORMED;
+            }
+            byte b = buffer.getByte(pos++);
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw MALFORMED;
+    }
+
+    private void skipVarint(int limit) {
+        readVarint(limit);
+    }
+
+    private int readLength(int limit) {
+        long length = readVarint(limit);
+        if (length < 0 || length > limit - pos) {
+            throw MALFORMED;
+        }
+        return (int) length;
+    }
+
+    private int countPackedVarints() {
+        int length = readLength(end);
+        int packedEnd = pos + length;
+        int count = 0;
+        while (pos < packedEnd) {
+            skipVarint(packedEnd);
+            count++;
+        }
+        return count;
+    }
+
+    private int readPackedVarints(long[] values, int idx) {
+        int length = readLength(end);
+        int packedEnd = pos + length;
+        while (pos < packedEnd) {
+            values[idx++] = readVarint(packedEnd);
+        }
+        return idx;
+    }
+
+    private int countFixed64s() {
+        int length = readLength(end);
+        if (length % Long.BYTES != 0) {
+            throw MALFORMED;
+        }
+        pos += length;
+        return length / Long.BYTES;
+    }
+
+    private int readFixed64s(long[] values, int idx) {
+        int length = readLength(end);
+        int fixedEnd = pos + length;
+        while (pos < fixedEnd) {
+            values[idx++] = buffer.getLongLE(pos);
+            pos += Long.BYTES;
+        }
+        return idx;
+    }
+
+    private static final class MalformedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        MalformedException() {
+            super("Malformed commit request", null, false, false);
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A TSOProto.RequestBatch envelope still in its serialized form in the inbound buffer of a channel. It iterates the
+ * requests carried in the envelope as slices of the buffer, so each of them can be decoded as if it had been received
+ * in its own frame.
+ *
+ * Instances are meant to be reused by the netty thread serving a channel.
+ */
+@NotThreadSafe
+final class WireRequestBatch {
+
+    // Tags (field number << 3 | wire type) used in TSOProto.Request and TSOProto.RequestBatch
+    private static final int REQUEST_REQUEST_BATCH_TAG = 5 << 3 | 2;
+    private static final int REQUEST_TAG = 1 << 3 | 2;
+
+    private ByteBuf buffer;
+    private int end;
+    private int pos;
+
+    private int requestStart;
+    private int requestEnd;
+
+    /**
+     * Validates that the frame passed contains a TSOProto.Request with just a request batch and positions this class
+     * before its first request.
+     *
+     * @return true if the frame contains a request batch. False otherwise.
+     */
+    boolean wrap(ByteBuf buffer, int frameStart, int frameEnd) {
+
+        this.buffer = buffer;
+        pos = frameStart;
+        if (pos >= frameEnd || buffer.getByte(pos++) != REQUEST_REQUEST_BATCH_TAG) {
+            return false;
+        }
+        long length = readVarint(frameEnd);
+        if (length < 0 || pos + length != frameEnd) {
+            return false;
+        }
+        this.end = frameEnd;
+        return true;
+
+    }
+
+    /**
+     * Moves to the next request of the batch wrapped.
+     *
+     * @return true if there's a next request, whose bounds are given by {@link #getRequestStart()} and
+     * {@link #getRequestEnd()}. False when all the requests have been iterated.
+     * @throws IllegalArgumentException if the batch is malformed
+     */
+    boolean next() {
+
+        if (pos >= end) {
+            return false;
+        }
+        if (buffer.getByte(pos++) != REQUEST_TAG) {
+            throw new IllegalArgumentException("Malformed request batch");
+        }
+        long length = readVarint(end);
+        if (length < 0 || length > end - pos) {
+            throw new IllegalArgumentException("Malformed request batch");
+        }
+        requestStart = pos;
+        requestEnd = pos + (int) length;
+        pos = requestEnd;
+        return true;
+
+    }
+
+    int getRequestStart() {
+        return requestStart;
+    }
+
+    int getRequestEnd() {
+        return requestEnd;
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    private long readVarint(int limit) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                return -1;
+            }
+            byte b = buffer.getByte(pos++);
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+
+}
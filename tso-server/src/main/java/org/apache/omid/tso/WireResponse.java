@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Encodes the responses sent by the reply processor as length-prefixed TSOProto.Response frames, writing the protobuf
+ * wire format straight into a ByteBuf. The frames are byte by byte the same produced by serializing the protobuf
+ * messages with a length prepender, but without allocating the builders, the messages nor an extra buffer per frame.
+ * Several frames can be written to the same buffer, so all the responses for a channel are sent with a single write.
+ */
+final class WireResponse {
+
+    // Upper bound of the size of the frames encoded here: length prefix, response tag and length, aborted flag and two
+    // tagged 64 bit varints
+    static final int MAX_FRAME_SIZE = 4 + 2 + 2 + 2 * (1 + 10);
+
+    // Tags (field number << 3 | wire type) used in TSOProto.Response and its nested messages
+    private static final int TIMESTAMP_RESPONSE_TAG = 1 << 3 | 2;
+    private static final int COMMIT_RESPONSE_TAG = 2 << 3 | 2;
+    private static final int FENCE_RESPONSE_TAG = 4 << 3 | 2;
+    private static final int FIELD_1_VARINT_TAG = 1 << 3;
+    private static final int FIELD_2_VARINT_TAG = 2 << 3;
+    private static final int FIELD_3_VARINT_TAG = 3 << 3;
+
+    private WireResponse() {
+    }
+
+    static void encodeTimestampResponse(ByteBuf out, long startTimestamp) {
+        int length = 1 + varintSize(startTimestamp);
+        writeHeader(out, TIMESTAMP_RESPONSE_TAG, length);
+        out.writeByte(FIELD_1_VARINT_TAG);
+        writeVarint(out, startTimestamp);
+    }
+
+    static void encodeTimestampRangeResponse(ByteBuf out, long firstTimestamp, int numTimestamps) {
+        int length = 1 + varintSize(firstTimestamp) + 1 + varintSize(numTimestamps);
+        writeHeader(out, TIMESTAMP_RESPONSE_TAG, length);
+        out.writeByte(FIELD_1_VARINT_TAG);
+        writeVarint(out, firstTimestamp);
+        out.writeByte(FIELD_2_VARINT_TAG);
+        writeVarint(out, numTimestamps);
+    }
+
+    static void encodeCommitResponse(ByteBuf out, long startTimestamp, long commitTimestamp) {
+        int length = 2 + 1 + varintSize(startTimestamp) + 1 + varintSize(commitTimestamp);
+        writeHeader(out, COMMIT_RESPONSE_TAG, length);
+        out.writeByte(FIELD_1_VARINT_TAG);
+        out.writeByte(0); // Not aborted
+        out.writeByte(FIELD_2_VARINT_TAG);
+        writeVarint(out, startTimestamp);
+        out.writeByte(FIELD_3_VARINT_TAG);
+        writeVarint(out, commitTimestamp);
+    }
+
+    static void encodeAbortResponse(ByteBuf out, long startTimestamp) {
+        int length = 2 + 1 + varintSize(startTimestamp);
+        writeHeader(out, COMMIT_RESPONSE_TAG, length);
+        out.writeByte(FIELD_1_VARINT_TAG);
+        out.writeByte(1); // Aborted
+        out.writeByte(FIELD_2_VARINT_TAG);
+        writeVarint(out, startTimestamp);
+    }
+
+    static void encodeFenceResponse(ByteBuf out, long tableId, long fenceTimestamp) {
+        int length = 1 + varintSize(tableId) + 1 + varintSize(fenceTimestamp);
+        writeHeader(out, FENCE_RESPONSE_TAG, length);
+        out.writeByte(FIELD_1_VARINT_TAG);
+        writeVarint(out, tableId);
+        out.writeByte(FIELD_2_VARINT_TAG);
+        writeVarint(out, fenceTimestamp);
+    }
+
+    // ----------------------------------------------------------------------------------------------------------------
+    // Helper methods
+    // ----------------------------------------------------------------------------------------------------------------
+
+    // Writes the frame length and the tag and length of the response field. Nested messages are always < 128 bytes
+    private static void writeHeader(ByteBuf out, int responseTag, int responseLength) {
+        out.writeInt(2 + responseLength);
+        out.writeByte(responseTag);
+        out.writeByte(responseLength);
+    }
+
+    private static void writeVarint(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int varintSize(long value) {
+        return value == 0 ? 1 : (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+}
@@ -155,6 +155,17 @@ public class WorldClockOracleImpl implements TimestampOracle {
         return lastTimestamp;
     }
 
+    /**
+     * The timestamps of the range following the first one are taken from the current millisecond onwards, the same
+     * way {@link #next()} does when it's called several times within the same millisecond.
+     */
+    @Override
+    public long next(int numTimestamps) {
+        long firstTimestamp = next();
+        lastTimestamp += (long) (numTimestamps - 1) * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        return firstTimestamp;
+    }
+
     @Override
     public long getLast() {
         return lastTimestamp;
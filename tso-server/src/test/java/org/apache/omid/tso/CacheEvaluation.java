@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.benchmarks.utils.IntegerGenerator;
+import org.apache.omid.benchmarks.utils.ScrambledZipfianGenerator;
+import org.apache.omid.benchmarks.utils.UniformGenerator;
+import org.apache.omid.benchmarks.utils.ZipfianGenerator;
+import org.apache.omid.tso.TSOServerConfig.CONFLICT_MAP_LAYOUT;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Harness comparing the {@link ConflictMap} layouts available for the conflict map. For each layout and key stream it
+ * replays a sequence of transactions, each one writing WRITE_SET_SIZE cells drawn from the stream and running while
+ * up to MAX_TX_LENGTH other transactions commit, and reports:
+ *
+ * 1) The throughput of the conflict checks and updates, in commits and map operations per second
+ * 2) The low watermark advancement rate (timestamps per commit) and the average low watermark lag (in commits)
+ * 3) The false-abort rate: transactions aborted because of evictions, that an exact conflict map would commit
+ *
+ * Missed conflicts are also reported. They must always be zero, as the low watermark covers all evicted cells.
+ *
+ * Run it from the tso-server module with:
+ * mvn test-compile exec:java -Dexec.mainClass=org.apache.omid.tso.CacheEvaluation -Dexec.classpathScope=test
+ *     [-Dexec.args="mapSize numTransactions"]
+ */
+public class CacheEvaluation {
+
+    private static final int DEFAULT_MAP_SIZE = 1 << 20;
+    private static final int DEFAULT_TRANSACTIONS = 1 << 21;
+    private static final int WRITE_SET_SIZE = 4;
+    private static final int MAX_TX_LENGTH = 10_000;
+    private static final long KEY_SPACE = 100_000_000L;
+    private static final int ASSOCIATIVITY = 32;
+
+    enum KeyStream {
+        UNIFORM {
+            @Override
+            IntegerGenerator newGenerator() {
+                return new UniformGenerator();
+            }
+        },
+        ZIPFIAN {
+            @Override
+            IntegerGenerator newGenerator() {
+                return new ZipfianGenerator(KEY_SPACE);
+            }
+        },
+        SCRAMBLED_ZIPFIAN {
+            @Override
+            IntegerGenerator newGenerator() {
+                return new ScrambledZipfianGenerator(KEY_SPACE);
+            }
+        };
+
+        abstract IntegerGenerator newGenerator();
+    }
+
+    private static volatile long sink; // Prevents the elimination of the throughput loop
+
+    private final int mapSize;
+    private final int numTransactions;
+    private final long[] cells;
+    private final int[] txLengths;
+
+    private CacheEvaluation(int mapSize, int numTransactions, KeyStream stream) {
+        this.mapSize = mapSize;
+        this.numTransactions = numTransactions;
+        // Keys are generated upfront, so the cost of the generators is not measured
+        IntegerGenerator generator = stream.newGenerator();
+        this.cells = new long[numTransactions * WRITE_SET_SIZE];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = generator.nextInt();
+        }
+        Random random = new Random(stream.ordinal());
+        this.txLengths = new int[numTransactions];
+        for (int i = 0; i < numTransactions; i++) {
+            txLengths[i] = 1 + random.nextInt(MAX_TX_LENGTH);
+        }
+    }
+
+    public static void main(String[] args) {
+        int mapSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAP_SIZE;
+        int numTransactions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TRANSACTIONS;
+
+        System.out.format("# Map size: %d, transactions: %d, write set size: %d, max tx length: %d commits%n",
+                          mapSize, numTransactions, WRITE_SET_SIZE, MAX_TX_LENGTH);
+        System.out.format("%-18s %-24s %12s %14s %14s %14s %12s %8s%n", "stream", "layout", "commits/s", "map ops/s",
+                          "lwm ts/commit", "avg lwm lag", "false abort", "missed");
+        for (KeyStream stream : KeyStream.values()) {
+            CacheEvaluation evaluation = new CacheEvaluation(mapSize, numTransactions, stream);
+            for (CONFLICT_MAP_LAYOUT layout : CONFLICT_MAP_LAYOUT.values()) {
+                Result result = evaluation.evaluate(layout);
+                System.out.format("%-18s %-24s %12.0f %14.0f %14.4f %14.1f %11.4f%% %8d%n", stream, layout,
+                                  result.commitsPerSecond, result.commitsPerSecond * 2 * WRITE_SET_SIZE,
+                                  result.lowWatermarkAdvancePerCommit, result.avgLowWatermarkLag,
+                                  100.0 * result.falseAbortRate, result.missedConflicts);
+            }
+        }
+    }
+
+    static ConflictMap newConflictMap(CONFLICT_MAP_LAYOUT layout, int size) {
+        switch (layout) {
+            case MASKED_SET_ASSOCIATIVE:
+                return LongCache.masked(size, ASSOCIATIVITY);
+            case ROBIN_HOOD:
+                return new RobinHoodConflictMap(size, ASSOCIATIVITY);
+            case CUCKOO:
+                return new CuckooConflictMap(size);
+            case SET_ASSOCIATIVE:
+            default:
+                return new LongCache(size, ASSOCIATIVITY);
+        }
+    }
+
+    private Result evaluate(CONFLICT_MAP_LAYOUT layout) {
+        Result result = new Result();
+        measureThroughput(newConflictMap(layout, mapSize), result);
+        measureAccuracy(newConflictMap(layout, mapSize), result);
+        return result;
+    }
+
+    // Replays the transactions as the request processor would, committing all of them
+    private void measureThroughput(ConflictMap map, Result result) {
+        long lowWatermark = 0;
+        long conflicts = 0;
+        long start = System.nanoTime();
+        for (int tx = 0; tx < numTransactions; tx++) {
+            long commitTimestamp = commitTimestamp(tx);
+            long startTimestamp = startTimestamp(tx);
+            int offset = tx * WRITE_SET_SIZE;
+            for (int i = offset; i < offset + WRITE_SET_SIZE; i++) {
+                if (map.get(cells[i]) >= startTimestamp) {
+                    conflicts++;
+                }
+            }
+            for (int i = offset; i < offset + WRITE_SET_SIZE; i++) {
+                lowWatermark = Math.max(lowWatermark, map.set(cells[i], commitTimestamp));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        result.commitsPerSecond = numTransactions / (elapsed / 1e9);
+        sink = conflicts + lowWatermark;
+    }
+
+    // Replays the transactions checking the conflict map against an exact map of the recent writes
+    private void measureAccuracy(ConflictMap map, Result result) {
+        Map<Long, Long> recentWrites = new HashMap<>();
+        long lowWatermark = 0;
+        long lowWatermarkAfterWarmup = 0;
+        long lagSum = 0;
+        long falseAborts = 0;
+        long missedConflicts = 0;
+        int warmup = numTransactions / 4;
+        for (int tx = 0; tx < numTransactions; tx++) {
+            long commitTimestamp = commitTimestamp(tx);
+            long startTimestamp = startTimestamp(tx);
+            int offset = tx * WRITE_SET_SIZE;
+
+            boolean abort = startTimestamp <= lowWatermark;
+            boolean conflict = false;
+            for (int i = offset; i < offset + WRITE_SET_SIZE; i++) {
+                abort |= map.get(cells[i]) >= startTimestamp;
+                Long lastCommit = recentWrites.get(cells[i]);
+                conflict |= lastCommit != null && lastCommit > startTimestamp;
+            }
+
+            if (!abort) {
+                for (int i = offset; i < offset + WRITE_SET_SIZE; i++) {
+                    lowWatermark = Math.max(lowWatermark, map.set(cells[i], commitTimestamp));
+                    recentWrites.put(cells[i], commitTimestamp);
+                }
+            }
+            // Writes older than the longest tx can not cause conflicts anymore
+            if (tx >= MAX_TX_LENGTH) {
+                int oldOffset = (tx - MAX_TX_LENGTH) * WRITE_SET_SIZE;
+                for (int i = oldOffset; i < oldOffset + WRITE_SET_SIZE; i++) {
+                    recentWrites.remove(cells[i], commitTimestamp(tx - MAX_TX_LENGTH));
+                }
+            }
+
+            if (tx == warmup) {
+                lowWatermarkAfterWarmup = lowWatermark;
+            } else if (tx > warmup) {
+                lagSum += (commitTimestamp - lowWatermark) / 2;
+                if (abort && !conflict) {
+                    falseAborts++;
+                } else if (!abort && conflict) {
+                    missedConflicts++;
+                }
+            }
+        }
+        int measured = numTransactions - warmup - 1;
+        result.lowWatermarkAdvancePerCommit = (lowWatermark - lowWatermarkAfterWarmup) / (double) measured;
+        result.avgLowWatermarkLag = lagSum / (double) measured;
+        result.falseAbortRate = falseAborts / (double) measured;
+        result.missedConflicts = missedConflicts;
+    }
+
+    // Commit timestamps are even and start timestamps odd, so they never collide
+    private static long commitTimestamp(int tx) {
+        return 2L * (tx + 1) + 2L * MAX_TX_LENGTH;
+    }
+
+    private long startTimestamp(int tx) {
+        return commitTimestamp(tx) - 2L * txLengths[tx] - 1;
+    }
+
+    private static class Result {
+        double commitsPerSecond;
+        double lowWatermarkAdvancePerCommit;
+        double avgLowWatermarkLag;
+        double falseAbortRate;
+        long missedConflicts;
+    }
+
+}
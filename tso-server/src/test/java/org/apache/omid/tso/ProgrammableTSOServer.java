@@ -142,7 +142,9 @@ public class ProgrammableTSOServer extends ChannelInboundHandlerAdapter {
             }
 
             Response resp = responseQueue.poll();
-            if (request.hasTimestampRequest()) {
+            if (resp != null && resp.type == ResponseType.OVERLOADED) {
+                sendOverloadedResponse(((OverloadedResponse) resp).retryAfterInMs, request, channel);
+            } else if (request.hasTimestampRequest()) {
                 if (resp == null || resp.type != ResponseType.TIMESTAMP) {
                     throw new IllegalStateException("Expecting TS response to send but got " + resp);
                 }
@@ -229,6 +231,15 @@ public class ProgrammableTSOServer extends ChannelInboundHandlerAdapter {
         c.writeAndFlush(builder.build());
     }
 
+    private void sendOverloadedResponse(int retryAfterInMs, TSOProto.Request request, Channel c) {
+        TSOProto.OverloadedResponse.Builder overloadedBuilder = TSOProto.OverloadedResponse.newBuilder();
+        overloadedBuilder.setRetryAfterInMs(retryAfterInMs).setTimestampRequest(request.hasTimestampRequest());
+        if (request.hasCommitRequest()) {
+            overloadedBuilder.setStartTimestamp(request.getCommitRequest().getStartTimestamp());
+        }
+        c.writeAndFlush(TSOProto.Response.newBuilder().setOverloadedResponse(overloadedBuilder.build()).build());
+    }
+
     private static class TSOChannelContext {
         boolean handshakeComplete;
 
@@ -280,10 +291,24 @@ public class ProgrammableTSOServer extends ChannelInboundHandlerAdapter {
 
     }
 
+    /**
+     * Rejects the next timestamp or commit request received, asking the client to retry it later
+     */
+    public static class OverloadedResponse extends Response {
+
+        final int retryAfterInMs;
+
+        public OverloadedResponse(int retryAfterInMs) {
+            super(ResponseType.OVERLOADED);
+            this.retryAfterInMs = retryAfterInMs;
+        }
+
+    }
+
     abstract static class Response {
 
         enum ResponseType {
-            TIMESTAMP, COMMIT, ABORT
+            TIMESTAMP, COMMIT, ABORT, OVERLOADED
         }
 
         final ResponseType type;
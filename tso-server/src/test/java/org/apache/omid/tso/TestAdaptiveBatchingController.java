@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.metrics.NullMetricsProvider;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestAdaptiveBatchingController {
+
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final int MAX_WRITERS = 3;
+    private static final int LATENCY_TARGET_IN_MS = 10;
+    private static final long WITHIN_TARGET = MILLISECONDS.toNanos(LATENCY_TARGET_IN_MS) / 2;
+    private static final long OVER_TARGET = MILLISECONDS.toNanos(LATENCY_TARGET_IN_MS) * 2;
+    private static final long TARGET_INTERVAL = MILLISECONDS.toNanos(LATENCY_TARGET_IN_MS);
+
+    private TSOServerConfig config;
+
+    @BeforeMethod
+    void setup() {
+        config = new TSOServerConfig();
+        config.setBatchSizePerCTWriter(MAX_BATCH_SIZE);
+        config.setNumConcurrentCTWriters(MAX_WRITERS);
+        config.setBatchLatencyTargetInMs(LATENCY_TARGET_IN_MS);
+        config.setAdaptiveBatching(true);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBatchSizeAndWritersDecreaseWhenOverTheLatencyTarget() {
+
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(config, new NullMetricsProvider());
+        assertEquals(controller.getBatchSize(), MAX_BATCH_SIZE);
+        assertEquals(controller.getActiveWriters(), MAX_WRITERS);
+
+        long now = System.nanoTime();
+        controller.update(MAX_BATCH_SIZE, OVER_TARGET, now);
+        assertEquals(controller.getBatchSize(), MAX_BATCH_SIZE / 2);
+
+        // Batches over the target right after a decrease do not decrease it further
+        controller.update(MAX_BATCH_SIZE, OVER_TARGET, now + 1);
+        assertEquals(controller.getBatchSize(), MAX_BATCH_SIZE / 2);
+
+        // The batch size is halved down to 1 before writers are deactivated, down to 1 too
+        for (int i = 1; i <= 10; i++) {
+            controller.update(1, OVER_TARGET, now + i * TARGET_INTERVAL);
+        }
+        assertEquals(controller.getBatchSize(), 1);
+        assertEquals(controller.getActiveWriters(), 1);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBatchSizeAndWritersIncreaseWithFullBatchesWithinTheLatencyTarget() {
+
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(config, new NullMetricsProvider());
+        long now = System.nanoTime();
+        for (int i = 1; i <= 10; i++) {
+            controller.update(1, OVER_TARGET, now + i * TARGET_INTERVAL);
+        }
+        assertEquals(controller.getBatchSize(), 1);
+
+        // Batches that are not filled do not increase it
+        controller.update(0, WITHIN_TARGET, now);
+        assertEquals(controller.getBatchSize(), 1);
+
+        // Full batches increase the batch size additively, up to the max, and then the writers
+        int increment = MAX_BATCH_SIZE / 16;
+        controller.update(1, WITHIN_TARGET, now);
+        assertEquals(controller.getBatchSize(), 1 + increment);
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            controller.update(controller.getBatchSize(), WITHIN_TARGET, now);
+        }
+        assertEquals(controller.getBatchSize(), MAX_BATCH_SIZE);
+        assertEquals(controller.getActiveWriters(), MAX_WRITERS);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testBatchesInFlightAreLimitedToTheActiveWriters() {
+
+        AdaptiveBatchingController controller = new AdaptiveBatchingController(config, new NullMetricsProvider());
+        for (int i = 0; i < MAX_WRITERS; i++) {
+            assertTrue(controller.hasIdleWriter());
+            controller.batchSent();
+        }
+        assertFalse(controller.hasIdleWriter());
+        controller.batchFlushed(MAX_BATCH_SIZE, WITHIN_TARGET);
+        assertTrue(controller.hasIdleWriter());
+
+        // When disabled, it keeps the configured values
+        config.setAdaptiveBatching(false);
+        AdaptiveBatchingController disabledController = new AdaptiveBatchingController(config, new NullMetricsProvider());
+        for (int i = 0; i < 2 * MAX_WRITERS; i++) {
+            disabledController.batchSent();
+            disabledController.batchFlushed(1, OVER_TARGET);
+        }
+        assertTrue(disabledController.hasIdleWriter());
+        assertEquals(disabledController.getBatchSize(), MAX_BATCH_SIZE);
+        assertEquals(disabledController.getActiveWriters(), MAX_WRITERS);
+
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.metrics.NullMetricsProvider;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestAdmissionController {
+
+    private static final int MAX_BATCH_LATENCY_IN_MS = 100;
+    private static final int RETRY_AFTER_IN_MS = 10;
+
+    private TSOServerConfig config;
+
+    @BeforeMethod
+    void setup() {
+        config = new TSOServerConfig();
+        config.setAdmissionControl(true);
+        config.setAdmissionMaxQueueOccupancyPercent(50);
+        config.setAdmissionMaxBatchLatencyInMs(MAX_BATCH_LATENCY_IN_MS);
+        config.setOverloadedRetryAfterInMs(RETRY_AFTER_IN_MS);
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRequestsAreRejectedWhenTheQueueIsAboveTheThreshold() {
+
+        AdmissionController controller = newAdmissionController(new AdaptiveBatchingController(config, new NullMetricsProvider()));
+        assertTrue(controller.admit(0f));
+        assertTrue(controller.admit(0.5f));
+        assertFalse(controller.admit(0.51f));
+        assertFalse(controller.admit(1f));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRequestsAreRejectedWhileTheBatchLatencyIsAboveTheThreshold() {
+
+        AdaptiveBatchingController batchingController = new AdaptiveBatchingController(config, new NullMetricsProvider());
+        AdmissionController controller = newAdmissionController(batchingController);
+
+        // The latency is smoothed, so a single slow batch is not enough
+        batchingController.batchFlushed(1, MILLISECONDS.toNanos(MAX_BATCH_LATENCY_IN_MS * 4));
+        assertTrue(controller.admit(0f));
+        for (int i = 0; i < 32; i++) {
+            batchingController.batchFlushed(1, MILLISECONDS.toNanos(MAX_BATCH_LATENCY_IN_MS * 4));
+        }
+        assertFalse(controller.admit(0f));
+        assertTrue(controller.getRetryAfterInMs() > MAX_BATCH_LATENCY_IN_MS);
+
+        // Requests are admitted again once the batches are fast again
+        for (int i = 0; i < 64; i++) {
+            batchingController.batchFlushed(1, 0);
+        }
+        assertTrue(controller.admit(0f));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRejectionEndsWhenNoBatchIsFlushedForLongerThanTheBatchLatency() {
+
+        AdaptiveBatchingController batchingController = new AdaptiveBatchingController(config, new NullMetricsProvider());
+        AdmissionController controller = newAdmissionController(batchingController);
+
+        long batchLatencyInNs = MILLISECONDS.toNanos(MAX_BATCH_LATENCY_IN_MS * 4);
+        for (int i = 0; i < 64; i++) {
+            batchingController.batchFlushed(1, batchLatencyInNs);
+        }
+        long lastFlushTime = System.nanoTime();
+        assertFalse(controller.admit(0f));
+
+        // The rejected requests are never batched, so no more batches are flushed. The latency must not stay frozen
+        long smoothedBatchLatencyInNs = batchingController.getSmoothedBatchLatencyInNs();
+        assertFalse(controller.admit(0f, lastFlushTime + smoothedBatchLatencyInNs / 2));
+        assertTrue(controller.admit(0f, lastFlushTime + smoothedBatchLatencyInNs + MILLISECONDS.toNanos(100)));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRetryAfterIsTheBatchLatencyButNotLessThanTheConfiguredMinimum() {
+
+        AdmissionController controller = newAdmissionController(new AdaptiveBatchingController(config, new NullMetricsProvider()));
+        assertEquals(controller.getRetryAfterInMs(), RETRY_AFTER_IN_MS);
+        assertEquals(controller.retryAfterInMs(MILLISECONDS.toNanos(RETRY_AFTER_IN_MS / 2)), RETRY_AFTER_IN_MS);
+        assertEquals(controller.retryAfterInMs(MILLISECONDS.toNanos(RETRY_AFTER_IN_MS * 3)), RETRY_AFTER_IN_MS * 3);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testAllRequestsAreAdmittedWhenDisabled() {
+
+        config.setAdmissionControl(false);
+        AdmissionController controller = newAdmissionController(new AdaptiveBatchingController(config, new NullMetricsProvider()));
+        assertFalse(controller.isEnabled());
+        assertTrue(controller.admit(1f));
+
+    }
+
+    private AdmissionController newAdmissionController(AdaptiveBatchingController batchingController) {
+        return new AdmissionController(config, new NullMetricsProvider(), batchingController);
+    }
+
+}
@@ -76,6 +76,15 @@ public class TestBatch {
             // Expected, as we can not access elements in the batch greater than the current number of events
         }
 
+        // Test the batch records when its first event was added
+        long beforeFirstEvent = System.nanoTime();
+        batch.addTimestamp(ANY_ST, channel, monCtx);
+        long firstEventTime = batch.getFirstEventTime();
+        assertTrue(firstEventTime >= beforeFirstEvent);
+        batch.addAbort(ANY_ST, channel, monCtx);
+        assertEquals(batch.getFirstEventTime(), firstEventTime);
+        batch.clear();
+
         // Test when filling the batch with different types of events, that becomes full
         for (int i = 0; i < BATCH_SIZE; i++) {
             if (i % 4 == 0) {
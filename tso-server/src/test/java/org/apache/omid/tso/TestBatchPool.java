@@ -17,16 +17,22 @@
  */
 package org.apache.omid.tso;
 
+import com.google.inject.Binder;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Key;
+import com.google.inject.Module;
 import com.google.inject.TypeLiteral;
 import org.apache.commons.pool2.ObjectPool;
+import org.apache.omid.metrics.MetricsRegistry;
+import org.apache.omid.metrics.NullMetricsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -35,6 +41,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 public class TestBatchPool {
@@ -55,7 +63,12 @@ public class TestBatchPool {
         tsoServerConfig.setBatchSizePerCTWriter(BATCH_SIZE);
 
         // Injector to get the element under test: the ObjectPool<Batch> returned by Guice's BatchPoolModule
-        injector = Guice.createInjector(new BatchPoolModule(tsoServerConfig));
+        injector = Guice.createInjector(new BatchPoolModule(tsoServerConfig), new Module() {
+            @Override
+            public void configure(Binder binder) {
+                binder.bind(MetricsRegistry.class).toInstance(new NullMetricsProvider());
+            }
+        });
 
     }
 
@@ -125,4 +138,86 @@ public class TestBatchPool {
 
     }
 
-}
\ No newline at end of file
+    @Test(timeOut = 10_000)
+    public void testBlockedBorrowerGetsTheNextReturnedBatch() throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        final ObjectPool<Batch> batchPool = injector.getInstance(Key.get(new TypeLiteral<ObjectPool<Batch>>() {}));
+
+        Batch lastBatch = null;
+        for (int i = 0; i < CONCURRENT_WRITERS; i++) {
+            lastBatch = batchPool.borrowObject();
+        }
+        lastBatch.addAbort(0, null, MonitoringContextNullImpl.INSTANCE);
+
+        Future<Batch> blockedBorrow = executor.submit(new Callable<Batch>() {
+            public Batch call() throws Exception {
+                return batchPool.borrowObject();
+            }
+        });
+        try {
+            blockedBorrow.get(100, TimeUnit.MILLISECONDS);
+            fail("The pool is exhausted, so the borrower should be blocked");
+        } catch (TimeoutException ex) {
+            // Expected
+        }
+
+        batchPool.returnObject(lastBatch);
+
+        // The blocked borrower is woken up with the batch returned, which is reset
+        Batch batch = blockedBorrow.get(1, TimeUnit.SECONDS);
+        assertSame(batch, lastBatch);
+        assertTrue(batch.isEmpty(), "Returned batch should be empty");
+        assertEquals(batchPool.getNumActive(), CONCURRENT_WRITERS);
+        assertEquals(batchPool.getNumIdle(), 0);
+
+        executor.shutdown();
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testConcurrentBorrowersAndReturnersNeverRunOutOfSlots() throws Exception {
+
+        final int numThreads = CONCURRENT_WRITERS * 2;
+        final int iterations = 20_000;
+        final ObjectPool<Batch> batchPool = injector.getInstance(Key.get(new TypeLiteral<ObjectPool<Batch>>() {}));
+
+        // Returners can be preempted while scanning the slots, as other threads borrow and return batches meanwhile
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Void>> workers = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            workers.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int j = 0; j < iterations; j++) {
+                        Batch batch = batchPool.borrowObject();
+                        if (j % 8 == 0) {
+                            Thread.yield();
+                        }
+                        batchPool.returnObject(batch);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> worker : workers) {
+            worker.get();
+        }
+        assertEquals(batchPool.getNumActive(), 0);
+        assertEquals(batchPool.getNumIdle(), CONCURRENT_WRITERS);
+
+        executor.shutdown();
+
+    }
+
+    @Test(timeOut = 10_000, expectedExceptions = IllegalStateException.class)
+    public void testReturningMoreBatchesThanBorrowedFails() throws Exception {
+
+        ObjectPool<Batch> batchPool = injector.getInstance(Key.get(new TypeLiteral<ObjectPool<Batch>>() {}));
+        Batch batch = batchPool.borrowObject();
+        batchPool.returnObject(batch);
+        batchPool.returnObject(batch);
+
+    }
+
+}
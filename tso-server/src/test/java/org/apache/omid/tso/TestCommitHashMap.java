@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestCommitHashMap {
+
+    private static final int SIZE = 1000;
+
+    @Test(timeOut = 10_000)
+    public void testGrowKeepsEntries() throws Exception {
+
+        CommitHashMap map = new CommitHashMap(SIZE);
+        for (long cellId = 1; cellId <= SIZE; cellId++) {
+            assertEquals(map.putLatestWriteForCell(cellId, cellId + 100), 0L);
+        }
+
+        map.resize(4 * SIZE);
+        assertTrue(map.isResizing());
+        assertEquals(map.getSize(), 4 * SIZE);
+
+        // Entries are found while migrating, and newer writes take precedence over the migrated ones
+        assertEquals(map.putLatestWriteForCell(1L, 10_000L), 0L);
+        for (long cellId = 2; cellId <= SIZE; cellId++) {
+            assertEquals(map.getLatestWriteForCell(cellId), cellId + 100);
+        }
+        finishResize(map);
+        assertEquals(map.getLatestWriteForCell(1L), 10_000L);
+        for (long cellId = 2; cellId <= SIZE; cellId++) {
+            assertEquals(map.getLatestWriteForCell(cellId), cellId + 100);
+        }
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testShrinkReportsEvictions() throws Exception {
+
+        CommitHashMap map = new CommitHashMap(4 * SIZE);
+        long largestCommitTimestamp = 0;
+        for (long cellId = 1; cellId <= 2 * SIZE; cellId++) {
+            largestCommitTimestamp = cellId + 100;
+            assertEquals(map.putLatestWriteForCell(cellId, largestCommitTimestamp), 0L);
+        }
+
+        map.resize(SIZE / 4);
+        long lowWatermark = 0;
+        while (map.isResizing()) {
+            lowWatermark = Math.max(lowWatermark, map.putLatestWriteForCell(-1L, ++largestCommitTimestamp));
+        }
+        assertTrue(lowWatermark > 0, "Entries not fitting the new size must be evicted");
+
+        // Any cell not present anymore must be covered by the low watermark
+        for (long cellId = 1; cellId <= 2 * SIZE; cellId++) {
+            if (map.getLatestWriteForCell(cellId) == 0) {
+                assertTrue(cellId + 100 <= lowWatermark);
+            }
+        }
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testMemoryMappedResizeUsesNewFile() throws Exception {
+
+        File file = File.createTempFile("omid-conflict-map", "");
+        file.deleteOnExit();
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapStorage(TSOServerConfig.CONFLICT_MAP_STORAGE.MEMORY_MAPPED.name());
+        config.setConflictMapFile(file.getAbsolutePath());
+
+        CommitHashMap map = CommitHashMap.create(config, SIZE, "");
+        map.putLatestWriteForCell(1L, 200L);
+        map.resize(2 * SIZE);
+        File newFile = new File(file.getAbsolutePath() + ".1");
+        newFile.deleteOnExit();
+        assertTrue(newFile.exists());
+        finishResize(map);
+
+        assertEquals(map.getLatestWriteForCell(1L), 200L);
+        assertFalse(file.exists(), "The file of the old storage must be deleted after the migration");
+
+    }
+
+    private void finishResize(CommitHashMap map) {
+        while (map.isResizing()) {
+            map.putLatestWriteForCell(-1L, Long.MAX_VALUE);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.tso.TSOServerConfig.CONFLICT_MAP_LAYOUT;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestConflictMap {
+
+    private static final int SIZE = 1 << 12;
+
+    @DataProvider(name = "layouts")
+    public Object[][] layouts() {
+        CONFLICT_MAP_LAYOUT[] layouts = CONFLICT_MAP_LAYOUT.values();
+        Object[][] params = new Object[layouts.length][];
+        for (int i = 0; i < layouts.length; i++) {
+            params[i] = new Object[] { layouts[i] };
+        }
+        return params;
+    }
+
+    @Test(dataProvider = "layouts", timeOut = 10_000)
+    public void testValuesAreOverwritten(CONFLICT_MAP_LAYOUT layout) {
+
+        ConflictMap map = CacheEvaluation.newConflictMap(layout, SIZE);
+        assertEquals(map.get(0L), 0L);
+        assertEquals(map.set(0L, 10L), 0L);
+        assertEquals(map.set(-1L, 11L), 0L);
+        assertEquals(map.set(Long.MIN_VALUE, 12L), 0L);
+        assertEquals(map.set(0L, 20L), 0L);
+        assertEquals(map.get(0L), 20L);
+        assertEquals(map.get(-1L), 11L);
+        assertEquals(map.get(Long.MIN_VALUE), 12L);
+        assertEquals(map.get(1L), 0L);
+        // Without concurrent writers, peeking is the same as getting
+        assertEquals(map.peek(0L), 20L);
+        assertEquals(map.peek(Long.MIN_VALUE), 12L);
+        assertEquals(map.peek(1L), 0L);
+
+    }
+
+    @Test(dataProvider = "layouts", timeOut = 30_000)
+    public void testEvictedCellsAreCoveredByLargestEvictedValue(CONFLICT_MAP_LAYOUT layout) {
+
+        ConflictMap map = CacheEvaluation.newConflictMap(layout, SIZE);
+        Map<Long, Long> lastWrites = new HashMap<>();
+        Random random = new Random(layout.ordinal());
+        long largestEvicted = 0;
+        for (long value = 1; value <= 8 * SIZE; value++) {
+            long key = random.nextLong();
+            largestEvicted = Math.max(largestEvicted, map.set(key, value));
+            lastWrites.put(key, value);
+        }
+        assertTrue(largestEvicted > 0, "A full map must evict");
+
+        // The conflict map is correct if any write it forgot about is not newer than the largest evicted value
+        int found = 0;
+        for (Map.Entry<Long, Long> write : lastWrites.entrySet()) {
+            long value = map.get(write.getKey());
+            if (value == 0) {
+                assertTrue(write.getValue() <= largestEvicted);
+            } else {
+                assertEquals(value, (long) write.getValue());
+                found++;
+            }
+        }
+        assertTrue(found >= SIZE / 2, "Only " + found + " entries kept in a map of size " + SIZE);
+
+    }
+
+}
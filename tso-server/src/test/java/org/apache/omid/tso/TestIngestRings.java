@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.TimeoutHandler;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestIngestRings {
+
+    private static final int NUM_RINGS = 2;
+    private static final int RING_SIZE = 16;
+    private static final int NUM_PRODUCERS = 4;
+    private static final int EVENTS_PER_PRODUCER = 10_000;
+
+    private ExecutorService consumerExec;
+    private IngestRings<Event> ingestRings;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        consumerExec = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterMethod
+    public void afterMethod() throws Exception {
+        ingestRings.halt();
+        consumerExec.shutdownNow();
+        consumerExec.awaitTermination(3, TimeUnit.SECONDS);
+    }
+
+    @Test(timeOut = 30_000)
+    public void testEventsOfEachProducerAreConsumedInOrder() throws Exception {
+
+        final long[] lastEventOfProducer = new long[NUM_PRODUCERS];
+        final List<String> errors = new ArrayList<>();
+        final CountDownLatch consumed = new CountDownLatch(NUM_PRODUCERS * EVENTS_PER_PRODUCER);
+        EventHandler<Event> handler = new EventHandler<Event>() {
+            @Override
+            public void onEvent(Event event, long sequence, boolean endOfBatch) {
+                if (event.value != lastEventOfProducer[event.producer] + 1) {
+                    errors.add("Producer " + event.producer + ": " + event.value + " after " + lastEventOfProducer[event.producer]);
+                }
+                lastEventOfProducer[event.producer] = event.value;
+                consumed.countDown();
+            }
+        };
+        start(handler, mock(TimeoutHandler.class), 1000);
+
+        // More producers than rings, so some of them share a ring
+        Thread[] producers = new Thread[NUM_PRODUCERS];
+        for (int i = 0; i < NUM_PRODUCERS; i++) {
+            final int producer = i;
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (long value = 1; value <= EVENTS_PER_PRODUCER; value++) {
+                        publish(producer, value);
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        consumed.await();
+        assertTrue(errors.isEmpty(), errors.toString());
+        for (long lastEvent : lastEventOfProducer) {
+            assertEquals(lastEvent, EVENTS_PER_PRODUCER);
+        }
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testTimeoutHandlerIsCalledWhenIdle() throws Exception {
+
+        final CountDownLatch timeouts = new CountDownLatch(2);
+        final CountDownLatch consumed = new CountDownLatch(1);
+        TimeoutHandler timeoutHandler = new TimeoutHandler() {
+            @Override
+            public void onTimeout(long sequence) {
+                timeouts.countDown();
+            }
+        };
+        EventHandler<Event> handler = new EventHandler<Event>() {
+            @Override
+            public void onEvent(Event event, long sequence, boolean endOfBatch) {
+                assertTrue(endOfBatch);
+                consumed.countDown();
+            }
+        };
+        start(handler, timeoutHandler, 10);
+
+        timeouts.await();
+        // Events published after parking wake up the consumer
+        publish(0, 1L);
+        consumed.await();
+
+    }
+
+    private void start(EventHandler<Event> handler, TimeoutHandler timeoutHandler, long timeoutInMs) {
+        ingestRings = new IngestRings<>(Event.EVENT_FACTORY, NUM_RINGS, RING_SIZE, RING_SIZE, handler, timeoutHandler,
+                                        new FatalExceptionHandler(new MockPanicker()), timeoutInMs, TimeUnit.MILLISECONDS);
+        consumerExec.execute(ingestRings);
+    }
+
+    private void publish(int producer, long value) {
+        RingBuffer<Event> ring = ingestRings.ringOfCurrentThread();
+        long seq = ring.next();
+        Event event = ring.get(seq);
+        event.producer = producer;
+        event.value = value;
+        ring.publish(seq);
+        ingestRings.signal();
+    }
+
+    private static final class Event {
+
+        private int producer;
+        private long value;
+
+        static final EventFactory<Event> EVENT_FACTORY = new EventFactory<Event>() {
+            @Override
+            public Event newInstance() {
+                return new Event();
+            }
+        };
+
+    }
+
+}
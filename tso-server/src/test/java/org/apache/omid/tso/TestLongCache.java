@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
@@ -108,4 +109,85 @@ public class TestLongCache {
         assertTrue(avgGap > entries * 0.6, "avgGap should be greater than entries * 0.6");
 
     }
+
+    @Test(timeOut = 10_000)
+    public void testOffHeapCacheBehavesLikeHeapCache() {
+
+        final int entries = 1000;
+        assertSameBehaviour(new LongCache(entries, 16), OffHeapLongCache.direct(entries, 16), entries * 20);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testMemoryMappedCacheBehavesLikeHeapCache() throws Exception {
+
+        final int entries = 1000;
+        File file = File.createTempFile("omid-conflict-map", ".test");
+        file.deleteOnExit();
+        assertSameBehaviour(new LongCache(entries, 16), OffHeapLongCache.mapped(entries, 16, file), entries * 20);
+        assertEquals(file.length(), (long) LongCache.numSlots(entries, 16) * Long.BYTES);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testPeekNeverReturnsTheValueOfAnotherKey() {
+
+        final long evictedKey = 1;
+        final long newKey = 2;
+
+        // Peeks the new key between each of the stores done by set(), as a concurrent speculative check could do
+        LongCache cache = new LongCache(1, 1, true, false) {
+            @Override
+            protected void write(int slot, long value) {
+                super.write(slot, value);
+                long peeked = peek(newKey);
+                assertTrue(peeked == 0 || peeked == 10,
+                           "Peeked " + peeked + " for a key whose latest write was at 10");
+                peeked = peek(evictedKey);
+                assertTrue(peeked == 0 || peeked == 100,
+                           "Peeked " + peeked + " for a key whose latest write was at 100");
+            }
+        };
+        cache.set(evictedKey, 100);
+
+        // Entries migrated from a previous map can be older than the ones they evict, so the new key must never
+        // be paired with the evicted value. Otherwise a transaction started at 50 would be aborted speculatively
+        assertEquals(cache.set(newKey, 10), 100L);
+        assertEquals(cache.peek(newKey), 10L);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testPrefetchKeepsTheContents() {
+
+        final int entries = 100;
+        LongCache cache = new LongCache(entries, 4);
+        for (long key = 1; key <= entries; key++) {
+            cache.set(key, key);
+        }
+
+        // All the buckets, including the last one whose window reaches the overflow slots, in no particular order
+        long[] keys = new long[2 * entries];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keys.length - i;
+        }
+        cache.prefetch(keys, keys.length);
+
+        for (long key = 1; key <= entries; key++) {
+            assertEquals(cache.get(key), key);
+        }
+
+    }
+
+    private void assertSameBehaviour(LongCache expected, LongCache actual, int operations) {
+        long seed = random.nextLong();
+        LOG.info("Random seed: {}", seed);
+        Random keys = new Random(seed);
+        for (int i = 1; i <= operations; i++) {
+            long key = keys.nextInt(operations / 4); // Make keys repeat so not all sets are new insertions
+            assertEquals(actual.get(key), expected.get(key), "Values differ for key " + key);
+            assertEquals(actual.set(key, i), expected.set(key, i), "Evicted values differ for key " + key);
+        }
+    }
+
 }
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.metrics.NullMetricsProvider;
+import org.apache.omid.metrics.Timer;
+import org.testng.annotations.Test;
+
+import static org.apache.omid.tso.MonitoringContext.Stage.REPLY_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_TIMESTAMP;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestMonitoringContext {
+
+    @Test(timeOut = 10_000)
+    public void testOnlyTheSampledRequestsAreMonitored() {
+
+        TSOServerConfig config = new TSOServerConfig();
+        assertSame(new MonitoringContextFactory(config, new NullMetricsProvider()).newContext(),
+                   MonitoringContextNullImpl.INSTANCE);
+
+        config.setMonitorContext(true);
+        assertTrue(new MonitoringContextFactory(config, new NullMetricsProvider()).newContext()
+                           instanceof MonitoringContextImpl);
+
+        config.setMonitorContextSamplingRate(0);
+        MonitoringContextFactory factory = new MonitoringContextFactory(config, new NullMetricsProvider());
+        for (int i = 0; i < 100; i++) {
+            assertSame(factory.newContext(), MonitoringContextNullImpl.INSTANCE);
+        }
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testOnlyTheStoppedTimersArePublished() {
+
+        Timer[] timers = new Timer[MonitoringContext.Stage.values().length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = mock(Timer.class);
+        }
+        MonitoringContextImpl monCtx = new MonitoringContextImpl(timers);
+        monCtx.timerStart(REQUEST_COMMIT);
+        monCtx.timerStop(REQUEST_COMMIT);
+        monCtx.timerStart(REPLY_COMMIT);
+        monCtx.publish();
+
+        verify(timers[REQUEST_COMMIT.ordinal()], times(1)).update(anyLong());
+        verify(timers[REPLY_COMMIT.ordinal()], never()).update(anyLong());
+
+        // Measurements taken after publishing are ignored
+        monCtx.timerStop(REPLY_COMMIT);
+        verify(timers[REPLY_COMMIT.ordinal()], never()).update(anyLong());
+
+    }
+
+    @Test(timeOut = 10_000, expectedExceptions = IllegalStateException.class)
+    public void testStoppingATimerThatWasNotStartedFails() {
+
+        new MonitoringContextImpl(new NullMetricsProvider()).timerStop(REQUEST_TIMESTAMP);
+
+    }
+
+}
@@ -117,7 +117,8 @@ public class TestPanicker {
         LeaseManager leaseManager = mock(LeaseManager.class);
         doReturn(true).when(leaseManager).stillInLeasePeriod();
         TSOServerConfig config = new TSOServerConfig();
-        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool();
+        config.setConflictMapSize(1000);
+        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool(metrics);
 
         PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[config.getNumConcurrentCTWriters()];
         for (int i = 0; i < config.getNumConcurrentCTWriters(); i++) {
@@ -142,8 +143,8 @@ public class TestPanicker {
 
         LowWatermarkWriter lowWatermarkWriter = new LowWatermarkWriterImpl(config, commitTable, metrics);
 
-        new RequestProcessorPersistCT(metrics, mock(TimestampOracle.class), proc, panicker,
-                mock(TSOServerConfig.class), lowWatermarkWriter, mock(ReplyProcessor.class));
+        new RequestProcessorPersistCT(metrics, mock(TimestampOracle.class), proc, panicker, leaseManager,
+                config, lowWatermarkWriter, mock(ReplyProcessor.class));
 
         verify(panicker, timeout(1000).atLeastOnce()).panic(anyString(), any(Throwable.class));
 
@@ -173,7 +174,8 @@ public class TestPanicker {
             }
         };
         TSOServerConfig config = new TSOServerConfig();
-        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool();
+        config.setConflictMapSize(1000);
+        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool(metrics);
 
         PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[config.getNumConcurrentCTWriters()];
         for (int i = 0; i < config.getNumConcurrentCTWriters(); i++) {
@@ -197,8 +199,8 @@ public class TestPanicker {
 
         LowWatermarkWriter lowWatermarkWriter = new LowWatermarkWriterImpl(config, commitTable, metrics);
 
-        new RequestProcessorPersistCT(metrics, mock(TimestampOracle.class), proc, panicker, mock(TSOServerConfig.class),
-                lowWatermarkWriter, mock(ReplyProcessor.class));
+        new RequestProcessorPersistCT(metrics, mock(TimestampOracle.class), proc, panicker,
+                mock(LeaseManager.class), config, lowWatermarkWriter, mock(ReplyProcessor.class));
 
         verify(panicker, timeout(1000).atLeastOnce()).panic(anyString(), any(Throwable.class));
 
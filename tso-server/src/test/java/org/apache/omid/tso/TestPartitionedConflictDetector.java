@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestPartitionedConflictDetector {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int CONFLICT_MAP_SIZE = 4000;
+
+    private PartitionedConflictDetector detector;
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictDetectionPartitions(NUM_PARTITIONS);
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        detector = new PartitionedConflictDetector(config, new MockPanicker(), new BlockingWaitStrategy());
+    }
+
+    @AfterMethod
+    public void afterMethod() throws Exception {
+        detector.close();
+    }
+
+    @Test(timeOut = 10_000)
+    public void testConflictsAreDetectedAcrossPartitions() {
+
+        // Find two cells hashing to different partitions
+        long cellA = 1L;
+        long cellB = 2L;
+        while (detector.partitionOf(cellA) == detector.partitionOf(cellB)) {
+            cellB++;
+        }
+        long[] writeSet = new long[] { cellA, cellB };
+
+        assertFalse(hasConflicts(100L, writeSet));
+        detector.commit(200L);
+
+        // A tx started before the commit conflicts, no matter the partition the cell is in
+        assertTrue(hasConflicts(150L, cellA));
+        assertTrue(hasConflicts(150L, cellB));
+        assertTrue(hasConflicts(150L, cellB, 3L, 4L, 5L));
+        // A tx started after the commit does not
+        assertFalse(hasConflicts(250L, writeSet));
+        // Checking without committing does not modify the conflict map
+        assertFalse(hasConflicts(240L, writeSet));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testEmptyWriteSetNeverConflicts() {
+
+        assertFalse(hasConflicts(1L));
+        detector.commit(2L);
+        assertEquals(detector.getLowWatermark(), 0L);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testLowWatermarkIsReportedWhenCellsAreEvicted() {
+
+        long commitTimestamp = 1;
+        for (long cellId = 1; cellId <= 10 * CONFLICT_MAP_SIZE; cellId++) {
+            assertFalse(hasConflicts(commitTimestamp, cellId));
+            detector.commit(++commitTimestamp);
+        }
+
+        long lowWatermark = detector.getLowWatermark();
+        assertNotEquals(lowWatermark, 0L);
+        // Txs that started before the evicted cells must be considered conflicting
+        assertTrue(hasConflicts(1L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testVerdictsAreAwaitedWithTheLowCpuWaitStrategy() throws Exception {
+
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictDetectionPartitions(NUM_PARTITIONS);
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        config.setWaitStrategy(TSOServerConfig.WAIT_STRATEGY.LOW_CPU.toString());
+        PartitionedConflictDetector lowCpuDetector = new PartitionedConflictDetector(config, new MockPanicker());
+        try {
+            // Enough checks for the caller to park waiting for some of the verdicts
+            long commitTimestamp = 1;
+            for (long cellId = 1; cellId <= CONFLICT_MAP_SIZE / 2; cellId++) {
+                assertFalse(lowCpuDetector.hasConflicts(commitTimestamp, new long[] { cellId, -cellId }, 2));
+                lowCpuDetector.commit(++commitTimestamp);
+            }
+            assertTrue(lowCpuDetector.hasConflicts(1L, new long[] { -1L }, 1));
+        } finally {
+            lowCpuDetector.close();
+        }
+
+    }
+
+    private boolean hasConflicts(long startTimestamp, long... writeSet) {
+        return detector.hasConflicts(startTimestamp, writeSet, writeSet.length);
+    }
+
+}
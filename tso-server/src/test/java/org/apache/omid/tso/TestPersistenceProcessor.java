@@ -40,6 +40,7 @@ import java.io.IOException;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -48,6 +49,7 @@ import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 // TODO Refactor: Make visible currentBatch in PersistenceProcessorImpl to add proper verifications
 public class TestPersistenceProcessor {
@@ -149,7 +151,7 @@ public class TestPersistenceProcessor {
         tsoConfig.setBatchSizePerCTWriter(BATCH_SIZE_PER_CT_WRITER);
         tsoConfig.setNumConcurrentCTWriters(NUM_CT_WRITERS);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, lowWatermarkWriter);
 
@@ -178,6 +180,86 @@ public class TestPersistenceProcessor {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testBatchIsFlushedWhenOlderThanMaxAge() throws Exception {
+
+        final int BATCH_MAX_AGE_IN_MS = 100;
+
+        TSOServerConfig tsoConfig = new TSOServerConfig();
+        tsoConfig.setBatchSizePerCTWriter(10);
+        tsoConfig.setBatchMaxAgeInMs(BATCH_MAX_AGE_IN_MS);
+
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
+
+        PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[tsoConfig.getNumConcurrentCTWriters()];
+        for (int i = 0; i < tsoConfig.getNumConcurrentCTWriters(); i++) {
+            handlers[i] = new PersistenceProcessorHandler(metrics, "localhost:1234",
+                                                          mock(LeaseManager.class),
+                                                          commitTable,
+                                                          mock(ReplyProcessor.class),
+                                                          retryProcessor,
+                                                          panicker);
+        }
+
+        // Component under test
+        PersistenceProcessorImpl proc = new PersistenceProcessorImpl(tsoConfig, new BlockingWaitStrategy(), commitTable, batchPool,
+                                                                     panicker, handlers, metrics);
+
+        verify(batchPool, times(1)).borrowObject(); // Called during initialization
+
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        verify(batchPool, times(1)).borrowObject(); // Neither full nor expired
+        Thread.sleep(BATCH_MAX_AGE_IN_MS);
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent()); // Flush: batch expired
+
+        verify(batchPool, times(2)).borrowObject();
+        assertTrue(proc.currentBatch.isEmpty());
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testBatchIsFlushedAtTheAdaptiveBatchSize() throws Exception {
+
+        TSOServerConfig tsoConfig = new TSOServerConfig();
+        tsoConfig.setBatchSizePerCTWriter(10);
+
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
+        AdaptiveBatchingController batchingController = mock(AdaptiveBatchingController.class);
+        doReturn(2).when(batchingController).getBatchSize();
+        doReturn(false).when(batchingController).hasIdleWriter();
+
+        PersistenceProcessorHandler[] handlers = new PersistenceProcessorHandler[tsoConfig.getNumConcurrentCTWriters()];
+        for (int i = 0; i < tsoConfig.getNumConcurrentCTWriters(); i++) {
+            handlers[i] = new PersistenceProcessorHandler(metrics, "localhost:1234",
+                                                          mock(LeaseManager.class),
+                                                          commitTable,
+                                                          mock(ReplyProcessor.class),
+                                                          retryProcessor,
+                                                          panicker,
+                                                          batchingController,
+                                                          1);
+        }
+
+        // Component under test
+        PersistenceProcessorImpl proc = new PersistenceProcessorImpl(tsoConfig, new BlockingWaitStrategy(), commitTable, batchPool,
+                                                                     panicker, handlers, metrics, batchingController);
+
+        // The batch keeps growing while there are no idle writers...
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        verify(batchPool, times(1)).borrowObject();
+
+        // ...and it is flushed once there is one
+        doReturn(true).when(batchingController).hasIdleWriter();
+        proc.addCommitToBatch(ANY_ST, ANY_CT, mock(Channel.class), mock(MonitoringContextImpl.class), Optional.<Long>absent());
+        verify(batchPool, times(2)).borrowObject();
+        verify(batchingController, times(1)).batchSent();
+        verify(batchingController, timeout(1000).times(1)).batchFlushed(eq(4), anyLong());
+
+    }
+
     @Test(timeOut = 30_000)
     public void testCommitPersistenceWithMultipleCommitTableWriters() throws Exception {
 
@@ -192,7 +274,7 @@ public class TestPersistenceProcessor {
         tsoConfig.setBatchSizePerCTWriter(BATCH_SIZE_PER_CT_WRITER);
         tsoConfig.setNumConcurrentCTWriters(NUM_CT_WRITERS);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, lowWatermarkWriter);
 
@@ -259,7 +341,7 @@ public class TestPersistenceProcessor {
         tsoConfig.setNumConcurrentCTWriters(BATCH_SIZE_PER_CT_WRITER);
         tsoConfig.setBatchPersistTimeoutInMs(100);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, lowWatermarkWriter);
 
@@ -329,7 +411,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -350,7 +432,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -371,7 +453,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -392,7 +474,7 @@ public class TestPersistenceProcessor {
         // Init a HA lease manager
         LeaseManager simulatedHALeaseManager = mock(LeaseManager.class);
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
         PersistenceProcessorHandler[] handlers = configureHandlers (tsoConfig, simulatedHALeaseManager, batchPool);
 
@@ -437,7 +519,7 @@ public class TestPersistenceProcessor {
 
         TSOServerConfig config = new TSOServerConfig();
 
-        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(config).getBatchPool());
+        ObjectPool<Batch> batchPool = spy(new BatchPoolModule(config).getBatchPool(metrics));
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, lowWatermarkWriter);
 
@@ -475,7 +557,7 @@ public class TestPersistenceProcessor {
 
         TSOServerConfig config = new TSOServerConfig();
 
-        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool();
+        ObjectPool<Batch> batchPool = new BatchPoolModule(config).getBatchPool(metrics);
 
         ReplyProcessor replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, lowWatermarkWriter);
 
@@ -18,11 +18,13 @@
 package org.apache.omid.tso;
 
 import org.apache.phoenix.thirdparty.com.google.common.base.Optional;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.SettableFuture;
 import org.apache.omid.committable.CommitTable;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.NullMetricsProvider;
 import org.apache.omid.tso.PersistenceProcessorImpl.PersistBatchEvent;
 import io.netty.channel.Channel;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -39,9 +41,11 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
@@ -504,4 +508,62 @@ public class TestPersistenceProcessorHandler {
 
     }
 
+    @Test(timeOut = 10_000)
+    public void testPipelinedFlushesAreCompletedInOrder() throws Exception {
+
+        persistenceHandler = new PersistenceProcessorHandler(metrics, "localhost:1234", leaseManager, commitTable,
+                                                             replyProcessor, retryProcessor, panicker, null, 2);
+
+        SettableFuture<Void> firstFlush = SettableFuture.create();
+        SettableFuture<Void> secondFlush = SettableFuture.create();
+        doReturn(firstFlush).doReturn(secondFlush).when(mockWriter).flushAsync();
+
+        Batch firstBatch = new Batch(BATCH_ID, BATCH_SIZE);
+        firstBatch.addCommit(FIRST_ST, FIRST_CT, null, mock(MonitoringContext.class), Optional.<Long>absent());
+        PersistBatchEvent batchEvent = new PersistBatchEvent();
+        PersistBatchEvent.makePersistBatch(batchEvent, 0, firstBatch);
+        persistenceHandler.onEvent(batchEvent);
+
+        // The handler does not wait for the first flush to send the second batch to the commit table
+        Batch secondBatch = new Batch(BATCH_ID, BATCH_SIZE);
+        secondBatch.addCommit(SECOND_ST, SECOND_CT, null, mock(MonitoringContext.class), Optional.<Long>absent());
+        PersistBatchEvent.makePersistBatch(batchEvent, 1, secondBatch);
+        persistenceHandler.onEvent(batchEvent);
+        verify(mockWriter, times(2)).flushAsync();
+        verify(mockWriter, never()).flush();
+
+        // The second batch is persisted first, but it's not replied until the first one is persisted too
+        secondFlush.set(null);
+        Thread.sleep(100);
+        verify(replyProcessor, never()).manageResponsesBatch(anyLong(), any(Batch.class));
+        firstFlush.set(null);
+
+        InOrder inOrder = inOrder(replyProcessor);
+        inOrder.verify(replyProcessor, timeout(1_000)).manageResponsesBatch(0, firstBatch);
+        inOrder.verify(replyProcessor, timeout(1_000)).manageResponsesBatch(1, secondBatch);
+        verify(panicker, never()).panic(any(String.class), any(Throwable.class));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testPanicPersistingPipelinedFlush() throws Exception {
+
+        persistenceHandler = new PersistenceProcessorHandler(metrics, "localhost:1234", leaseManager, commitTable,
+                                                             replyProcessor, retryProcessor, panicker, null, 2);
+
+        SettableFuture<Void> flush = SettableFuture.create();
+        doReturn(flush).when(mockWriter).flushAsync();
+
+        Batch batch = new Batch(BATCH_ID, BATCH_SIZE);
+        batch.addCommit(FIRST_ST, FIRST_CT, null, mock(MonitoringContext.class), Optional.<Long>absent());
+        PersistBatchEvent batchEvent = new PersistBatchEvent();
+        PersistBatchEvent.makePersistBatch(batchEvent, BATCH_SEQUENCE, batch);
+        persistenceHandler.onEvent(batchEvent);
+
+        flush.setException(new IOException());
+        verify(panicker, timeout(1_000)).panic(eq("Error persisting commit batch"), any(IOException.class));
+        verify(replyProcessor, never()).manageResponsesBatch(anyLong(), any(Batch.class));
+
+    }
+
 }
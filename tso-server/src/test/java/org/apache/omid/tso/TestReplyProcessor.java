@@ -23,7 +23,10 @@ import org.apache.commons.pool2.ObjectPool;
 import org.apache.omid.metrics.MetricsRegistry;
 import org.apache.omid.metrics.NullMetricsProvider;
 import org.apache.omid.tso.ReplyProcessorImpl.ReplyBatchEvent;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -89,7 +92,7 @@ public class TestReplyProcessor {
         // Configure null metrics provider
         metrics = new NullMetricsProvider();
 
-        batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool());
+        batchPool = spy(new BatchPoolModule(tsoConfig).getBatchPool(metrics));
 
 
         lowWatermarkWriter = mock(LowWatermarkWriter.class);
@@ -291,4 +294,160 @@ public class TestReplyProcessor {
 
     }
 
+    @Test
+    public void testTableGroupLowWatermarksArePersistedWhenTheirCommitIsReplied() throws Exception {
+
+        long[] lowWatermarksAtThirdCommit = new long[] { 10L, 20L };
+        long[] lowWatermarksAtFifthCommit = new long[] { 30L, 20L };
+        long[] lowWatermarksAtSixthCommit = new long[] { 30L, 40L };
+        replyProcessor.stageTableGroupLowWatermarks(THIRD_CT, lowWatermarksAtThirdCommit);
+        replyProcessor.stageTableGroupLowWatermarks(FIFTH_CT, lowWatermarksAtFifthCommit);
+        replyProcessor.stageTableGroupLowWatermarks(SIXTH_CT, lowWatermarksAtSixthCommit);
+
+        replyProcessor.sendCommitResponse(SECOND_ST, SECOND_CT, mock(Channel.class), monCtx, Optional.<Long>absent());
+        verify(lowWatermarkWriter, never()).persistTableGroupLowWatermarks(any(long[].class));
+
+        // Only the latest low watermarks staged up to the commit replied are persisted
+        replyProcessor.updateTableGroupLowWatermarks(FIFTH_CT);
+        verify(lowWatermarkWriter, never()).persistTableGroupLowWatermarks(lowWatermarksAtThirdCommit);
+        verify(lowWatermarkWriter, times(1)).persistTableGroupLowWatermarks(lowWatermarksAtFifthCommit);
+        verify(lowWatermarkWriter, never()).persistTableGroupLowWatermarks(lowWatermarksAtSixthCommit);
+
+        replyProcessor.sendCommitResponse(SIXTH_ST, SIXTH_CT, mock(Channel.class), monCtx, Optional.<Long>absent());
+        verify(lowWatermarkWriter, times(1)).persistTableGroupLowWatermarks(lowWatermarksAtSixthCommit);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testResponsesOfABatchAreFlushedOncePerChannel() throws Exception {
+
+        Channel firstChannel = mock(Channel.class);
+        Channel secondChannel = mock(Channel.class);
+        Batch batch = batchPool.borrowObject();
+        batch.addTimestamp(FIRST_ST, firstChannel, monCtx);
+        batch.addCommit(SECOND_ST, SECOND_CT, secondChannel, monCtx, Optional.<Long>absent());
+        batch.addAbort(THIRD_ST, firstChannel, monCtx);
+        batch.addCommit(FOURTH_ST, FOURTH_CT, firstChannel, monCtx, Optional.<Long>absent());
+        ReplyBatchEvent batchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
+        ReplyBatchEvent.makeReplyBatch(batchEvent, batch, 0);
+
+        replyProcessor.onEvent(batchEvent, ANY_DISRUPTOR_SEQUENCE, false);
+
+        ArgumentCaptor<ByteBuf> firstChannelResponses = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(firstChannel, times(1)).writeAndFlush(firstChannelResponses.capture());
+        verify(secondChannel, times(1)).writeAndFlush(any(ByteBuf.class));
+        ByteBuf expected = Unpooled.buffer();
+        WireResponse.encodeTimestampResponse(expected, FIRST_ST);
+        WireResponse.encodeAbortResponse(expected, THIRD_ST);
+        WireResponse.encodeCommitResponse(expected, FOURTH_ST, FOURTH_CT);
+        assertEquals(firstChannelResponses.getValue(), expected);
+
+        // Responses sent out of a batch are flushed right away
+        replyProcessor.sendAbortResponse(FIFTH_ST, secondChannel, monCtx);
+        verify(secondChannel, times(2)).writeAndFlush(any(ByteBuf.class));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testReplyWorkersKeepTheOrderOfTheResponsesOfEachChannel() throws Exception {
+
+        replyProcessor = new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool, lowWatermarkWriter, 2, false);
+
+        Channel firstChannel = mock(Channel.class);
+        Channel secondChannel = mock(Channel.class);
+        Channel thirdChannel = mock(Channel.class);
+        Batch firstBatch = batchPool.borrowObject();
+        firstBatch.addTimestamp(FIRST_ST, firstChannel, monCtx);
+        firstBatch.addCommit(SECOND_ST, SECOND_CT, secondChannel, monCtx, Optional.of(SECOND_ST));
+        firstBatch.addAbort(THIRD_ST, thirdChannel, monCtx);
+        Batch secondBatch = batchPool.borrowObject();
+        secondBatch.addCommit(FOURTH_ST, FOURTH_CT, thirdChannel, monCtx, Optional.<Long>absent());
+        secondBatch.addCommit(FIFTH_ST, FIFTH_CT, firstChannel, monCtx, Optional.<Long>absent());
+        ReplyBatchEvent firstBatchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
+        ReplyBatchEvent.makeReplyBatch(firstBatchEvent, firstBatch, 0);
+        ReplyBatchEvent secondBatchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
+        ReplyBatchEvent.makeReplyBatch(secondBatchEvent, secondBatch, 1);
+
+        // The second batch waits for the first one to be released to the workers
+        replyProcessor.onEvent(secondBatchEvent, ANY_DISRUPTOR_SEQUENCE, false);
+        verify(thirdChannel, after(100).never()).writeAndFlush(any());
+        replyProcessor.onEvent(firstBatchEvent, ANY_DISRUPTOR_SEQUENCE, false);
+
+        ArgumentCaptor<ByteBuf> firstChannelResponses = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(firstChannel, timeout(1000).times(2)).writeAndFlush(firstChannelResponses.capture());
+        ArgumentCaptor<ByteBuf> thirdChannelResponses = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(thirdChannel, timeout(1000).times(2)).writeAndFlush(thirdChannelResponses.capture());
+        verify(secondChannel, timeout(1000).times(1)).writeAndFlush(any(ByteBuf.class));
+
+        ByteBuf expected = Unpooled.buffer();
+        WireResponse.encodeTimestampResponse(expected, FIRST_ST);
+        assertEquals(firstChannelResponses.getAllValues().get(0), expected);
+        expected = Unpooled.buffer();
+        WireResponse.encodeCommitResponse(expected, FIFTH_ST, FIFTH_CT);
+        assertEquals(firstChannelResponses.getAllValues().get(1), expected);
+        expected = Unpooled.buffer();
+        WireResponse.encodeAbortResponse(expected, THIRD_ST);
+        assertEquals(thirdChannelResponses.getAllValues().get(0), expected);
+        expected = Unpooled.buffer();
+        WireResponse.encodeCommitResponse(expected, FOURTH_ST, FOURTH_CT);
+        assertEquals(thirdChannelResponses.getAllValues().get(1), expected);
+
+        // The low watermark is persisted by the ordering thread and the batches go back to the pool once written
+        verify(lowWatermarkWriter, times(1)).persistLowWatermark(SECOND_ST);
+        verify(batchPool, timeout(1000).times(1)).returnObject(firstBatch);
+        verify(batchPool, timeout(1000).times(1)).returnObject(secondBatch);
+
+        replyProcessor.close();
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testRelaxedOrderingRepliesCommitsAndAbortsOfBatchesPersistedOutOfOrder() throws Exception {
+
+        replyProcessor = spy(new ReplyProcessorImpl(new BlockingWaitStrategy(), metrics, panicker, batchPool,
+                                                    lowWatermarkWriter, 0, true));
+
+        Channel channel = mock(Channel.class);
+        Batch secondBatch = batchPool.borrowObject();
+        secondBatch.addTimestamp(THIRD_ST, channel, monCtx);
+        secondBatch.addCommit(FOURTH_ST, FOURTH_CT, channel, monCtx, Optional.of(FOURTH_ST));
+        secondBatch.addAbort(FIFTH_ST, channel, monCtx);
+        ReplyBatchEvent secondBatchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
+        ReplyBatchEvent.makeReplyBatch(secondBatchEvent, secondBatch, 1);
+
+        // The commit and abort are replied right away, but neither the timestamp nor the low watermark
+        replyProcessor.onEvent(secondBatchEvent, ANY_DISRUPTOR_SEQUENCE, false);
+        assertEquals(replyProcessor.nextIDToHandle.get(), 0);
+        assertEquals(replyProcessor.futureEvents.size(), 1);
+        assertEquals(batchPool.getNumActive(), 1);
+        ArgumentCaptor<ByteBuf> responses = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(channel, times(1)).writeAndFlush(responses.capture());
+        ByteBuf expected = Unpooled.buffer();
+        WireResponse.encodeCommitResponse(expected, FOURTH_ST, FOURTH_CT);
+        WireResponse.encodeAbortResponse(expected, FIFTH_ST);
+        assertEquals(responses.getValue(), expected);
+        verify(replyProcessor, never()).sendTimestampResponse(anyLong(), any(Channel.class), any(MonitoringContext.class));
+        verify(lowWatermarkWriter, never()).persistLowWatermark(anyLong());
+        assertEquals(replyProcessor.getPersistedCommitTimestamp(), -1L);
+
+        Batch firstBatch = batchPool.borrowObject();
+        firstBatch.addTimestamp(FIRST_ST, channel, monCtx);
+        ReplyBatchEvent firstBatchEvent = ReplyBatchEvent.EVENT_FACTORY.newInstance();
+        ReplyBatchEvent.makeReplyBatch(firstBatchEvent, firstBatch, 0);
+
+        // The timestamps are replied in the order of the batches, and the commit is not replied again
+        replyProcessor.onEvent(firstBatchEvent, ANY_DISRUPTOR_SEQUENCE, false);
+        assertEquals(replyProcessor.nextIDToHandle.get(), 2);
+        assertEquals(replyProcessor.futureEvents.size(), 0);
+        assertEquals(batchPool.getNumActive(), 0);
+        InOrder inOrderReplies = inOrder(replyProcessor);
+        inOrderReplies.verify(replyProcessor, times(1)).sendTimestampResponse(eq(FIRST_ST), eq(channel), eq(monCtx));
+        inOrderReplies.verify(replyProcessor, times(1)).sendTimestampResponse(eq(THIRD_ST), eq(channel), eq(monCtx));
+        verify(replyProcessor, times(1)).sendAbortResponse(eq(FIFTH_ST), eq(channel), eq(monCtx));
+        verify(channel, times(3)).writeAndFlush(any(ByteBuf.class));
+        verify(lowWatermarkWriter, times(1)).persistLowWatermark(FOURTH_ST);
+        assertEquals(replyProcessor.getPersistedCommitTimestamp(), FOURTH_CT);
+
+    }
+
 }
@@ -35,14 +35,19 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertTrue;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_COMMIT;
+import static org.apache.omid.tso.MonitoringContext.Stage.REQUEST_TIMESTAMP;
 
 public class TestRequestProcessor {
 
@@ -63,6 +68,7 @@ public class TestRequestProcessor {
     private LowWatermarkWriter lowWatermarkWriter;
     private TimestampOracleImpl timestampOracle;
     private ReplyProcessor replyProcessor;
+    private LeaseManagement leaseManager;
 
     @BeforeMethod
     public void beforeMethod() throws Exception {
@@ -77,6 +83,8 @@ public class TestRequestProcessor {
         lowWatermarkWriter = mock(LowWatermarkWriter.class);
         persist = mock(PersistenceProcessor.class);
         replyProcessor = mock(ReplyProcessor.class);
+        leaseManager = mock(LeaseManagement.class);
+        doReturn(true).when(leaseManager).stillInLeasePeriod();
         SettableFuture<Void> f = SettableFuture.create();
         f.set(null);
         doReturn(f).when(lowWatermarkWriter).persistLowWatermark(any(Long.class));
@@ -85,7 +93,7 @@ public class TestRequestProcessor {
         config.setConflictMapSize(CONFLICT_MAP_SIZE);
 
         requestProc = new RequestProcessorPersistCT(metrics, timestampOracle, persist, new MockPanicker(),
-                config, lowWatermarkWriter,replyProcessor);
+                leaseManager, config, lowWatermarkWriter,replyProcessor);
 
         // Initialize the state for the experiment
         stateManager.register(requestProc);
@@ -111,6 +119,27 @@ public class TestRequestProcessor {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testTimestampRange() throws Exception {
+
+        requestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> firstTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                firstTScapture.capture(), any(), any(MonitoringContext.class));
+        long firstTS = firstTScapture.getValue();
+
+        // A range starts right after the last timestamp handed out and reserves all its timestamps at once
+        requestProc.timestampRequest(10, null, new MonitoringContextImpl(metrics));
+        long rangeStart = firstTS + CommitTable.MAX_CHECKPOINTS_PER_TXN;
+        verify(persist, timeout(100).times(1)).addTimestampRangeToBatch(
+                eq(rangeStart), eq(10), any(), any(MonitoringContext.class));
+
+        requestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                eq(rangeStart + 10 * CommitTable.MAX_CHECKPOINTS_PER_TXN), any(), any(MonitoringContext.class));
+
+    }
+
     @Test(timeOut = 30_000)
     public void testCommit() throws Exception {
 
@@ -150,6 +179,32 @@ public class TestRequestProcessor {
 
     }
 
+    @Test(timeOut = 30_000)
+    public void testRequestsAreSkippedWhenTheirDeadlineHasPassed() throws Exception {
+
+        long expired = System.nanoTime() - 1;
+        requestProc.timestampRequest(1, expired, null, new MonitoringContextImpl(metrics));
+        requestProc.commitRequest(1L, Lists.newArrayList(1L), new ArrayList<Long>(0), false, expired, null,
+                                  new MonitoringContextImpl(metrics));
+
+        // Requests still within their deadline are processed. Once decided, commits are persisted like any other
+        long deadline = System.nanoTime() + SECONDS.toNanos(60);
+        requestProc.timestampRequest(1, deadline, null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(
+                TScapture.capture(), any(), any(MonitoringContext.class));
+        long startTS = TScapture.getValue();
+        requestProc.commitRequest(startTS, Lists.newArrayList(1L), new ArrayList<Long>(0), false, deadline, null,
+                                  new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(startTS), anyLong(), any(),
+                                                                 any(MonitoringContext.class), any(Optional.class));
+
+        verify(persist, never()).addCommitToBatch(eq(1L), anyLong(), any(), any(MonitoringContext.class),
+                                                  any(Optional.class));
+        verify(persist, never()).addAbortToBatch(eq(1L), any(), any(MonitoringContext.class));
+
+    }
+
     @Test(timeOut = 30_000)
     public void testFence() {
 
@@ -207,4 +262,219 @@ public class TestRequestProcessor {
 
 
     }
-}
\ No newline at end of file
+
+    @Test(timeOut = 30_000)
+    public void testSpeculativeConflictCheckAbortsWithoutQueuingTheRequest() throws Exception {
+
+        TimestampOracleImpl timestampOracle =
+                new TimestampOracleImpl(metrics, new TimestampOracleImpl.InMemoryTimestampStorage(), new MockPanicker());
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        config.setSpeculativeConflictCheck(true);
+        RequestProcessor speculativeRequestProc = new RequestProcessorPersistCT(metrics, timestampOracle, persist,
+                new MockPanicker(), leaseManager, config, lowWatermarkWriter, replyProcessor);
+        TSOStateManager speculativeStateManager = new TSOStateManagerImpl(timestampOracle);
+        speculativeStateManager.register(speculativeRequestProc);
+        speculativeStateManager.initialize();
+
+        speculativeRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        speculativeRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(2)).addTimestampToBatch(TScapture.capture(), any(), any(MonitoringContext.class));
+        long firstTS = TScapture.getAllValues().get(0);
+        long secondTS = TScapture.getAllValues().get(1);
+
+        List<Long> writeSet = Lists.newArrayList(1L, 20L, 203L);
+        speculativeRequestProc.commitRequest(secondTS, writeSet, new ArrayList<Long>(0), false, null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(secondTS), anyLong(), any(), any(MonitoringContext.class), any(Optional.class));
+
+        // The conflicting commit is aborted straight away from the calling thread...
+        speculativeRequestProc.commitRequest(firstTS, writeSet, new ArrayList<Long>(0), false, null, new MonitoringContextImpl(metrics));
+        verify(replyProcessor, times(1)).sendAbortResponse(eq(firstTS), any(), any(MonitoringContext.class));
+        // ...unless it is a retry, which goes through the request processor as it may have been committed already
+        speculativeRequestProc.commitRequest(firstTS, writeSet, new ArrayList<Long>(0), true, null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitRetryToBatch(eq(firstTS), any(), any(MonitoringContext.class));
+        verify(persist, never()).addAbortToBatch(eq(firstTS), any(), any(MonitoringContext.class));
+
+        speculativeRequestProc.close();
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testSpeculativeConflictCheckIsIgnoredWithLayoutsThatCanNotBePeeked() throws Exception {
+
+        TimestampOracleImpl timestampOracle =
+                new TimestampOracleImpl(metrics, new TimestampOracleImpl.InMemoryTimestampStorage(), new MockPanicker());
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        config.setConflictMapLayout("ROBIN_HOOD");
+        config.setSpeculativeConflictCheck(true);
+        RequestProcessor robinHoodRequestProc = new RequestProcessorPersistCT(metrics, timestampOracle, persist,
+                new MockPanicker(), leaseManager, config, lowWatermarkWriter, replyProcessor);
+        TSOStateManager robinHoodStateManager = new TSOStateManagerImpl(timestampOracle);
+        robinHoodStateManager.register(robinHoodRequestProc);
+        robinHoodStateManager.initialize();
+
+        robinHoodRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        robinHoodRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(2)).addTimestampToBatch(TScapture.capture(), any(), any(MonitoringContext.class));
+        long firstTS = TScapture.getAllValues().get(0);
+        long secondTS = TScapture.getAllValues().get(1);
+
+        List<Long> writeSet = Lists.newArrayList(1L, 20L, 203L);
+        robinHoodRequestProc.commitRequest(secondTS, writeSet, new ArrayList<Long>(0), false, null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(secondTS), anyLong(), any(), any(MonitoringContext.class), any(Optional.class));
+
+        // The conflicting commit is aborted by the request processor, not from the calling thread
+        robinHoodRequestProc.commitRequest(firstTS, writeSet, new ArrayList<Long>(0), false, null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(firstTS), any(), any(MonitoringContext.class));
+        verify(replyProcessor, never()).sendAbortResponse(eq(firstTS), any(), any(MonitoringContext.class));
+
+        robinHoodRequestProc.close();
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testCommitsOfABatchAreHandledInOrder() throws Exception {
+
+        requestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        requestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(2)).addTimestampToBatch(TScapture.capture(), any(), any(MonitoringContext.class));
+        long firstTS = TScapture.getAllValues().get(0);
+        long secondTS = TScapture.getAllValues().get(1);
+
+        // Deliver a batch of requests straight to the handler, as the disruptor would. Both commits are collected
+        // before any of them is checked, yet the second one must see the first one and abort
+        AbstractRequestProcessor handler = (AbstractRequestProcessor) requestProc;
+        handler.onEvent(commitEvent(secondTS, 1L, 2L), 0, false);
+        handler.onEvent(commitEvent(firstTS, 3L, 2L), 1, false);
+        verify(persist, never()).addCommitToBatch(anyLong(), anyLong(), any(), any(MonitoringContext.class), any(Optional.class));
+        MonitoringContext timestampMonCtx = new MonitoringContextImpl(metrics);
+        timestampMonCtx.timerStart(REQUEST_TIMESTAMP);
+        AbstractRequestProcessor.RequestEvent timestampEvent = new AbstractRequestProcessor.RequestEvent();
+        AbstractRequestProcessor.RequestEvent.makeTimestampRequest(timestampEvent, null, timestampMonCtx);
+        handler.onEvent(timestampEvent, 2, false);
+
+        // The pending commits are handled before the timestamp request that came after them
+        ArgumentCaptor<Long> commitTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(secondTS), commitTScapture.capture(), any(), any(MonitoringContext.class), any(Optional.class));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(firstTS), any(), any(MonitoringContext.class));
+        verify(persist, timeout(100).times(3)).addTimestampToBatch(TScapture.capture(), any(), any(MonitoringContext.class));
+        assertTrue(TScapture.getValue() > commitTScapture.getValue());
+
+        // A batch ending with a commit is handled right away
+        handler.onEvent(commitEvent(TScapture.getValue(), 1L), 3, true);
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(TScapture.getValue()), anyLong(), any(), any(MonitoringContext.class), any(Optional.class));
+
+    }
+
+    private AbstractRequestProcessor.RequestEvent commitEvent(long startTimestamp, Long... writeSet) {
+        MonitoringContext monCtx = new MonitoringContextImpl(metrics);
+        monCtx.timerStart(REQUEST_COMMIT);
+        AbstractRequestProcessor.RequestEvent event = new AbstractRequestProcessor.RequestEvent();
+        AbstractRequestProcessor.RequestEvent.makeCommitRequest(event, startTimestamp, monCtx,
+                Lists.newArrayList(writeSet), new ArrayList<Long>(0), false, null);
+        return event;
+    }
+
+    @Test(timeOut = 30_000)
+    public void testCommitWithIngestRings() throws Exception {
+
+        TimestampOracleImpl timestampOracle =
+                new TimestampOracleImpl(metrics, new TimestampOracleImpl.InMemoryTimestampStorage(), new MockPanicker());
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        config.setNumIngestRings(1);
+        RequestProcessor shardedRequestProc = new RequestProcessorPersistCT(metrics, timestampOracle, persist,
+                new MockPanicker(), leaseManager, config, lowWatermarkWriter, replyProcessor);
+        TSOStateManager shardedStateManager = new TSOStateManagerImpl(timestampOracle);
+        shardedStateManager.register(shardedRequestProc);
+        shardedStateManager.initialize();
+
+        shardedRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(1000).times(1)).addTimestampToBatch(TScapture.capture(), any(), any(MonitoringContext.class));
+        long startTS = TScapture.getValue();
+
+        // This thread takes the only ingest ring, so requests from other threads go through the shared ring
+        Thread otherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                shardedRequestProc.commitRequest(startTS, Lists.newArrayList(1L), new ArrayList<Long>(0), false, null,
+                                                 new MonitoringContextImpl(metrics));
+            }
+        });
+        otherThread.start();
+        otherThread.join();
+        verify(persist, timeout(1000).times(1)).addCommitToBatch(eq(startTS), anyLong(), any(), any(MonitoringContext.class), any(Optional.class));
+        shardedRequestProc.commitRequest(startTS, Lists.newArrayList(1L), new ArrayList<Long>(0), false, null,
+                                         new MonitoringContextImpl(metrics));
+        verify(persist, timeout(1000).times(1)).addAbortToBatch(eq(startTS), any(), any(MonitoringContext.class));
+
+        shardedRequestProc.close();
+
+    }
+
+    @Test(timeOut = 30_000)
+    public void testPersistenceBypassForTimestampsAndAborts() throws Exception {
+
+        TimestampOracleImpl timestampOracle =
+                new TimestampOracleImpl(metrics, new TimestampOracleImpl.InMemoryTimestampStorage(), new MockPanicker());
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        config.setPersistenceBypass(true);
+        doReturn(-1L).when(replyProcessor).getPersistedCommitTimestamp();
+        RequestProcessor bypassingRequestProc = new RequestProcessorPersistCT(metrics, timestampOracle, persist,
+                new MockPanicker(), leaseManager, config, lowWatermarkWriter, replyProcessor);
+        TSOStateManager bypassingStateManager = new TSOStateManagerImpl(timestampOracle);
+        bypassingStateManager.register(bypassingRequestProc);
+        bypassingStateManager.initialize();
+
+        // With no commits awaiting persistence, timestamps are replied right away
+        bypassingRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        bypassingRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> TScapture = ArgumentCaptor.forClass(Long.class);
+        verify(replyProcessor, timeout(100).times(2)).sendTimestampResponse(TScapture.capture(), any(), any(MonitoringContext.class));
+        long firstTS = TScapture.getAllValues().get(0);
+        long secondTS = TScapture.getAllValues().get(1);
+
+        List<Long> writeSet = Lists.newArrayList(1L, 20L, 203L);
+        bypassingRequestProc.commitRequest(secondTS, writeSet, new ArrayList<Long>(0), false, null, new MonitoringContextImpl(metrics));
+        ArgumentCaptor<Long> commitTScapture = ArgumentCaptor.forClass(Long.class);
+        verify(persist, timeout(100).times(1)).addCommitToBatch(eq(secondTS), commitTScapture.capture(), any(), any(MonitoringContext.class), any(Optional.class));
+
+        // Aborts are always replied right away
+        bypassingRequestProc.commitRequest(firstTS, writeSet, new ArrayList<Long>(0), false, null, new MonitoringContextImpl(metrics));
+        verify(replyProcessor, timeout(100).times(1)).sendAbortResponse(eq(firstTS), any(), any(MonitoringContext.class));
+
+        // A timestamp issued while the commit awaits persistence goes through the batch...
+        bypassingRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addTimestampToBatch(anyLong(), any(), any(MonitoringContext.class));
+
+        // ...until the commit is persisted
+        doReturn(commitTScapture.getValue()).when(replyProcessor).getPersistedCommitTimestamp();
+        bypassingRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        verify(replyProcessor, timeout(100).times(3)).sendTimestampResponse(anyLong(), any(), any(MonitoringContext.class));
+        verify(persist, never()).addAbortToBatch(anyLong(), any(), any(MonitoringContext.class));
+
+        // The timings of the replies that bypass the batches are published right away
+        MonitoringContext monCtx = mock(MonitoringContext.class);
+        bypassingRequestProc.timestampRequest(null, monCtx);
+        verify(monCtx, timeout(100).times(1)).publish();
+
+        // Once the lease is lost, timestamps and aborts go through the batches, whose flush checks the lease
+        doReturn(false).when(leaseManager).stillInLeasePeriod();
+        bypassingRequestProc.timestampRequest(null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(2)).addTimestampToBatch(anyLong(), any(), any(MonitoringContext.class));
+        bypassingRequestProc.commitRequest(firstTS, writeSet, new ArrayList<Long>(0), false, null, new MonitoringContextImpl(metrics));
+        verify(persist, timeout(100).times(1)).addAbortToBatch(eq(firstTS), any(), any(MonitoringContext.class));
+        verify(replyProcessor, times(4)).sendTimestampResponse(anyLong(), any(), any(MonitoringContext.class));
+        verify(replyProcessor, times(1)).sendAbortResponse(anyLong(), any(), any(MonitoringContext.class));
+
+        bypassingRequestProc.close();
+
+    }
+
+}
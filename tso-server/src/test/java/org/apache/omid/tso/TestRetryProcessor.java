@@ -70,7 +70,7 @@ public class TestRetryProcessor {
 
     @Test(timeOut = 10_000)
     public void testRetriedRequestForANonExistingTxReturnsAbort() throws Exception {
-        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
+        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool(metrics);
 
         // The element to test
         RetryProcessor retryProc = new RetryProcessorImpl(new YieldingWaitStrategy(), metrics, commitTable, replyProc, panicker, batchPool);
@@ -86,7 +86,7 @@ public class TestRetryProcessor {
 
     @Test(timeOut = 10_000)
     public void testRetriedRequestForAnExistingTxReturnsCommit() throws Exception {
-        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
+        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool(metrics);
 
         // The element to test
         RetryProcessor retryProc = new RetryProcessorImpl(new YieldingWaitStrategy(), metrics, commitTable, replyProc, panicker, batchPool);
@@ -120,7 +120,7 @@ public class TestRetryProcessor {
         Assert.assertTrue(invalidTxMarker.isPresent());
         Assert.assertEquals(invalidTxMarker.get().getValue(), InMemoryCommitTable.INVALID_TRANSACTION_MARKER);
 
-        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool();
+        ObjectPool<Batch> batchPool = new BatchPoolModule(new TSOServerConfig()).getBatchPool(metrics);
 
         // The element to test
         RetryProcessor retryProc = new RetryProcessorImpl(new YieldingWaitStrategy(), metrics, commitTable, replyProc, panicker, batchPool);
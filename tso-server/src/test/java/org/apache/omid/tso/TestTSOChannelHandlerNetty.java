@@ -33,6 +33,7 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -40,8 +41,11 @@ import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.codec.protobuf.ProtobufDecoder;
 import io.netty.handler.codec.protobuf.ProtobufEncoder;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.AfterMethod;
@@ -50,8 +54,14 @@ import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -59,9 +69,13 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
@@ -90,6 +104,67 @@ public class TestTSOChannelHandlerNetty {
         return new TSOChannelHandler(config, requestProcessor, new NullMetricsProvider());
     }
 
+    @Test(timeOut = 10_000)
+    public void testRequestsAreRejectedWhenOverloaded() throws Exception {
+        int port = NetworkUtils.getFreePort();
+        TSOServerConfig config = new TSOServerConfig();
+        config.setPort(port);
+        config.setAdmissionControl(true);
+        config.setOverloadedRetryAfterInMs(50);
+        TSOChannelHandler channelHandler = new TSOChannelHandler(config, requestProcessor, new NullMetricsProvider());
+        when(requestProcessor.getRequestQueueOccupancy()).thenReturn(1f);
+        try {
+            channelHandler.reconnect();
+            Bootstrap nettyClient = createNettyClientBootstrap();
+
+            // Clients not supporting it never get their requests rejected
+            Channel channel = nettyClient.connect(new InetSocketAddress("localhost", port)).sync().channel();
+            channel.writeAndFlush(TSOProto.Request.newBuilder().setHandshakeRequest(
+                    TSOProto.HandshakeRequest.newBuilder()
+                            .setClientCapabilities(TSOProto.Capabilities.newBuilder().build())).build());
+            testWritingTimestampRequest(channel);
+            channel.close().sync();
+
+            channel = nettyClient.connect(new InetSocketAddress("localhost", port)).sync().channel();
+            final BlockingQueue<TSOProto.Response> responses = new LinkedBlockingQueue<>();
+            channel.pipeline().addLast(new SimpleChannelInboundHandler<TSOProto.Response>() {
+                @Override
+                protected void channelRead0(ChannelHandlerContext ctx, TSOProto.Response response) {
+                    responses.add(response);
+                }
+            });
+            channel.writeAndFlush(TSOProto.Request.newBuilder().setHandshakeRequest(
+                    TSOProto.HandshakeRequest.newBuilder()
+                            .setClientCapabilities(TSOProto.Capabilities.newBuilder()
+                                                           .setOverloadedResponses(true).build())).build());
+            assertTrue(responses.take().hasHandshakeResponse());
+            reset(requestProcessor);
+            when(requestProcessor.getRequestQueueOccupancy()).thenReturn(1f);
+
+            channel.writeAndFlush(TSOProto.Request.newBuilder()
+                                          .setTimestampRequest(TSOProto.TimestampRequest.newBuilder().build()).build());
+            TSOProto.OverloadedResponse overloaded = responses.take().getOverloadedResponse();
+            assertTrue(overloaded.getTimestampRequest());
+            assertEquals(overloaded.getRetryAfterInMs(), 50);
+
+            channel.writeAndFlush(TSOProto.Request.newBuilder()
+                                          .setCommitRequest(TSOProto.CommitRequest.newBuilder()
+                                                                    .setStartTimestamp(666).addCellId(666).build())
+                                          .build());
+            overloaded = responses.take().getOverloadedResponse();
+            assertFalse(overloaded.getTimestampRequest());
+            assertEquals(overloaded.getStartTimestamp(), 666L);
+            verify(requestProcessor, times(0)).timestampRequest(any(), any(MonitoringContext.class));
+            verify(requestProcessor, times(0))
+                    .commitRequest(any(WireCommitRequest.class), any(), any(MonitoringContext.class));
+
+            // Fences are never rejected
+            testWritingFenceRequest(channel);
+        } finally {
+            channelHandler.close();
+        }
+    }
+
     @Test(timeOut = 10_000)
     public void testMainAPI() throws Exception {
         int port = NetworkUtils.getFreePort();
@@ -267,6 +342,10 @@ public class TestTSOChannelHandlerNetty {
             testWritingCommitRequest(channel);
 
             testWritingFenceRequest(channel);
+
+            testWritingRequestBatch(channel);
+
+            testWritingMixedRequestBatchKeepsTheOrder(channel);
         } finally {
             if(channelHandler != null) channelHandler.close();
         }
@@ -284,6 +363,8 @@ public class TestTSOChannelHandlerNetty {
         verify(requestProcessor, timeout(100).times(1)).timestampRequest(any(), any(MonitoringContext.class));
         verify(requestProcessor, timeout(100).times(0))
                 .commitRequest(anyLong(), anyCollectionOf(Long.class), anyCollectionOf(Long.class), anyBoolean(), any(), any(MonitoringContext.class));
+        verify(requestProcessor, timeout(100).times(0))
+                .commitRequest(any(WireCommitRequest.class), any(), any(MonitoringContext.class));
     }
 
     private void testWritingCommitRequest(Channel channel) throws InterruptedException {
@@ -299,8 +380,14 @@ public class TestTSOChannelHandlerNetty {
         // Write into the channel
         channel.writeAndFlush(commitBuilder.build()).await();
         verify(requestProcessor, timeout(100).times(0)).timestampRequest(any(), any(MonitoringContext.class));
+        // Commit requests are decoded straight from the channel buffer
         verify(requestProcessor, timeout(100).times(1))
-                .commitRequest(eq(666L), anyCollectionOf(Long.class), anyCollectionOf(Long.class), eq(false), any(), any(MonitoringContext.class));
+                .commitRequest(argThat(new ArgumentMatcher<WireCommitRequest>() {
+                    @Override
+                    public boolean matches(WireCommitRequest request) {
+                        return request.getStartTimestamp() == 666L && !request.isRetry() && request.getNumCells() == 1;
+                    }
+                }), any(), any(MonitoringContext.class));
     }
 
     private void testWritingFenceRequest(Channel channel) throws InterruptedException {
@@ -319,6 +406,81 @@ public class TestTSOChannelHandlerNetty {
                 .fenceRequest(eq(666L), any(), any(MonitoringContext.class));
     }
 
+    private void testWritingRequestBatch(Channel channel) throws InterruptedException {
+        // Reset mock
+        reset(requestProcessor);
+        TSOProto.RequestBatch.Builder batchBuilder = TSOProto.RequestBatch.newBuilder();
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setTimestampRequest(TSOProto.TimestampRequest.newBuilder().build()));
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setFenceRequest(TSOProto.FenceRequest.newBuilder().setTableId(666).build()));
+        // The commit goes last, as the decoder reuses the WireCommitRequest verified below for every request
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setCommitRequest(TSOProto.CommitRequest.newBuilder()
+                                                                  .setStartTimestamp(666).addCellId(666).build()));
+        // Write into the channel
+        channel.writeAndFlush(TSOProto.Request.newBuilder().setRequestBatch(batchBuilder.build()).build()).await();
+        // Every request in the batch is handled as if it had been received in its own frame
+        verify(requestProcessor, timeout(100).times(1)).timestampRequest(any(), any(MonitoringContext.class));
+        verify(requestProcessor, timeout(100).times(1))
+                .commitRequest(argThat(new ArgumentMatcher<WireCommitRequest>() {
+                    @Override
+                    public boolean matches(WireCommitRequest request) {
+                        return request.getStartTimestamp() == 666L && !request.isRetry() && request.getNumCells() == 1;
+                    }
+                }), any(), any(MonitoringContext.class));
+        verify(requestProcessor, timeout(100).times(1))
+                .fenceRequest(eq(666L), any(), any(MonitoringContext.class));
+    }
+
+    private void testWritingMixedRequestBatchKeepsTheOrder(Channel channel) throws InterruptedException {
+        // Reset mock
+        reset(requestProcessor);
+        // Record the requests as they are dispatched, as the decoder reuses the WireCommitRequest for every commit
+        final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                dispatched.add("commit " + ((WireCommitRequest) invocation.getArguments()[0]).getStartTimestamp());
+                return null;
+            }
+        }).when(requestProcessor).commitRequest(any(WireCommitRequest.class), any(), any(MonitoringContext.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                dispatched.add("timestamp");
+                return null;
+            }
+        }).when(requestProcessor).timestampRequest(any(), any(MonitoringContext.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                dispatched.add("fence " + invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(requestProcessor).fenceRequest(anyLong(), any(), any(MonitoringContext.class));
+        TSOProto.RequestBatch.Builder batchBuilder = TSOProto.RequestBatch.newBuilder();
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setTimestampRequest(TSOProto.TimestampRequest.newBuilder().build()));
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setCommitRequest(TSOProto.CommitRequest.newBuilder()
+                                                                  .setStartTimestamp(1).addCellId(1).build()));
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setFenceRequest(TSOProto.FenceRequest.newBuilder().setTableId(666).build()));
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setTimestampRequest(TSOProto.TimestampRequest.newBuilder().build()));
+        batchBuilder.addRequest(TSOProto.Request.newBuilder()
+                                        .setCommitRequest(TSOProto.CommitRequest.newBuilder()
+                                                                  .setStartTimestamp(2).addCellId(2).build()));
+        // Write into the channel
+        channel.writeAndFlush(TSOProto.Request.newBuilder().setRequestBatch(batchBuilder.build()).build()).await();
+        // The requests in the batch are handled in the order they were batched, whether decoded from the channel
+        // buffer, like the commits, or parsed, like the rest
+        verify(requestProcessor, timeout(1000).times(2))
+                .commitRequest(any(WireCommitRequest.class), any(), any(MonitoringContext.class));
+        assertEquals(dispatched, Arrays.asList("timestamp", "commit 1", "fence 666", "timestamp", "commit 2"));
+    }
+
     // ----------------------------------------------------------------------------------------------------------------
     // Helper methods
     // ----------------------------------------------------------------------------------------------------------------
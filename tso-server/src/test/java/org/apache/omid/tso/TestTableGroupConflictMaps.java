@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.committable.CommitTable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTableGroupConflictMaps {
+
+    private static final int NUM_TABLE_GROUPS = 2;
+    private static final int CONFLICT_MAP_SIZE = 2000;
+    private static final long INITIAL_LWM = 1L;
+
+    private TableGroupConflictMaps maps;
+    private long[] hotTable;
+    private long[] coldTable;
+    private final long[] noTables = new long[0];
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        TSOServerConfig config = new TSOServerConfig();
+        config.setConflictMapSize(CONFLICT_MAP_SIZE);
+        maps = new TableGroupConflictMaps(config, NUM_TABLE_GROUPS);
+        maps.reset(INITIAL_LWM);
+
+        // Find two tables in different groups
+        long coldTableId = 1L;
+        long hotTableId = 2L;
+        while (CommitTable.tableGroupOf(hotTableId, NUM_TABLE_GROUPS)
+                == CommitTable.tableGroupOf(coldTableId, NUM_TABLE_GROUPS)) {
+            hotTableId++;
+        }
+        hotTable = new long[] { hotTableId };
+        coldTable = new long[] { coldTableId };
+    }
+
+    @Test(timeOut = 10_000)
+    public void testEvictionsOfAHotTableDoNotAbortTxsOnOtherGroups() {
+
+        long commitTimestamp = 10;
+        long[] coldCells = new long[] { -1L, -2L };
+        assertFalse(hasConflicts(5L, coldCells, coldTable));
+        maps.commit(coldCells, coldCells.length, coldTable, 1, commitTimestamp);
+
+        // A long tx on the cold table starts before a burst of commits on the hot table
+        long longTxStartTimestamp = ++commitTimestamp;
+        for (long cellId = 1; cellId <= 10 * CONFLICT_MAP_SIZE; cellId++) {
+            commit(++commitTimestamp, new long[] { cellId }, hotTable);
+        }
+
+        int hotGroup = CommitTable.tableGroupOf(hotTable[0], NUM_TABLE_GROUPS);
+        int coldGroup = CommitTable.tableGroupOf(coldTable[0], NUM_TABLE_GROUPS);
+        long[] lowWatermarks = maps.getLowWatermarks();
+        assertTrue(lowWatermarks[hotGroup] > longTxStartTimestamp);
+        assertEquals(lowWatermarks[coldGroup], INITIAL_LWM);
+        assertEquals(maps.getLowWatermark(), INITIAL_LWM);
+
+        assertFalse(hasConflicts(longTxStartTimestamp, new long[] { -3L }, coldTable));
+        assertTrue(hasConflicts(longTxStartTimestamp, new long[] { 1L }, hotTable));
+        // Conflicts in the cold group are still detected
+        assertTrue(hasConflicts(5L, coldCells, coldTable));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testTxsWithoutTablesConflictWithAllGroups() {
+
+        long[] cells = new long[] { 100L };
+        maps.commit(cells, cells.length, hotTable, 1, 10L);
+        // A tx that does not report its tables sees the commits of tagged txs...
+        assertTrue(hasConflicts(5L, cells, noTables));
+        maps.commit(new long[] { 200L }, 1, noTables, 0, 20L);
+        // ...and tagged txs see its commits, whatever their group
+        assertTrue(hasConflicts(15L, new long[] { 200L }, coldTable));
+        assertTrue(hasConflicts(15L, new long[] { 200L }, hotTable));
+        assertFalse(hasConflicts(25L, new long[] { 200L }, coldTable));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testEvictionsOfUntaggedTxsRaiseTheLowWatermarksOfAllGroups() {
+
+        long commitTimestamp = 10;
+        for (long cellId = 1; cellId <= 10 * CONFLICT_MAP_SIZE; cellId++) {
+            commit(++commitTimestamp, new long[] { cellId }, noTables);
+        }
+
+        long lowWatermark = maps.getLowWatermark();
+        assertTrue(lowWatermark > INITIAL_LWM);
+        for (long groupLowWatermark : maps.getLowWatermarks()) {
+            assertEquals(groupLowWatermark, lowWatermark);
+        }
+        assertTrue(hasConflicts(lowWatermark, new long[] { -1L }, coldTable));
+
+    }
+
+    private void commit(long commitTimestamp, long[] writeSet, long[] tableIdSet) {
+        maps.commit(writeSet, writeSet.length, tableIdSet, tableIdSet.length, commitTimestamp);
+    }
+
+    private boolean hasConflicts(long startTimestamp, long[] writeSet, long[] tableIdSet) {
+        return maps.hasConflicts(startTimestamp, writeSet, writeSet.length, tableIdSet, tableIdSet.length);
+    }
+
+}
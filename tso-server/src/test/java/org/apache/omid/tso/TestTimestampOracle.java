@@ -79,6 +79,25 @@ public class TestTimestampOracle {
         LOG.info("Last timestamp: {}", last);
     }
 
+    @Test(timeOut = 60_000)
+    public void testTimestampRangesAreReservedAtOnce() throws Exception {
+
+        // Use its own component, as other tests may leave threads behind using the shared one
+        TimestampOracleImpl timestampOracle = new TimestampOracleImpl(metrics, timestampStorage, panicker);
+        timestampOracle.initialize();
+
+        // The ranges cross several timestamp batch allocations
+        final int numTimestamps = 1000;
+        long last = timestampOracle.next();
+        for (int i = 0; i < (3 * TimestampOracleImpl.TIMESTAMP_BATCH) / (numTimestamps * CommitTable.MAX_CHECKPOINTS_PER_TXN); i++) {
+            long first = timestampOracle.next(numTimestamps);
+            assertEquals(first, last + CommitTable.MAX_CHECKPOINTS_PER_TXN, "Not monotonic growth");
+            last = first + (numTimestamps - 1) * CommitTable.MAX_CHECKPOINTS_PER_TXN;
+            assertEquals(timestampOracle.getLast(), last, "The whole range must be reserved");
+        }
+        assertEquals(timestampOracle.next(), last + CommitTable.MAX_CHECKPOINTS_PER_TXN, "Not monotonic growth");
+    }
+
     @Test(timeOut = 10_000)
     public void testTimestampOraclePanicsWhenTheStorageHasProblems() throws Exception {
 
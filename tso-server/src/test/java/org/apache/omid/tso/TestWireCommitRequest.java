@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import org.apache.omid.proto.TSOProto;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestWireCommitRequest {
+
+    private final Random random = new Random();
+
+    @Test(timeOut = 10_000)
+    public void testDecodeCommitRequest() {
+
+        TSOProto.CommitRequest.Builder commitRequest = TSOProto.CommitRequest.newBuilder()
+                .setStartTimestamp(Long.MAX_VALUE - 1)
+                .setIsRetry(true);
+        long[] cells = new long[100];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = random.nextLong(); // Negative cell ids use the longest varint encoding
+            commitRequest.addCellId(cells[i]);
+        }
+        commitRequest.addTableId(7L).addTableId(-3L);
+
+        ByteBuf frame = frameOf(TSOProto.Request.newBuilder().setCommitRequest(commitRequest).build());
+
+        WireCommitRequest request = new WireCommitRequest();
+        assertTrue(request.wrap(frame, 1, frame.writerIndex()));
+        assertEquals(request.getStartTimestamp(), Long.MAX_VALUE - 1);
+        assertTrue(request.isRetry());
+        assertEquals(request.getNumCells(), cells.length);
+        assertEquals(request.getNumTableIds(), 2);
+
+        long[] decodedCells = new long[request.getNumCells()];
+        long[] decodedTableIds = new long[request.getNumTableIds()];
+        request.decode(decodedCells, decodedTableIds);
+        assertEquals(decodedCells, cells);
+        assertEquals(decodedTableIds, new long[] { 7L, -3L });
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testDecodeFixed64CommitRequest() {
+
+        TSOProto.CommitRequest.Builder varintRequest = TSOProto.CommitRequest.newBuilder().setStartTimestamp(10L);
+        TSOProto.CommitRequest.Builder fixedRequest = TSOProto.CommitRequest.newBuilder().setStartTimestamp(10L);
+        long[] cells = new long[100];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = random.nextLong();
+            varintRequest.addCellId(cells[i]);
+            fixedRequest.addFixedCellId(cells[i]);
+        }
+        varintRequest.addTableId(7L);
+        fixedRequest.addFixedTableId(7L);
+
+        ByteBuf frame = frameOf(TSOProto.Request.newBuilder().setCommitRequest(fixedRequest).build());
+        // Hashed cell ids take 8 bytes instead of a tag and a varint up to 10 bytes long
+        assertTrue(fixedRequest.build().getSerializedSize() < varintRequest.build().getSerializedSize());
+
+        WireCommitRequest request = new WireCommitRequest();
+        assertTrue(request.wrap(frame, 1, frame.writerIndex()));
+        assertEquals(request.getStartTimestamp(), 10L);
+        assertEquals(request.getNumCells(), cells.length);
+        assertEquals(request.getNumTableIds(), 1);
+
+        long[] decodedCells = new long[request.getNumCells()];
+        long[] decodedTableIds = new long[request.getNumTableIds()];
+        request.decode(decodedCells, decodedTableIds);
+        assertEquals(decodedCells, cells);
+        assertEquals(decodedTableIds, new long[] { 7L });
+
+        // Truncated fixed width cell ids
+        assertFalse(request.wrap(frame, 1, frame.writerIndex() - 3));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testDecodeCommitRequestWithDeadline() {
+
+        TSOProto.CommitRequest commitRequest = TSOProto.CommitRequest.newBuilder()
+                .setStartTimestamp(10L).addCellId(-1L).addCellId(5L).build();
+        ByteBuf frame = frameOf(TSOProto.Request.newBuilder().setCommitRequest(commitRequest).setDeadlineInMs(3000).build());
+
+        WireCommitRequest request = new WireCommitRequest();
+        assertTrue(request.wrap(frame, 1, frame.writerIndex()));
+        assertEquals(request.getStartTimestamp(), 10L);
+        assertEquals(request.getDeadlineInMs(), 3000);
+        long[] decodedCells = new long[request.getNumCells()];
+        request.decode(decodedCells, new long[0]);
+        assertEquals(decodedCells, new long[] { -1L, 5L });
+
+        // Without deadline
+        frame = frameOf(TSOProto.Request.newBuilder().setCommitRequest(commitRequest).build());
+        assertTrue(request.wrap(frame, 1, frame.writerIndex()));
+        assertEquals(request.getDeadlineInMs(), -1);
+
+        // Other fields after the commit request are not decoded here
+        frame = frameOf(TSOProto.Request.newBuilder().setCommitRequest(commitRequest)
+                                .setFenceRequest(TSOProto.FenceRequest.newBuilder().setTableId(1L)).build());
+        assertFalse(request.wrap(frame, 1, frame.writerIndex()));
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testDecodeEmptyCommitRequest() {
+
+        TSOProto.CommitRequest commitRequest = TSOProto.CommitRequest.newBuilder().setStartTimestamp(10L).build();
+        ByteBuf frame = frameOf(TSOProto.Request.newBuilder().setCommitRequest(commitRequest).build());
+
+        WireCommitRequest request = new WireCommitRequest();
+        assertTrue(request.wrap(frame, 1, frame.writerIndex()));
+        assertEquals(request.getStartTimestamp(), 10L);
+        assertFalse(request.isRetry());
+        assertEquals(request.getNumCells(), 0);
+        assertEquals(request.getNumTableIds(), 0);
+
+    }
+
+    @Test(timeOut = 10_000)
+    public void testOtherRequestsAreRejected() {
+
+        WireCommitRequest request = new WireCommitRequest();
+
+        TSOProto.Request timestampRequest = TSOProto.Request.newBuilder()
+                .setTimestampRequest(TSOProto.TimestampRequest.newBuilder()).build();
+        ByteBuf frame = frameOf(timestampRequest);
+        assertFalse(request.wrap(frame, 1, frame.writerIndex()));
+
+        // Truncated commit request
+        TSOProto.CommitRequest commitRequest = TSOProto.CommitRequest.newBuilder()
+                .setStartTimestamp(10L).addCellId(-1L).build();
+        frame = frameOf(TSOProto.Request.newBuilder().setCommitRequest(commitRequest).build());
+        assertFalse(request.wrap(frame, 1, frame.writerIndex() - 1));
+
+    }
+
+    // Returns a buffer with a leading byte before the serialized request to check that the offsets are respected
+    private ByteBuf frameOf(TSOProto.Request request) {
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeByte(0xFF);
+        buffer.writeBytes(request.toByteArray());
+        return buffer;
+    }
+
+}
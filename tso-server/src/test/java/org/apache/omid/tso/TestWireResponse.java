@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.omid.tso;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.omid.proto.TSOProto;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestWireResponse {
+
+    @DataProvider(name = "timestamps")
+    public Object[][] timestamps() {
+        return new Object[][] {
+                { 0L, 1L },
+                { 1L, 127L },
+                { 128L, 16_383L },
+                { 1_600_000_000_000_000L, 1_600_000_000_000_050L },
+                { Long.MAX_VALUE, -1L },
+                { Long.MIN_VALUE, -1_000L },
+        };
+    }
+
+    @Test(dataProvider = "timestamps")
+    public void testFramesMatchProtobufSerialization(long first, long second) throws Exception {
+
+        ByteBuf out = Unpooled.buffer();
+        WireResponse.encodeTimestampResponse(out, first);
+        assertFrame(out, TSOProto.Response.newBuilder()
+                .setTimestampResponse(TSOProto.TimestampResponse.newBuilder().setStartTimestamp(first))
+                .build());
+
+        WireResponse.encodeCommitResponse(out, first, second);
+        assertFrame(out, TSOProto.Response.newBuilder()
+                .setCommitResponse(TSOProto.CommitResponse.newBuilder()
+                                           .setAborted(false).setStartTimestamp(first).setCommitTimestamp(second))
+                .build());
+
+        WireResponse.encodeAbortResponse(out, first);
+        assertFrame(out, TSOProto.Response.newBuilder()
+                .setCommitResponse(TSOProto.CommitResponse.newBuilder().setAborted(true).setStartTimestamp(first))
+                .build());
+
+        WireResponse.encodeFenceResponse(out, first, second);
+        assertFrame(out, TSOProto.Response.newBuilder()
+                .setFenceResponse(TSOProto.FenceResponse.newBuilder().setTableId(first).setFenceId(second))
+                .build());
+
+        assertEquals(out.readableBytes(), 0);
+
+    }
+
+    // Checks the next frame in the buffer is the length-prefixed serialization of the response passed
+    private void assertFrame(ByteBuf in, TSOProto.Response expected) {
+        byte[] expectedBytes = expected.toByteArray();
+        assertTrue(4 + expectedBytes.length <= WireResponse.MAX_FRAME_SIZE);
+        assertEquals(in.readInt(), expectedBytes.length);
+        byte[] frame = new byte[expectedBytes.length];
+        in.readBytes(frame);
+        assertEquals(frame, expectedBytes);
+    }
+
+}
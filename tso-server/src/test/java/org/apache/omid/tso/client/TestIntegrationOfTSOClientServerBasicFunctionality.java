@@ -38,7 +38,9 @@ import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
@@ -151,6 +153,50 @@ public class TestIntegrationOfTSOClientServerBasicFunctionality {
         assertTrue(startTsTx3 >= referenceTimestamp, "Should grow monotonically");
     }
 
+    @Test(timeOut = 30_000)
+    public void testConcurrentTimestampRequestsGetDistinctTimestamps() throws Exception {
+        // Requests issued back to back are sent as timestamp ranges
+        List<TSOFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(tsoClient.getNewStartTimestamp());
+        }
+        Set<Long> startTimestamps = new HashSet<>();
+        for (TSOFuture<Long> f : futures) {
+            long startTimestamp = f.get();
+            assertEquals(startTimestamp % CommitTable.MAX_CHECKPOINTS_PER_TXN, 0, "Should be a start timestamp");
+            assertTrue(startTimestamps.add(startTimestamp), "Start timestamps should be unique");
+        }
+        long nextStartTimestamp = tsoClient.getNewStartTimestamp().get();
+        for (long startTimestamp : startTimestamps) {
+            assertTrue(nextStartTimestamp > startTimestamp, "Should grow monotonically");
+        }
+    }
+
+    @Test(timeOut = 30_000)
+    public void testBatchedRequestsAreHandled() throws Exception {
+        OmidClientConfiguration tsoClientConf = new OmidClientConfiguration();
+        tsoClientConf.setConnectionString(TSO_SERVER_HOST + ":" + tsoServerPortForTest);
+        tsoClientConf.setRequestBatchWindowInUs(1000);
+        tsoClientConf.setMaxRequestsPerBatch(16);
+        TSOClient batchingTSOClient = TSOClient.newInstance(tsoClientConf);
+        try {
+            // Each commit lands in a request batch along with others. No write sets, so they can't conflict
+            List<Long> startTimestamps = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                startTimestamps.add(batchingTSOClient.getNewStartTimestamp().get());
+            }
+            List<TSOFuture<Long>> commits = new ArrayList<>();
+            for (long startTimestamp : startTimestamps) {
+                commits.add(batchingTSOClient.commit(startTimestamp, new HashSet<CellId>()));
+            }
+            for (int i = 0; i < commits.size(); i++) {
+                assertTrue(commits.get(i).get() > startTimestamps.get(i), "Commit TS must be greater than start TS");
+            }
+        } finally {
+            batchingTSOClient.close().get();
+        }
+    }
+
     @Test(timeOut = 30_000)
     public void testSimpleTransactionWithNoWriteSetCanCommit() throws Exception {
         long startTsTx1 = tsoClient.getNewStartTimestamp().get();
@@ -20,6 +20,7 @@ package org.apache.omid.tso.client;
 import org.apache.omid.tso.ProgrammableTSOServer;
 import org.apache.omid.tso.ProgrammableTSOServer.AbortResponse;
 import org.apache.omid.tso.ProgrammableTSOServer.CommitResponse;
+import org.apache.omid.tso.ProgrammableTSOServer.OverloadedResponse;
 import org.apache.omid.tso.ProgrammableTSOServer.TimestampResponse;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
@@ -29,13 +30,17 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class TestTSOClientResponseHandling {
 
     private static final int TSO_PORT = 4321;
     private static final long START_TS = 1L;
     private static final long COMMIT_TS = 2L;
+    private static final int RETRY_AFTER_IN_MS = 100;
 
     private ProgrammableTSOServer tsoServer = new ProgrammableTSOServer(TSO_PORT);
     // Client under test
@@ -93,4 +98,22 @@ public class TestTSOClientResponseHandling {
         assertEquals(commitTS, COMMIT_TS);
     }
 
+    @Test(timeOut = 10_000)
+    public void testRequestsRejectedByAnOverloadedServerAreRetriedLater() throws Exception {
+        // test requests rejected because the server is overloaded are sent again
+        // once the time asked by the server has passed
+
+        tsoServer.queueResponse(new OverloadedResponse(RETRY_AFTER_IN_MS));
+        tsoServer.queueResponse(new TimestampResponse(START_TS));
+        long before = System.nanoTime();
+        assertEquals(tsoClient.getNewStartTimestamp().get().longValue(), START_TS);
+        assertTrue(System.nanoTime() - before >= MILLISECONDS.toNanos(RETRY_AFTER_IN_MS));
+
+        tsoServer.queueResponse(new OverloadedResponse(RETRY_AFTER_IN_MS));
+        tsoServer.queueResponse(new CommitResponse(START_TS, COMMIT_TS));
+        before = System.nanoTime();
+        assertEquals(tsoClient.commit(START_TS, Collections.<CellId>emptySet()).get().longValue(), COMMIT_TS);
+        assertTrue(System.nanoTime() - before >= MILLISECONDS.toNanos(RETRY_AFTER_IN_MS));
+    }
+
 }